@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link RetryTracer} emitting Java Flight Recorder events for each attempt,
+ * each wait between attempts and each call which gives up. This class needs
+ * Java 11, so it is compiled on its own and only loaded by
+ * {@link RetryTracers#flightRecorder(String)} when the JVM supports it.
+ * <p></p>
+ * Each event begins when the previous step of the call ends, so an attempt
+ * event also covers the work of the retryer before the attempt. A call isn't
+ * traced at all unless a recording enables at least one of the events.
+ */
+@ThreadSafe
+final class FlightRecorderTracer implements RetryTracer {
+    private static final EventType ATTEMPT = EventType.getEventType(AttemptEvent.class);
+    private static final EventType BACKOFF = EventType.getEventType(BackoffEvent.class);
+    private static final EventType GIVE_UP = EventType.getEventType(GiveUpEvent.class);
+
+    private final String name;
+
+    FlightRecorderTracer(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public CallTrace startCall(long startTime) {
+        boolean attempts = ATTEMPT.isEnabled();
+        boolean backoffs = BACKOFF.isEnabled();
+        boolean giveUps = GIVE_UP.isEnabled();
+        if (!attempts && !backoffs && !giveUps) {
+            return null;
+        }
+        return new FlightRecorderCallTrace(name, attempts, backoffs, giveUps);
+    }
+
+    @NotThreadSafe
+    private static final class FlightRecorderCallTrace implements CallTrace {
+        private final String name;
+        private final boolean attempts;
+        private final boolean backoffs;
+        private final GiveUpEvent giveUp;
+        private AttemptEvent attempt;
+        private BackoffEvent backoff;
+        private long lastAttemptNumber;
+        private Class<?> lastExceptionClass;
+
+        FlightRecorderCallTrace(String name, boolean attempts, boolean backoffs, boolean giveUps) {
+            this.name = name;
+            this.attempts = attempts;
+            this.backoffs = backoffs;
+            this.giveUp = giveUps ? new GiveUpEvent() : null;
+            if (giveUp != null) {
+                giveUp.begin();
+            }
+            beginAttempt();
+        }
+
+        private void beginAttempt() {
+            if (attempts) {
+                attempt = new AttemptEvent();
+                attempt.begin();
+            }
+        }
+
+        @Override
+        public void onAttempt(Attempt<?> a, long startTime, long endTime) {
+            lastAttemptNumber = a.getAttemptNumber();
+            lastExceptionClass = a.hasException() ? a.getExceptionCause().getClass() : null;
+            if (attempt != null) {
+                attempt.end();
+                if (attempt.shouldCommit()) {
+                    attempt.retryer = name;
+                    attempt.attemptNumber = a.getAttemptNumber();
+                    attempt.outcome = a.hasResult() ? CallOutcome.RESULT.name() : CallOutcome.EXCEPTION.name();
+                    attempt.exceptionClass = lastExceptionClass;
+                    attempt.commit();
+                }
+                attempt = null;
+            }
+            if (backoffs) {
+                backoff = new BackoffEvent();
+                backoff.begin();
+            }
+        }
+
+        @Override
+        public void onWait(long attemptNumber, long sleepTime, long startTime, long endTime) {
+            if (backoff != null) {
+                backoff.end();
+                if (backoff.shouldCommit()) {
+                    backoff.retryer = name;
+                    backoff.attemptNumber = attemptNumber;
+                    backoff.sleepTime = sleepTime;
+                    backoff.blockedTime = endTime - startTime;
+                    backoff.commit();
+                }
+                backoff = null;
+            }
+            beginAttempt();
+        }
+
+        @Override
+        public void onCallEnd(CallOutcome outcome, long endTime) {
+            if (giveUp != null && (outcome == CallOutcome.GAVE_UP || outcome == CallOutcome.INTERRUPTED)) {
+                giveUp.end();
+                if (giveUp.shouldCommit()) {
+                    giveUp.retryer = name;
+                    giveUp.attempts = lastAttemptNumber;
+                    giveUp.outcome = outcome.name();
+                    giveUp.lastExceptionClass = lastExceptionClass;
+                    giveUp.commit();
+                }
+            }
+        }
+    }
+
+    @Name("com.github.rholder.retry.Attempt")
+    @Label("Retry Attempt")
+    @Category("Retry")
+    @Description("An attempt of a call made by a retryer")
+    static final class AttemptEvent extends Event {
+        @Label("Retryer")
+        String retryer;
+
+        @Label("Attempt Number")
+        long attemptNumber;
+
+        @Label("Outcome")
+        String outcome;
+
+        @Label("Exception Class")
+        Class<?> exceptionClass;
+    }
+
+    @Name("com.github.rholder.retry.Backoff")
+    @Label("Retry Backoff")
+    @Category("Retry")
+    @Description("A wait between two attempts of a call made by a retryer")
+    static final class BackoffEvent extends Event {
+        @Label("Retryer")
+        String retryer;
+
+        @Label("Attempt Number")
+        @Description("The number of the attempt before the wait")
+        long attemptNumber;
+
+        @Label("Sleep Time")
+        @Description("The time computed by the wait strategy")
+        @Timespan(Timespan.MILLISECONDS)
+        long sleepTime;
+
+        @Label("Blocked Time")
+        @Description("The time actually spent waiting, as measured by the ticker of the retryer")
+        @Timespan(Timespan.NANOSECONDS)
+        long blockedTime;
+    }
+
+    @Name("com.github.rholder.retry.GiveUp")
+    @Label("Retry Give Up")
+    @Category("Retry")
+    @Description("A call made by a retryer which gave up, from its start to its end")
+    static final class GiveUpEvent extends Event {
+        @Label("Retryer")
+        String retryer;
+
+        @Label("Attempts")
+        long attempts;
+
+        @Label("Outcome")
+        @Description("GAVE_UP if the stop strategy stopped the call, INTERRUPTED if the thread was interrupted")
+        String outcome;
+
+        @Label("Last Exception Class")
+        Class<?> lastExceptionClass;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FlightRecorderTracerTest {
+
+    private static final String ATTEMPT = "com.github.rholder.retry.Attempt";
+    private static final String BACKOFF = "com.github.rholder.retry.Backoff";
+    private static final String GIVE_UP = "com.github.rholder.retry.GiveUp";
+
+    @Test
+    public void testEmitsAttemptBackoffAndGiveUpEvents() throws Exception {
+        RetryTracer tracer = RetryTracers.flightRecorder("payments");
+        assertTrue(tracer instanceof FlightRecorderTracer);
+        Retryer<String> retryer = RetryerBuilder.<String>newBuilder()
+                .retryIfExceptionOfType(IOException.class)
+                .withWaitStrategy(WaitStrategies.fixedWait(2L, TimeUnit.MILLISECONDS))
+                .withStopStrategy(StopStrategies.stopAfterAttempt(3))
+                .withRetryTracer(tracer)
+                .build();
+
+        List<RecordedEvent> events;
+        Recording recording = new Recording();
+        try {
+            recording.enable(ATTEMPT);
+            recording.enable(BACKOFF);
+            recording.enable(GIVE_UP);
+            recording.start();
+            try {
+                retryer.call(new Callable<String>() {
+                    @Override
+                    public String call() throws IOException {
+                        throw new IOException();
+                    }
+                });
+                fail("Expected a RetryException");
+            } catch (RetryException expected) {
+            }
+            recording.stop();
+            File file = File.createTempFile("retry", ".jfr");
+            try {
+                recording.dump(file.toPath());
+                events = RecordingFile.readAllEvents(file.toPath());
+            } finally {
+                file.delete();
+            }
+        } finally {
+            recording.close();
+        }
+
+        List<RecordedEvent> attempts = ofType(events, ATTEMPT);
+        assertEquals(3, attempts.size());
+        for (int i = 0; i < attempts.size(); i++) {
+            RecordedEvent attempt = attempts.get(i);
+            assertEquals("payments", attempt.getString("retryer"));
+            assertEquals(i + 1L, attempt.getLong("attemptNumber"));
+            assertEquals("EXCEPTION", attempt.getString("outcome"));
+            assertEquals(IOException.class.getName(), attempt.getClass("exceptionClass").getName());
+        }
+
+        List<RecordedEvent> backoffs = ofType(events, BACKOFF);
+        assertEquals(2, backoffs.size());
+        for (int i = 0; i < backoffs.size(); i++) {
+            RecordedEvent backoff = backoffs.get(i);
+            assertEquals("payments", backoff.getString("retryer"));
+            assertEquals(i + 1L, backoff.getLong("attemptNumber"));
+            assertEquals(2L, backoff.getDuration("sleepTime").toMillis());
+            assertTrue(backoff.getDuration("blockedTime").toNanos() >= TimeUnit.MILLISECONDS.toNanos(2L));
+        }
+
+        List<RecordedEvent> giveUps = ofType(events, GIVE_UP);
+        assertEquals(1, giveUps.size());
+        RecordedEvent giveUp = giveUps.get(0);
+        assertEquals("payments", giveUp.getString("retryer"));
+        assertEquals(3L, giveUp.getLong("attempts"));
+        assertEquals("GAVE_UP", giveUp.getString("outcome"));
+        assertEquals(IOException.class.getName(), giveUp.getClass("lastExceptionClass").getName());
+    }
+
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String type) {
+        List<RecordedEvent> matching = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(type)) {
+                matching.add(event);
+            }
+        }
+        return matching;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Ticker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the system ticker with the coarse ticker, read on their own and as
+ * the clock of a retryer whose call succeeds on the first attempt, which reads
+ * its ticker twice per call. Run on several threads, since that is where
+ * {@link System#nanoTime()} is the most expensive on some platforms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Threads(4)
+@Fork(1)
+public class ClockBenchmark {
+
+    private final Ticker systemTicker = Ticker.systemTicker();
+    private final Ticker coarseTicker = CoarseTicker.getDefault();
+
+    private Retryer<Integer> systemTickerRetryer;
+    private Retryer<Integer> coarseTickerRetryer;
+    private Callable<Integer> callable;
+
+    @Setup
+    public void setUp() {
+        systemTickerRetryer = RetryerBuilder.<Integer>newBuilder()
+                .withStopStrategy(StopStrategies.stopAfterDelay(1L, TimeUnit.SECONDS))
+                .build();
+        coarseTickerRetryer = RetryerBuilder.<Integer>newBuilder()
+                .withStopStrategy(StopStrategies.stopAfterDelay(1L, TimeUnit.SECONDS))
+                .withTicker(coarseTicker)
+                .build();
+        final Integer result = 42;
+        callable = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return result;
+            }
+        };
+    }
+
+    @Benchmark
+    public long systemTickerRead() {
+        return systemTicker.read();
+    }
+
+    @Benchmark
+    public long coarseTickerRead() {
+        return coarseTicker.read();
+    }
+
+    @Benchmark
+    public Integer systemTickerCall() throws ExecutionException, RetryException {
+        return systemTickerRetryer.call(callable);
+    }
+
+    @Benchmark
+    public Integer coarseTickerCall() throws ExecutionException, RetryException {
+        return coarseTickerRetryer.call(callable);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares a call retried through a proxy created by {@link RetryProxies} with
+ * the same call wrapped in a {@link Callable} by hand, when the first attempt
+ * succeeds, which is when the overhead of the proxy matters the most.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RetryProxyBenchmark {
+
+    public interface Client {
+        @Retrying(maxAttempts = 3, waitTime = 10L, retryOn = IOException.class)
+        int fetch(int key) throws IOException;
+    }
+
+    private static final class DirectClient implements Client {
+        @Override
+        public int fetch(int key) {
+            return key + 1;
+        }
+    }
+
+    private final Client client = new DirectClient();
+    private Client proxy;
+    private Retryer<Integer> retryer;
+    private int key;
+
+    @Setup
+    public void setUp() {
+        proxy = RetryProxies.newProxy(Client.class, client);
+        retryer = RetryerBuilder.<Integer>newBuilder()
+                .withStopStrategy(StopStrategies.stopAfterAttempt(3))
+                .withWaitStrategy(WaitStrategies.fixedWait(10L, TimeUnit.MILLISECONDS))
+                .retryIfExceptionOfType(IOException.class)
+                .build();
+    }
+
+    @Benchmark
+    public int handWritten() throws ExecutionException, RetryException {
+        final int k = key++;
+        return retryer.call(new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return client.fetch(k);
+            }
+        });
+    }
+
+    @Benchmark
+    public int proxy() throws IOException {
+        return proxy.fetch(key++);
+    }
+}
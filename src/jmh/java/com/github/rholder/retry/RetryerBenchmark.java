@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Predicates;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a call retried many times without waiting, like an optimistic
+ * update losing races, with a new attempt for each try or a reused one. Run
+ * with {@code -prof gc} to compare the garbage created per call. Both
+ * retryers have a listener the attempts escape to, as a real listener would
+ * let them, which keeps the JIT from optimizing the new attempts away.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RetryerBenchmark {
+
+    private static final int ATTEMPTS = 32;
+
+    private static final BlockStrategy NO_BLOCK = new BlockStrategy() {
+        @Override
+        public void block(long sleepTime) {
+        }
+    };
+
+    private volatile Attempt<?> lastAttempt;
+
+    private final RetryListener listener = new RetryListener() {
+        @Override
+        public <V> void onRetry(Attempt<V> attempt) {
+            lastAttempt = attempt;
+        }
+    };
+
+    private Retryer<Integer> newAttemptRetryer;
+    private Retryer<Integer> reusedAttemptRetryer;
+    private Callable<Integer> callable;
+
+    @Setup
+    public void setUp() {
+        newAttemptRetryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfResult(Predicates.<Integer>isNull())
+                .withBlockStrategy(NO_BLOCK)
+                .withRetryListener(listener)
+                .build();
+        reusedAttemptRetryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfResult(Predicates.<Integer>isNull())
+                .withBlockStrategy(NO_BLOCK)
+                .withRetryListener(listener)
+                .withReusedAttempt()
+                .build();
+        final Integer success = 42;
+        callable = new Callable<Integer>() {
+            private int count;
+
+            @Override
+            public Integer call() {
+                return ++count % ATTEMPTS == 0 ? success : null;
+            }
+        };
+    }
+
+    @Benchmark
+    public Integer newAttempts() throws ExecutionException, RetryException {
+        return newAttemptRetryer.call(callable);
+    }
+
+    @Benchmark
+    public Integer reusedAttempt() throws ExecutionException, RetryException {
+        return reusedAttemptRetryer.call(callable);
+    }
+}
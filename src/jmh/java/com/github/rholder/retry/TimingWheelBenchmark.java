@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares scheduling and cancelling a backoff on a {@link TimingWheelRetryScheduler}
+ * and on a {@link ScheduledThreadPoolExecutor}, both already holding a large
+ * number of pending backoffs, from several threads at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Threads(4)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class TimingWheelBenchmark {
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Param("1000000")
+    public int pending;
+
+    private TimingWheelRetryScheduler timingWheel;
+    private ScheduledThreadPoolExecutor scheduledExecutor;
+
+    @Setup
+    public void setUp() {
+        timingWheel = new TimingWheelRetryScheduler(Executors.newSingleThreadExecutor());
+        scheduledExecutor = new ScheduledThreadPoolExecutor(1);
+        // backoffs of one to two hours, so none of them expires during the run
+        Random random = new Random(42L);
+        for (int i = 0; i < pending; i++) {
+            long delay = TimeUnit.HOURS.toMillis(1L) + random.nextInt((int) TimeUnit.HOURS.toMillis(1L));
+            timingWheel.newTimeout(NOOP, delay, TimeUnit.MILLISECONDS);
+            scheduledExecutor.schedule(NOOP, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        timingWheel.shutdown();
+        scheduledExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean timingWheelScheduleAndCancel() {
+        return timingWheel.newTimeout(NOOP, 5000L, TimeUnit.MILLISECONDS).cancel();
+    }
+
+    @Benchmark
+    public boolean scheduledExecutorScheduleAndCancel() {
+        ScheduledFuture<?> future = scheduledExecutor.schedule(NOOP, 5000L, TimeUnit.MILLISECONDS);
+        future.cancel(false);
+        // take it out of the heap, like the timing wheel does
+        return scheduledExecutor.remove((Runnable) future);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares computing sleep times from the precomputed schedules with the
+ * formulas the wait strategies used before, which are copied here as the
+ * baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WaitStrategiesBenchmark {
+
+    private static final int ATTEMPTS = 32;
+
+    private Attempt<?>[] attempts;
+    private int index;
+
+    private WaitStrategy exponential;
+    private WaitStrategy fibonacci;
+    private WaitStrategy joined;
+
+    @Setup
+    public void setUp() {
+        attempts = new Attempt<?>[ATTEMPTS];
+        for (int i = 0; i < ATTEMPTS; i++) {
+            attempts[i] = new Retryer.ResultAttempt<Object>(null, i + 1, 0L);
+        }
+        exponential = WaitStrategies.exponentialWait(100L, 5L, TimeUnit.MINUTES);
+        fibonacci = WaitStrategies.fibonacciWait(100L, 2L, TimeUnit.MINUTES);
+        joined = WaitStrategies.join(
+                WaitStrategies.fixedWait(50L, TimeUnit.MILLISECONDS),
+                WaitStrategies.exponentialWait(100L, 5L, TimeUnit.MINUTES),
+                WaitStrategies.incrementingWait(10L, TimeUnit.MILLISECONDS, 10L, TimeUnit.MILLISECONDS));
+    }
+
+    private Attempt<?> nextAttempt() {
+        index = (index + 1) & (ATTEMPTS - 1);
+        return attempts[index];
+    }
+
+    @Benchmark
+    public long exponentialSchedule() {
+        return exponential.computeSleepTime(nextAttempt());
+    }
+
+    @Benchmark
+    public long exponentialFormula() {
+        return exponentialFormula(100L, TimeUnit.MINUTES.toMillis(5L), nextAttempt().getAttemptNumber());
+    }
+
+    @Benchmark
+    public long fibonacciSchedule() {
+        return fibonacci.computeSleepTime(nextAttempt());
+    }
+
+    @Benchmark
+    public long fibonacciFormula() {
+        return fibonacciFormula(100L, TimeUnit.MINUTES.toMillis(2L), nextAttempt().getAttemptNumber());
+    }
+
+    @Benchmark
+    public long joinedSchedule() {
+        return joined.computeSleepTime(nextAttempt());
+    }
+
+    @Benchmark
+    public long joinedFormula() {
+        long attemptNumber = nextAttempt().getAttemptNumber();
+        long incrementing = 10L + (10L * (attemptNumber - 1));
+        return 50L
+                + exponentialFormula(100L, TimeUnit.MINUTES.toMillis(5L), attemptNumber)
+                + (incrementing >= 0L ? incrementing : 0L);
+    }
+
+    private static long exponentialFormula(long multiplier, long maximumWait, long attemptNumber) {
+        double exp = Math.pow(2, attemptNumber);
+        long result = Math.round(multiplier * exp);
+        if (result > maximumWait) {
+            result = maximumWait;
+        }
+        return result >= 0L ? result : 0L;
+    }
+
+    private static long fibonacciFormula(long multiplier, long maximumWait, long attemptNumber) {
+        long fib = fib(attemptNumber);
+        long result = multiplier * fib;
+        if (result > maximumWait || result < 0L) {
+            result = maximumWait;
+        }
+        return result >= 0L ? result : 0L;
+    }
+
+    private static long fib(long n) {
+        if (n == 0L) return 0L;
+        if (n == 1L) return 1L;
+
+        long prevPrev = 0L;
+        long prev = 1L;
+        long result = 0L;
+
+        for (long i = 2L; i <= n; i++) {
+            result = prev + prevPrev;
+            prevPrev = prev;
+            prev = result;
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link WaitStrategy} whose sleep time follows how the called service is
+ * doing right now, rather than a fixed curve. It is meant to be shared by all
+ * the retryers calling the same service, and registered as a {@link RetryListener}
+ * on each of them, so it sees the outcome of every attempt:
+ * <pre>
+ * AdaptiveWaitStrategy adaptiveWait = new AdaptiveWaitStrategy(0L, 30L, TimeUnit.SECONDS, 0.2);
+ * Retryer&lt;Result&gt; retryer = RetryerBuilder.&lt;Result&gt;newBuilder()
+ *         .withWaitStrategy(adaptiveWait)
+ *         .withRetryListener(adaptiveWait)
+ *         ...
+ * </pre>
+ * Attempts which threw an exception are counted as failures and all the others
+ * as successes, over a sliding window. Each time the window moves on by one of
+ * its {@link #BUCKET_COUNT} slices, the sleep time is doubled if the failure
+ * rate over the window exceeded the threshold, and lowered by a fixed step
+ * otherwise, the way additive-increase/multiplicative-decrease congestion
+ * control adjusts a sending rate. Callers thus back off quickly when the
+ * service degrades, and settle at the rate it can actually take rather than
+ * all coming back at once when it recovers.
+ * <p></p>
+ * It can be joined with another strategy, such as an exponential one, to also
+ * back off from attempt to attempt within the same call.
+ */
+@Beta
+@ThreadSafe
+public final class AdaptiveWaitStrategy implements WaitStrategy, RetryListener {
+
+    /**
+     * The number of slices the window is split into, which is also the number
+     * of times per window the sleep time may change.
+     */
+    public static final int BUCKET_COUNT = 10;
+
+    /**
+     * The number of steps in which the sleep time goes back from the maximum
+     * to the minimum once the service is healthy again.
+     */
+    public static final int DECREASE_STEPS = 20;
+
+    /**
+     * The minimum number of attempts in a window for its failure rate to raise
+     * the sleep time, so that a couple of failures at a quiet time don't.
+     */
+    public static final int MINIMUM_ATTEMPTS = 10;
+
+    private final long minimumTime;
+    private final long maximumTime;
+    private final long step;
+    private final double failureRateThreshold;
+    private final SlidingWindowCounter counter;
+    private final AtomicLong lastAdjustedEpoch = new AtomicLong();
+    private volatile long sleepTime;
+
+    /**
+     * Constructor, using a window of 10 seconds.
+     *
+     * @param minimumTime          the minimum time to sleep, which is also the initial one
+     * @param maximumTime          the maximum time to sleep
+     * @param timeUnit             the unit of the minimum and maximum times
+     * @param failureRateThreshold the failure rate, between 0 and 1, above which the sleep time is raised
+     */
+    public AdaptiveWaitStrategy(long minimumTime, long maximumTime, @Nonnull TimeUnit timeUnit, double failureRateThreshold) {
+        this(minimumTime, maximumTime, timeUnit, failureRateThreshold, 10L, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param minimumTime          the minimum time to sleep, which is also the initial one
+     * @param maximumTime          the maximum time to sleep
+     * @param timeUnit             the unit of the minimum and maximum times
+     * @param failureRateThreshold the failure rate, between 0 and 1, above which the sleep time is raised
+     * @param window               the length of the window the failure rate is computed over
+     * @param windowUnit           the unit of the window length
+     */
+    public AdaptiveWaitStrategy(long minimumTime,
+                                long maximumTime,
+                                @Nonnull TimeUnit timeUnit,
+                                double failureRateThreshold,
+                                long window,
+                                @Nonnull TimeUnit windowUnit) {
+        this(minimumTime, maximumTime, timeUnit, failureRateThreshold, window, windowUnit, Ticker.systemTicker());
+    }
+
+    AdaptiveWaitStrategy(long minimumTime,
+                         long maximumTime,
+                         @Nonnull TimeUnit timeUnit,
+                         double failureRateThreshold,
+                         long window,
+                         @Nonnull TimeUnit windowUnit,
+                         @Nonnull Ticker ticker) {
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        Preconditions.checkArgument(minimumTime >= 0L, "minimumTime must be >= 0 but is %s", minimumTime);
+        Preconditions.checkArgument(maximumTime > minimumTime, "maximumTime must be > minimumTime but is %s", maximumTime);
+        Preconditions.checkArgument(failureRateThreshold >= 0.0 && failureRateThreshold < 1.0,
+                "failureRateThreshold must be >= 0 and < 1 but is %s", failureRateThreshold);
+        this.minimumTime = timeUnit.toMillis(minimumTime);
+        this.maximumTime = timeUnit.toMillis(maximumTime);
+        this.step = Math.max(1L, (this.maximumTime - this.minimumTime) / DECREASE_STEPS);
+        this.failureRateThreshold = failureRateThreshold;
+        this.counter = new SlidingWindowCounter(window, windowUnit, BUCKET_COUNT, ticker);
+        this.sleepTime = this.minimumTime;
+    }
+
+    @Override
+    public long computeSleepTime(Attempt failedAttempt) {
+        return sleepTime;
+    }
+
+    @Override
+    public <V> void onRetry(Attempt<V> attempt) {
+        long epoch = counter.record(!attempt.hasException());
+        long lastEpoch = lastAdjustedEpoch.get();
+        if (epoch > lastEpoch && lastAdjustedEpoch.compareAndSet(lastEpoch, epoch)) {
+            adjust(epoch);
+        }
+    }
+
+    private void adjust(long epoch) {
+        long failures = counter.failuresBefore(epoch);
+        long attempts = failures + counter.successesBefore(epoch);
+        long current = sleepTime;
+        if (attempts >= MINIMUM_ATTEMPTS && failures > failureRateThreshold * attempts) {
+            sleepTime = Math.min(maximumTime, Math.max(current * 2, minimumTime + step));
+        } else {
+            sleepTime = Math.max(minimumTime, current - step);
+        }
+    }
+
+    /**
+     * Returns the time, in milliseconds, currently slept before retrying.
+     *
+     * @return the current sleep time, in milliseconds
+     */
+    public long getCurrentSleepTime() {
+        return sleepTime;
+    }
+
+    /**
+     * Returns the failure rate over the complete slices of the current window,
+     * or 0 if no attempt was made during them.
+     *
+     * @return the current failure rate, between 0 and 1
+     */
+    public double getFailureRate() {
+        long epoch = counter.currentEpoch();
+        long failures = counter.failuresBefore(epoch);
+        long attempts = failures + counter.successesBefore(epoch);
+        return attempts == 0L ? 0.0 : (double) failures / attempts;
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link RetryListener} which hands each attempt over to a background thread
+ * that notifies the wrapped listener, so a slow listener doesn't add to the
+ * latency of every call. Attempts are kept in a bounded, lock-free ring buffer
+ * until the background thread gets to them, and the {@link OverflowPolicy}
+ * decides what happens when the buffer fills up. Exceptions thrown by the
+ * wrapped listener never reach the retryer; they are counted instead.
+ * Attempts are copied with {@link Attempts#copyOf(Attempt)} before being
+ * buffered, so this listener also works with a retryer reusing its attempts.
+ * <p></p>
+ * Since the wrapped listener runs later on another thread, it must not rely
+ * on being notified before the rejection predicate and the stop strategy are
+ * applied.
+ */
+@Beta
+@ThreadSafe
+public final class AsyncRetryListener implements RetryListener {
+
+    /**
+     * What to do with an attempt when the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the attempt.
+         */
+        DROP,
+        /**
+         * Once the buffer is half full, keep only one attempt out of every
+         * {@link #SAMPLE_RATE}, and drop the attempt if the buffer is full.
+         */
+        SAMPLE,
+        /**
+         * Wait until there is room in the buffer. This applies backpressure to
+         * the retrying threads, which the other policies never do.
+         */
+        BLOCK
+    }
+
+    /**
+     * The rate at which attempts are kept by {@link OverflowPolicy#SAMPLE}.
+     */
+    public static final int SAMPLE_RATE = 10;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10L);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10L);
+
+    private final RetryListener delegate;
+    private final OverflowPolicy overflowPolicy;
+    private final RingBuffer<Attempt<?>> buffer;
+    private final Thread consumer;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+    private final AtomicInteger producers = new AtomicInteger();
+    private volatile boolean consumerParked;
+    private volatile boolean shutdown;
+
+    /**
+     * Constructor. The background thread is a daemon thread.
+     *
+     * @param delegate       the listener to notify in the background
+     * @param capacity       the maximum number of attempts waiting to be handled, rounded up to a power of two
+     * @param overflowPolicy what to do with an attempt when the buffer is full
+     */
+    public AsyncRetryListener(@Nonnull RetryListener delegate, int capacity, @Nonnull OverflowPolicy overflowPolicy) {
+        this(delegate, capacity, overflowPolicy, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "async-retry-listener");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Constructor
+     *
+     * @param delegate       the listener to notify in the background
+     * @param capacity       the maximum number of attempts waiting to be handled, rounded up to a power of two
+     * @param overflowPolicy what to do with an attempt when the buffer is full
+     * @param threadFactory  used to create the background thread
+     */
+    public AsyncRetryListener(@Nonnull RetryListener delegate,
+                              int capacity,
+                              @Nonnull OverflowPolicy overflowPolicy,
+                              @Nonnull ThreadFactory threadFactory) {
+        Preconditions.checkNotNull(delegate, "delegate may not be null");
+        Preconditions.checkArgument(capacity > 0 && capacity <= 1 << 30, "capacity must be > 0 and <= 2^30 but is %s", capacity);
+        Preconditions.checkNotNull(overflowPolicy, "overflowPolicy may not be null");
+        Preconditions.checkNotNull(threadFactory, "threadFactory may not be null");
+        this.delegate = delegate;
+        this.overflowPolicy = overflowPolicy;
+        this.buffer = new RingBuffer<Attempt<?>>(capacity);
+        this.consumer = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        });
+        this.consumer.start();
+    }
+
+    @Override
+    public <V> void onRetry(Attempt<V> attempt) {
+        // counted before checking shutdown, so the background thread doesn't exit
+        // until every attempt which got past the check is in the buffer
+        producers.incrementAndGet();
+        try {
+            if (shutdown || !enqueue(Attempts.copyOf(attempt))) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } finally {
+            producers.decrementAndGet();
+        }
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private boolean enqueue(Attempt<?> attempt) {
+        switch (overflowPolicy) {
+            case SAMPLE:
+                if (buffer.size() >= buffer.capacity() / 2 && sampled.incrementAndGet() % SAMPLE_RATE != 0) {
+                    return false;
+                }
+                return buffer.offer(attempt);
+            case BLOCK:
+                while (!buffer.offer(attempt)) {
+                    if (shutdown) {
+                        return false;
+                    }
+                    LockSupport.parkNanos(FULL_PARK_NANOS);
+                }
+                return true;
+            default:
+                return buffer.offer(attempt);
+        }
+    }
+
+    private void consume() {
+        for (; ; ) {
+            Attempt<?> attempt = buffer.poll();
+            if (attempt != null) {
+                try {
+                    delegate.onRetry(attempt);
+                } catch (Throwable t) {
+                    failures.incrementAndGet();
+                }
+            } else if (shutdown) {
+                if (producers.get() == 0 && buffer.isEmpty()) {
+                    return;
+                }
+                Thread.yield();
+            } else {
+                consumerParked = true;
+                if (buffer.isEmpty() && !shutdown) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                consumerParked = false;
+            }
+        }
+    }
+
+    /**
+     * Stops accepting attempts. The attempts already in the buffer are still
+     * handed to the wrapped listener before the background thread exits.
+     */
+    public void shutdown() {
+        shutdown = true;
+        LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Waits for the background thread to exit after {@link #shutdown()}.
+     *
+     * @param timeout  the maximum time to wait
+     * @param timeUnit the unit of the timeout
+     * @return <code>true</code> if the background thread exited, <code>false</code> if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, @Nonnull TimeUnit timeUnit) throws InterruptedException {
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        consumer.join(Math.max(1L, timeUnit.toMillis(timeout)));
+        return !consumer.isAlive();
+    }
+
+    /**
+     * Returns the number of attempts which were dropped by the overflow policy,
+     * or because they arrived after {@link #shutdown()}.
+     *
+     * @return the number of dropped attempts
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of times the wrapped listener threw an exception.
+     *
+     * @return the number of listener failures
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Returns the number of attempts waiting to be handed to the wrapped listener.
+     *
+     * @return the number of pending attempts
+     */
+    public int getPendingCount() {
+        return buffer.size();
+    }
+
+    /**
+     * A bounded ring buffer for many producers and a single consumer. Each slot
+     * has a sequence number telling producers whether it is free and the
+     * consumer whether it has been filled, so neither side ever locks.
+     */
+    private static final class RingBuffer<E> {
+        private final int mask;
+        private final AtomicReferenceArray<E> elements;
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+
+        public RingBuffer(int capacity) {
+            int size = Integer.highestOneBit(capacity);
+            if (size < capacity) {
+                size <<= 1;
+            }
+            this.mask = size - 1;
+            this.elements = new AtomicReferenceArray<E>(size);
+            this.sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        public boolean offer(E element) {
+            for (; ; ) {
+                long position = tail.get();
+                int index = (int) (position & mask);
+                long difference = sequences.get(index) - position;
+                if (difference == 0L) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        elements.lazySet(index, element);
+                        sequences.lazySet(index, position + 1);
+                        return true;
+                    }
+                } else if (difference < 0L) {
+                    return false;
+                }
+            }
+        }
+
+        public E poll() {
+            long position = head;
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                return null;
+            }
+            E element = elements.get(index);
+            elements.lazySet(index, null);
+            sequences.lazySet(index, position + mask + 1);
+            head = position + 1;
+            return element;
+        }
+
+        public boolean isEmpty() {
+            return sequences.get((int) (head & mask)) != head + 1;
+        }
+
+        public int size() {
+            return (int) Math.max(0L, tail.get() - head);
+        }
+
+        public int capacity() {
+            return mask + 1;
+        }
+    }
+}
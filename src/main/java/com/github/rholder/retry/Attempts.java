@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Utility methods for {@link Attempt} instances.
+ */
+public final class Attempts {
+
+    private Attempts() {
+    }
+
+    /**
+     * Returns an immutable copy of the given attempt, which can be kept after
+     * the attempt was handed over. This is needed to keep an attempt made by a
+     * retryer built with {@link RetryerBuilder#withReusedAttempt()}, which
+     * updates the same attempt in place for each new attempt of a call; an
+     * attempt which is already immutable is returned as is.
+     *
+     * @param attempt the attempt to copy
+     * @param <V>     the type returned by the call
+     * @return an immutable attempt with the same outcome, number and delay as the given one
+     */
+    public static <V> Attempt<V> copyOf(@Nonnull Attempt<V> attempt) {
+        Preconditions.checkNotNull(attempt, "attempt may not be null");
+        if (attempt instanceof Retryer.ResultAttempt || attempt instanceof Retryer.ExceptionAttempt) {
+            return attempt;
+        }
+        if (attempt.hasException()) {
+            return new Retryer.ExceptionAttempt<V>(attempt.getExceptionCause(), attempt.getAttemptNumber(),
+                    attempt.getDelaySinceFirstAttempt());
+        }
+        return new Retryer.ResultAttempt<V>(attempt.getResult(), attempt.getAttemptNumber(),
+                attempt.getDelaySinceFirstAttempt());
+    }
+}
@@ -16,7 +16,12 @@
 
 package com.github.rholder.retry;
 
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Factory class for {@link BlockStrategy} instances.
@@ -38,6 +43,21 @@ public final class BlockStrategies {
         return THREAD_SLEEP_STRATEGY;
     }
 
+    /**
+     * Returns a block strategy that doesn't block at all, but moves the given
+     * ticker forward by the sleep time instead. Used together with
+     * {@link RetryerBuilder#withTicker(com.google.common.base.Ticker)}, a retryer
+     * then goes through its whole schedule in virtual time.
+     *
+     * @param ticker the ticker to move forward between retries
+     * @return a block strategy that moves the given ticker forward between retries
+     */
+    @Beta
+    public static BlockStrategy virtualTimeStrategy(@Nonnull VirtualTicker ticker) {
+        Preconditions.checkNotNull(ticker, "ticker may not be null");
+        return new VirtualTimeStrategy(ticker);
+    }
+
     @Immutable
     private static class ThreadSleepStrategy implements BlockStrategy {
 
@@ -46,4 +66,18 @@ public final class BlockStrategies {
             Thread.sleep(sleepTime);
         }
     }
-}
\ No newline at end of file
+
+    @Immutable
+    private static final class VirtualTimeStrategy implements BlockStrategy {
+        private final VirtualTicker ticker;
+
+        public VirtualTimeStrategy(VirtualTicker ticker) {
+            this.ticker = ticker;
+        }
+
+        @Override
+        public void block(long sleepTime) {
+            ticker.advance(sleepTime, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A {@link RetryScheduler} which hands back the task it queued for an attempt,
+ * so that cancelling an asynchronous call also cancels its next attempt, and
+ * the call doesn't stay referenced by the queue for the rest of its wait.
+ */
+interface CancellableRetryScheduler extends RetryScheduler {
+
+    /**
+     * Schedules the given attempt, as {@link #schedule(Runnable, long)} does.
+     *
+     * @param attempt   the task running the next attempt
+     * @param sleepTime the computed sleep duration in milliseconds
+     * @return the queued task, which can be cancelled
+     * @throws RejectedExecutionException if the attempt cannot be scheduled
+     */
+    Future<?> scheduleCancellable(Runnable attempt, long sleepTime) throws RejectedExecutionException;
+}
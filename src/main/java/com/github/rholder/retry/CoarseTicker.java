@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link Ticker} reading a timestamp which a background thread refreshes
+ * from {@link System#nanoTime()} at a fixed resolution, so that reading it is
+ * no more than reading a volatile field. Given to
+ * {@link RetryerBuilder#withTicker(Ticker)}, it takes the clock off the path of
+ * every attempt, at the cost of delays since the first attempt, and so
+ * {@link StopStrategies#stopAfterDelay(long, TimeUnit)}, being off by up to the
+ * resolution. That is worth it for calls retried at a high rate, which are
+ * short and rarely stopped by a delay measured in milliseconds.
+ * <p></p>
+ * Each instance has its own thread, so most applications should share
+ * {@link #getDefault()} rather than creating more.
+ */
+@Beta
+@ThreadSafe
+public final class CoarseTicker extends Ticker {
+
+    private static final ThreadFactory DAEMON_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "retry-coarse-ticker");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private static final class DefaultHolder {
+        static final CoarseTicker INSTANCE = new CoarseTicker(1L, TimeUnit.MILLISECONDS, DAEMON_THREAD_FACTORY, true);
+    }
+
+    private final long resolutionNanos;
+    private final boolean shared;
+    private final Thread updater;
+    private volatile long nanos;
+    private volatile boolean shutdown;
+
+    /**
+     * Constructor. The background thread is a daemon thread.
+     *
+     * @param resolution the time between two refreshes of the timestamp, which must be > 0
+     * @param timeUnit   the unit of the resolution
+     */
+    public CoarseTicker(long resolution, @Nonnull TimeUnit timeUnit) {
+        this(resolution, timeUnit, DAEMON_THREAD_FACTORY, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param resolution    the time between two refreshes of the timestamp, which must be > 0
+     * @param timeUnit      the unit of the resolution
+     * @param threadFactory used to create the background thread
+     */
+    public CoarseTicker(long resolution, @Nonnull TimeUnit timeUnit, @Nonnull ThreadFactory threadFactory) {
+        this(resolution, timeUnit, threadFactory, false);
+    }
+
+    private CoarseTicker(long resolution, TimeUnit timeUnit, ThreadFactory threadFactory, boolean shared) {
+        Preconditions.checkArgument(resolution > 0L, "resolution must be > 0 but is %s", resolution);
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        Preconditions.checkNotNull(threadFactory, "threadFactory may not be null");
+        this.resolutionNanos = timeUnit.toNanos(resolution);
+        this.shared = shared;
+        this.nanos = System.nanoTime();
+        this.updater = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                update();
+            }
+        });
+        this.updater.start();
+    }
+
+    /**
+     * Returns the shared ticker, refreshed every millisecond. Its background
+     * thread is started the first time this method is called, and never stopped.
+     *
+     * @return the shared coarse ticker
+     */
+    public static CoarseTicker getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private void update() {
+        while (!shutdown) {
+            LockSupport.parkNanos(this, resolutionNanos);
+            nanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    public long read() {
+        return nanos;
+    }
+
+    /**
+     * Returns the time between two refreshes of the timestamp.
+     *
+     * @param timeUnit the unit of the returned resolution
+     * @return the resolution of this ticker
+     */
+    public long getResolution(@Nonnull TimeUnit timeUnit) {
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        return timeUnit.convert(resolutionNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops the background thread. The ticker doesn't move anymore after that,
+     * so it must not be in use by a retryer anymore. The default ticker can't
+     * be shut down.
+     *
+     * @throws IllegalStateException if this is the default ticker
+     */
+    public void shutdown() {
+        Preconditions.checkState(!shared, "the default ticker can't be shut down");
+        shutdown = true;
+        LockSupport.unpark(updater);
+    }
+}
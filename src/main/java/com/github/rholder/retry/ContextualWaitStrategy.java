@@ -0,0 +1,34 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+/**
+ * A {@link WaitStrategy} which also gets the {@link RetryContext} of the call
+ * being retried, for strategies whose sleep time depends on what happened
+ * earlier in the same call, such as the previous sleep time.
+ */
+public interface ContextualWaitStrategy extends WaitStrategy {
+
+    /**
+     * Returns the time, in milliseconds, to sleep before retrying.
+     *
+     * @param failedAttempt the previous failed {@code Attempt}
+     * @param context       the state of the call being retried
+     * @return the sleep time before next attempt
+     */
+    long computeSleepTime(Attempt failedAttempt, RetryContext context);
+}
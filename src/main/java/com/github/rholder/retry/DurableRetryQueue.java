@@ -0,0 +1,402 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A queue of tasks which are retried in the background until they succeed,
+ * and which survives the process being restarted. It takes over the tasks a
+ * {@link Retryer} gave up on, so that work such as delivering a webhook is
+ * deferred rather than lost:
+ * <pre>
+ * if (!queue.callOrDefer(delivery, retryer)) {
+ *     // the delivery failed for now, and will be retried by the queue
+ * }
+ * </pre>
+ * Each deferred task is written to an append-only, memory-mapped log along
+ * with its attempt number and the time of its next attempt. The queue then
+ * runs the task again on its {@link RetryScheduler}, using its own stop and
+ * wait strategies, with attempt numbers following on from those made by the
+ * retryer. An attempt fails if the handler throws an exception. When the
+ * queue is created, the tasks left in the log by a previous run are scheduled
+ * again, at the time they were due or right away if that time is past.
+ * <p></p>
+ * Writes to the log survive the process dying as soon as they are made, but
+ * {@link #flush()} must be called to make sure they survive the machine going
+ * down too. A task may run once more than needed after a restart, if the
+ * process died after the task ran but before that was recorded, so handlers
+ * should be idempotent. If the log can't be written to while a task is
+ * retried, the failure is logged and the task is retried all the same; the
+ * log then holds the last state it could record.
+ *
+ * @param <T> the type of the tasks
+ */
+@Beta
+@ThreadSafe
+public final class DurableRetryQueue<T> implements Closeable {
+
+    /**
+     * The default size of a new log file, in bytes.
+     */
+    public static final int DEFAULT_LOG_SIZE = 4 * 1024 * 1024;
+
+    private static final Logger LOGGER = Logger.getLogger(DurableRetryQueue.class.getName());
+
+    /**
+     * Turns tasks into bytes to be written to the log, and back.
+     *
+     * @param <T> the type of the tasks
+     */
+    public interface Serializer<T> {
+
+        /**
+         * @param task the task to write to the log
+         * @return the bytes representing the task
+         * @throws IOException if the task can't be serialized
+         */
+        byte[] serialize(T task) throws IOException;
+
+        /**
+         * @param bytes the bytes read from the log
+         * @return the task represented by the bytes
+         * @throws IOException if the bytes can't be deserialized
+         */
+        T deserialize(byte[] bytes) throws IOException;
+    }
+
+    /**
+     * Runs the tasks of a queue.
+     *
+     * @param <T> the type of the tasks
+     */
+    public interface Handler<T> {
+
+        /**
+         * Runs a task.
+         *
+         * @param task the task to run
+         * @throws Exception if the attempt failed and the task must be retried
+         */
+        void handle(T task) throws Exception;
+
+        /**
+         * Called when the stop strategy of the queue decides to stop retrying
+         * a task, which is then removed from the queue.
+         *
+         * @param task           the task given up on
+         * @param retryException the exception holding the last failed attempt
+         */
+        void onGiveUp(T task, RetryException retryException);
+    }
+
+    private final RetryLog log;
+    private final Serializer<T> serializer;
+    private final Handler<T> handler;
+    private final StopStrategy stopStrategy;
+    private final WaitStrategy waitStrategy;
+    private final RetryScheduler scheduler;
+    private final ConcurrentMap<Long, T> tasks = new ConcurrentHashMap<Long, T>();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong givenUp = new AtomicLong();
+    // held for reading to write to the log, and for writing to close it
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    /**
+     * Constructor, with a log file of {@link #DEFAULT_LOG_SIZE} bytes to begin with.
+     *
+     * @param logFile      the file holding the log, which is created if needed
+     * @param serializer   used to write tasks to the log, and read them back
+     * @param handler      used to run the tasks
+     * @param stopStrategy the strategy used to decide when to stop retrying a task
+     * @param waitStrategy the strategy used to decide how long to wait between attempts
+     * @param scheduler    the scheduler used to run the attempts
+     * @throws IOException if the log can't be opened, or the tasks it holds read back
+     */
+    public DurableRetryQueue(@Nonnull File logFile,
+                             @Nonnull Serializer<T> serializer,
+                             @Nonnull Handler<T> handler,
+                             @Nonnull StopStrategy stopStrategy,
+                             @Nonnull WaitStrategy waitStrategy,
+                             @Nonnull RetryScheduler scheduler) throws IOException {
+        this(logFile, DEFAULT_LOG_SIZE, serializer, handler, stopStrategy, waitStrategy, scheduler);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param logFile      the file holding the log, which is created if needed
+     * @param logSize      the size of a new log file, in bytes; the file grows when needed
+     * @param serializer   used to write tasks to the log, and read them back
+     * @param handler      used to run the tasks
+     * @param stopStrategy the strategy used to decide when to stop retrying a task
+     * @param waitStrategy the strategy used to decide how long to wait between attempts
+     * @param scheduler    the scheduler used to run the attempts
+     * @throws IOException if the log can't be opened, or the tasks it holds read back
+     */
+    public DurableRetryQueue(@Nonnull File logFile,
+                             int logSize,
+                             @Nonnull Serializer<T> serializer,
+                             @Nonnull Handler<T> handler,
+                             @Nonnull StopStrategy stopStrategy,
+                             @Nonnull WaitStrategy waitStrategy,
+                             @Nonnull RetryScheduler scheduler) throws IOException {
+        Preconditions.checkNotNull(logFile, "logFile may not be null");
+        Preconditions.checkNotNull(serializer, "serializer may not be null");
+        Preconditions.checkNotNull(handler, "handler may not be null");
+        Preconditions.checkNotNull(stopStrategy, "stopStrategy may not be null");
+        Preconditions.checkNotNull(waitStrategy, "waitStrategy may not be null");
+        Preconditions.checkNotNull(scheduler, "scheduler may not be null");
+        this.serializer = serializer;
+        this.handler = handler;
+        this.stopStrategy = stopStrategy;
+        this.waitStrategy = waitStrategy;
+        this.scheduler = scheduler;
+        this.log = new RetryLog(logFile, logSize);
+
+        long now = System.currentTimeMillis();
+        try {
+            for (RetryLog.Entry entry : log.entries()) {
+                tasks.put(entry.id, serializer.deserialize(entry.payload));
+            }
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+        for (RetryLog.Entry entry : log.entries()) {
+            schedule(entry.id, Math.max(0L, entry.nextAttemptTime - now));
+        }
+    }
+
+    /**
+     * Runs the given task with the given retryer, and defers it to this queue
+     * if the retryer gives up on it.
+     *
+     * @param task    the task to run
+     * @param retryer the retryer used to run the task right away
+     * @return <code>true</code> if the task succeeded, <code>false</code> if it was deferred
+     * @throws ExecutionException if the task threw an exception the retryer doesn't retry on,
+     *                            in which case it isn't deferred either
+     * @throws IOException        if the task can't be written to the log
+     */
+    public boolean callOrDefer(@Nonnull final T task, @Nonnull Retryer<Void> retryer) throws ExecutionException, IOException {
+        Preconditions.checkNotNull(task, "task may not be null");
+        Preconditions.checkNotNull(retryer, "retryer may not be null");
+        try {
+            retryer.call(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    handler.handle(task);
+                    return null;
+                }
+            });
+            return true;
+        } catch (RetryException e) {
+            defer(task, e.getLastFailedAttempt());
+            return false;
+        }
+    }
+
+    /**
+     * Defers a task which failed, to be retried by this queue. The next
+     * attempt number follows on from the one of the failed attempt. If the
+     * stop strategy of the queue decides to stop right away, the handler is
+     * told it was given up on and the task isn't written to the log.
+     *
+     * @param task          the task to retry
+     * @param failedAttempt the last failed attempt made to run the task
+     * @throws IOException if the task can't be written to the log
+     */
+    public void defer(@Nonnull T task, @Nonnull Attempt<?> failedAttempt) throws IOException {
+        Preconditions.checkNotNull(task, "task may not be null");
+        Preconditions.checkNotNull(failedAttempt, "failedAttempt may not be null");
+        Preconditions.checkState(!closed, "The queue is closed");
+        if (stopStrategy.shouldStop(failedAttempt)) {
+            giveUp(task, failedAttempt);
+            return;
+        }
+        long sleepTime = Math.max(0L, waitStrategy.computeSleepTime(failedAttempt));
+        long now = System.currentTimeMillis();
+        byte[] payload = serializer.serialize(task);
+        RetryLog.Entry entry;
+        closeLock.readLock().lock();
+        try {
+            Preconditions.checkState(!closed, "The queue is closed");
+            entry = log.add(payload, failedAttempt.getAttemptNumber(),
+                    now - failedAttempt.getDelaySinceFirstAttempt(), now + sleepTime);
+            tasks.put(entry.id, task);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        schedule(entry.id, sleepTime);
+    }
+
+    private void schedule(final long id, long sleepTime) {
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    attempt(id);
+                }
+            }, sleepTime);
+        } catch (RejectedExecutionException e) {
+            // the task stays in the log, and is scheduled again when the queue is reopened
+        }
+    }
+
+    private void attempt(long id) {
+        RetryLog.Entry entry = log.get(id);
+        T task = tasks.get(id);
+        if (closed || entry == null || task == null) {
+            return;
+        }
+        Throwable failure = null;
+        try {
+            handler.handle(task);
+        } catch (Throwable t) {
+            failure = t;
+        }
+        if (failure == null) {
+            if (removeIfOpen(id)) {
+                completed.incrementAndGet();
+            }
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Attempt<T> attempt = new Retryer.ExceptionAttempt<T>(failure, entry.attemptNumber + 1, now - entry.firstAttemptTime);
+        if (stopStrategy.shouldStop(attempt)) {
+            if (removeIfOpen(id)) {
+                giveUp(task, attempt);
+            }
+            return;
+        }
+        long sleepTime = Math.max(0L, waitStrategy.computeSleepTime(attempt));
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            try {
+                log.reschedule(id, attempt.getAttemptNumber(), now + sleepTime);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not record attempt " + attempt.getAttemptNumber()
+                        + " of task " + id + " in the log, retrying it anyway", e);
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        schedule(id, sleepTime);
+    }
+
+    /**
+     * Removes a task from the queue, unless the queue was closed in the meantime.
+     *
+     * @return <code>true</code> if the task was removed
+     */
+    private boolean removeIfOpen(long id) {
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            try {
+                log.remove(id);
+            } catch (IOException e) {
+                // the task runs again once more when the queue is reopened
+                LOGGER.log(Level.WARNING, "Could not record the removal of task " + id + " in the log", e);
+            }
+            tasks.remove(id);
+            return true;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void giveUp(T task, Attempt<?> lastFailedAttempt) {
+        givenUp.incrementAndGet();
+        handler.onGiveUp(task, new RetryException((int) lastFailedAttempt.getAttemptNumber(), lastFailedAttempt));
+    }
+
+    /**
+     * Returns the number of tasks waiting to be retried.
+     *
+     * @return the number of pending tasks
+     */
+    public int getPendingCount() {
+        return log.size();
+    }
+
+    /**
+     * Returns the number of deferred tasks which eventually succeeded since the queue was created.
+     *
+     * @return the number of completed tasks
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Returns the number of tasks given up on since the queue was created.
+     *
+     * @return the number of tasks given up on
+     */
+    public long getGivenUpCount() {
+        return givenUp.get();
+    }
+
+    /**
+     * Makes sure every change made to the log so far is written to disk.
+     */
+    public void flush() {
+        log.force();
+    }
+
+    /**
+     * Stops running tasks and closes the log. The tasks still waiting stay in
+     * the log, to be picked up by the next queue opened on it.
+     *
+     * @throws IOException if the log can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+            log.close();
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+    }
+}
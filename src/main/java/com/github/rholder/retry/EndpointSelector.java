@@ -0,0 +1,400 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Spreads the attempts of calls over a set of equivalent endpoints, such as the
+ * replicas of a service, so that a retry goes to another endpoint rather than
+ * back to the one which just failed or timed out:
+ * <pre>
+ * EndpointSelector&lt;URI&gt; replicas = new EndpointSelector&lt;URI&gt;(uris);
+ * Response response = retryer.call(replicas.rotating(new Function&lt;URI, Callable&lt;Response&gt;&gt;() {
+ *     public Callable&lt;Response&gt; apply(URI uri) {
+ *         return fetch(uri);
+ *     }
+ * }));
+ * </pre>
+ * Each attempt picks two endpoints at random among those the call hasn't tried
+ * yet, and uses the one with the lower cost, which is its average latency
+ * multiplied by the number of attempts in progress on it plus one. Once a call
+ * has tried every endpoint, it picks among all of them again.
+ * <p></p>
+ * The average latency of an endpoint rises at once to the latency of a slower
+ * attempt, so a replica which slows down is avoided right away, and otherwise
+ * decays exponentially over time, whether or not the endpoint gets attempts,
+ * so a replica which recovers gets attempts back within a few decay times. A
+ * failed attempt counts as taking {@link #FAILURE_PENALTY} times the current
+ * average, but no more than the decay time unless it actually took longer, so
+ * an endpoint failing fast doesn't attract more attempts, and a run of failures
+ * can't push its average out of reach. The statistics are shared by all the
+ * calls, and updated without locking.
+ * <p></p>
+ * Given an {@link OutlierDetector}, a selector feeds it the outcome of each
+ * attempt, and skips the endpoints it ejects, unless every endpoint which
+ * hasn't been tried is ejected.
+ *
+ * @param <E> the type of the endpoints
+ */
+@Beta
+@ThreadSafe
+public final class EndpointSelector<E> {
+
+    /**
+     * The factor applied to the average latency of an endpoint for a failed attempt.
+     */
+    public static final double FAILURE_PENALTY = 2.0;
+
+    private static final Predicate<Attempt<?>> HAS_EXCEPTION = new Predicate<Attempt<?>>() {
+        @Override
+        public boolean apply(Attempt<?> attempt) {
+            return attempt.hasException();
+        }
+    };
+
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private final ImmutableList<E> endpoints;
+    private final ImmutableMap<E, EndpointStats> stats;
+    private final double decayNanos;
+    private final Ticker ticker;
+    private final OutlierDetector<? super E> detector;
+
+    /**
+     * Constructor for a selector whose average latencies decay over 10 seconds.
+     *
+     * @param endpoints the endpoints, which must not be empty
+     */
+    public EndpointSelector(@Nonnull Collection<? extends E> endpoints) {
+        this(endpoints, 10L, TimeUnit.SECONDS, Ticker.systemTicker());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param endpoints the endpoints, which must not be empty
+     * @param decayTime the time constant of the exponential decay of the average latencies
+     * @param timeUnit  the unit of the decay time
+     * @param ticker    the ticker latencies are measured with
+     */
+    public EndpointSelector(@Nonnull Collection<? extends E> endpoints,
+                            long decayTime,
+                            @Nonnull TimeUnit timeUnit,
+                            @Nonnull Ticker ticker) {
+        this(endpoints, decayTime, timeUnit, ticker, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param endpoints the endpoints, which must not be empty
+     * @param decayTime the time constant of the exponential decay of the average latencies
+     * @param timeUnit  the unit of the decay time
+     * @param ticker    the ticker latencies are measured with
+     * @param detector  the detector fed with the outcome of the attempts, which must know all the
+     *                  endpoints, or <code>null</code> to never skip an endpoint
+     */
+    public EndpointSelector(@Nonnull Collection<? extends E> endpoints,
+                            long decayTime,
+                            @Nonnull TimeUnit timeUnit,
+                            @Nonnull Ticker ticker,
+                            @Nullable OutlierDetector<? super E> detector) {
+        Preconditions.checkNotNull(endpoints, "endpoints may not be null");
+        Preconditions.checkArgument(decayTime > 0L, "decayTime must be > 0 but is %s", decayTime);
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        Preconditions.checkNotNull(ticker, "ticker may not be null");
+        this.endpoints = ImmutableList.copyOf(endpoints);
+        Preconditions.checkArgument(!this.endpoints.isEmpty(), "endpoints may not be empty");
+        ImmutableMap.Builder<E, EndpointStats> builder = ImmutableMap.builder();
+        for (E endpoint : this.endpoints) {
+            builder.put(endpoint, new EndpointStats(ticker.read()));
+        }
+        this.stats = builder.build();
+        this.decayNanos = timeUnit.toNanos(decayTime);
+        this.ticker = ticker;
+        this.detector = detector;
+        if (detector != null) {
+            for (E endpoint : this.endpoints) {
+                Preconditions.checkArgument(detector.contains(endpoint), "the detector doesn't know endpoint %s", endpoint);
+            }
+        }
+    }
+
+    /**
+     * Returns a callable which makes each attempt on an endpoint chosen by this
+     * selector, and records its latency. The returned callable remembers the
+     * endpoints it has tried, so it must be used for a single logical call.
+     * <p></p>
+     * Only an attempt which throws an exception counts as failed, so a result
+     * the retryer rejects, such as one retried by
+     * {@link RetryerBuilder#retryIfResult(Predicate)}, counts as a success. Use
+     * {@link #rotating(Function, Predicate)} to count such results as failures.
+     *
+     * @param callables gives the callable making an attempt on an endpoint
+     * @param <V>       the type of the call return value
+     * @return a callable rotating over the endpoints
+     */
+    public <V> Callable<V> rotating(@Nonnull Function<? super E, ? extends Callable<V>> callables) {
+        return rotating(callables, HAS_EXCEPTION);
+    }
+
+    /**
+     * Returns a callable which makes each attempt on an endpoint chosen by this
+     * selector, and records its latency, as {@link #rotating(Function)} does, but
+     * tells which attempts failed with the given predicate. It is given every
+     * attempt, whether it returned a result or threw an exception.
+     *
+     * @param callables gives the callable making an attempt on an endpoint
+     * @param failed    tells whether an attempt failed
+     * @param <V>       the type of the call return value
+     * @return a callable rotating over the endpoints
+     */
+    public <V> Callable<V> rotating(@Nonnull Function<? super E, ? extends Callable<V>> callables,
+                                    @Nonnull Predicate<? super Attempt<V>> failed) {
+        Preconditions.checkNotNull(callables, "callables may not be null");
+        Preconditions.checkNotNull(failed, "failed may not be null");
+        return new RotatingCallable<E, V>(this, callables, failed);
+    }
+
+    /**
+     * Picks the endpoint for the next attempt, among those which haven't been
+     * tried and aren't ejected, or else among those which aren't ejected, or
+     * else among all of them.
+     *
+     * @param tried the endpoints already tried by the call
+     * @return the endpoint to use
+     */
+    public E select(@Nonnull Set<? super E> tried) {
+        Random random = RANDOM.get();
+        Set<? super E> excluded = tried;
+        boolean skipEjected = detector != null;
+        int first = pick(random, excluded, skipEjected, -1);
+        if (first < 0) {
+            excluded = Collections.emptySet();
+            first = pick(random, excluded, skipEjected, -1);
+        }
+        if (first < 0) {
+            skipEjected = false;
+            first = pick(random, excluded, skipEjected, -1);
+        }
+        int second = pick(random, excluded, skipEjected, first);
+        long now = ticker.read();
+        if (second < 0 || cost(first, now) <= cost(second, now)) {
+            return endpoints.get(first);
+        }
+        return endpoints.get(second);
+    }
+
+    private int pick(Random random, Set<? super E> excluded, boolean skipEjected, int other) {
+        int size = endpoints.size();
+        // a call has tried few endpoints, so a couple of random draws almost always succeed
+        for (int i = 0; i < 4; i++) {
+            int index = random.nextInt(size);
+            if (index != other && isCandidate(endpoints.get(index), excluded, skipEjected)) {
+                return index;
+            }
+        }
+        int start = random.nextInt(size);
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % size;
+            if (index != other && isCandidate(endpoints.get(index), excluded, skipEjected)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isCandidate(E endpoint, Set<? super E> excluded, boolean skipEjected) {
+        return !excluded.contains(endpoint) && !(skipEjected && detector.isEjected(endpoint));
+    }
+
+    private double cost(int index, long now) {
+        EndpointStats endpointStats = stats.get(endpoints.get(index));
+        return (decayed(endpointStats.estimate.get(), now) + 1.0) * (endpointStats.inFlight.get() + 1);
+    }
+
+    /**
+     * Returns the given average latency, decayed over the time since it was last updated.
+     */
+    private double decayed(Estimate estimate, long now) {
+        return estimate.latency * Math.exp(-Math.max(0L, now - estimate.time) / decayNanos);
+    }
+
+    /**
+     * Records the start of an attempt on the given endpoint.
+     *
+     * @param endpoint the endpoint
+     * @return the time the attempt started
+     */
+    public long onStart(@Nonnull E endpoint) {
+        statsOf(endpoint).inFlight.incrementAndGet();
+        return ticker.read();
+    }
+
+    /**
+     * Records the end of an attempt on the given endpoint.
+     *
+     * @param endpoint  the endpoint
+     * @param startTime the time returned by {@link #onStart(Object)}
+     * @param success   whether the attempt succeeded
+     */
+    public void onEnd(@Nonnull E endpoint, long startTime, boolean success) {
+        EndpointStats endpointStats = statsOf(endpoint);
+        endpointStats.inFlight.decrementAndGet();
+        if (detector != null) {
+            detector.record(endpoint, success);
+        }
+        long now = ticker.read();
+        double latency = Math.max(0L, now - startTime);
+        for (; ; ) {
+            Estimate current = endpointStats.estimate.get();
+            double sample = success ? latency : Math.max(latency, Math.min(decayed(current, now) * FAILURE_PENALTY, decayNanos));
+            double estimate = sample;
+            if (sample < current.latency) {
+                double weight = Math.exp(-Math.max(0L, now - current.time) / decayNanos);
+                estimate = current.latency * weight + sample * (1.0 - weight);
+            }
+            Estimate next = new Estimate(estimate, Math.max(now, current.time));
+            if (endpointStats.estimate.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    private EndpointStats statsOf(E endpoint) {
+        EndpointStats endpointStats = stats.get(endpoint);
+        Preconditions.checkArgument(endpointStats != null, "unknown endpoint %s", endpoint);
+        return endpointStats;
+    }
+
+    /**
+     * @return the endpoints, in the order they were given
+     */
+    public ImmutableList<E> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Returns the average latency of the given endpoint.
+     *
+     * @param endpoint the endpoint
+     * @param timeUnit the unit of the returned latency
+     * @return the average latency, decayed up to now, which is 0 until an attempt on the endpoint ends
+     */
+    public long getLatency(@Nonnull E endpoint, @Nonnull TimeUnit timeUnit) {
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        double latency = decayed(statsOf(endpoint).estimate.get(), ticker.read());
+        return timeUnit.convert((long) latency, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param endpoint the endpoint
+     * @return the number of attempts in progress on the given endpoint
+     */
+    public int getInFlightCount(@Nonnull E endpoint) {
+        return statsOf(endpoint).inFlight.get();
+    }
+
+    private static final class EndpointStats {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicReference<Estimate> estimate;
+
+        public EndpointStats(long time) {
+            this.estimate = new AtomicReference<Estimate>(new Estimate(0.0, time));
+        }
+    }
+
+    @Immutable
+    private static final class Estimate {
+        private final double latency;
+        private final long time;
+
+        public Estimate(double latency, long time) {
+            this.latency = latency;
+            this.time = time;
+        }
+    }
+
+    private static final class RotatingCallable<E, V> implements Callable<V> {
+        private final EndpointSelector<E> selector;
+        private final Function<? super E, ? extends Callable<V>> callables;
+        private final Predicate<? super Attempt<V>> failed;
+        private final Set<E> tried = Collections.newSetFromMap(new ConcurrentHashMap<E, Boolean>());
+        private final AtomicLong attemptNumber = new AtomicLong();
+        private volatile long firstStartTime;
+
+        public RotatingCallable(EndpointSelector<E> selector,
+                                Function<? super E, ? extends Callable<V>> callables,
+                                Predicate<? super Attempt<V>> failed) {
+            this.selector = selector;
+            this.callables = callables;
+            this.failed = failed;
+        }
+
+        @Override
+        public V call() throws Exception {
+            E endpoint = selector.select(tried);
+            // marked before the attempt, so that an attempt given up on by a time limit counts as tried
+            tried.add(endpoint);
+            long number = attemptNumber.incrementAndGet();
+            long startTime = selector.onStart(endpoint);
+            if (number == 1L) {
+                firstStartTime = startTime;
+            }
+            long delay = TimeUnit.NANOSECONDS.toMillis(startTime - firstStartTime);
+            // an attempt ended by an error is left null, and counts as failed
+            Attempt<V> attempt = null;
+            try {
+                V result = callables.apply(endpoint).call();
+                attempt = new Retryer.ResultAttempt<V>(result, number, delay);
+                return result;
+            } catch (Exception e) {
+                attempt = new Retryer.ExceptionAttempt<V>(e, number, delay);
+                throw e;
+            } finally {
+                selector.onEnd(endpoint, startTime, attempt != null && !failed.apply(attempt));
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.SettableFuture;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the result of a call under an idempotency key given by the caller,
+ * so that retrying the call doesn't do the work again:
+ * <pre>
+ * Retryer&lt;Order&gt; retryer = RetryerBuilder.&lt;Order&gt;newBuilder()
+ *         .withAttemptTimeLimiter(AttemptTimeLimiters.&lt;Order&gt;fixedTimeLimit(1, TimeUnit.SECONDS, executor))
+ *         .retryIfExceptionOfType(UncheckedTimeoutException.class)
+ *         .build();
+ * Order order = retryer.call(cache.wrap(orderId, placeOrder));
+ * </pre>
+ * When a time limit gives up on an attempt, the work it started often carries
+ * on and completes. The wrapped callable publishes its result to this cache
+ * whenever it completes, and while it is still running, the next attempt, or
+ * any concurrent call with the same key, waits for it instead of starting the
+ * same work again. Only results are kept; a call which throws an exception is
+ * made again by the next attempt.
+ * <p></p>
+ * Results are kept for a fixed time after they are computed, and the least
+ * recently used ones are evicted once the cache is full. Looking up a result
+ * doesn't lock.
+ *
+ * @param <K> the type of the idempotency keys
+ * @param <V> the type of the call return value
+ */
+@Beta
+@ThreadSafe
+public final class IdempotentResultCache<K, V> {
+
+    private final Cache<K, Optional<V>> results;
+    private final ConcurrentMap<K, SettableFuture<V>> inFlight = new ConcurrentHashMap<K, SettableFuture<V>>();
+
+    /**
+     * Constructor
+     *
+     * @param maximumSize the maximum number of results to keep, which must be >= 0
+     * @param timeToLive  the time a result is kept after it is computed
+     * @param timeUnit    the unit of the time to live
+     */
+    public IdempotentResultCache(long maximumSize, long timeToLive, @Nonnull TimeUnit timeUnit) {
+        this(maximumSize, timeToLive, timeUnit, Ticker.systemTicker());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maximumSize the maximum number of results to keep, which must be >= 0
+     * @param timeToLive  the time a result is kept after it is computed
+     * @param timeUnit    the unit of the time to live
+     * @param ticker      the ticker the time to live is measured with
+     */
+    public IdempotentResultCache(long maximumSize, long timeToLive, @Nonnull TimeUnit timeUnit, @Nonnull Ticker ticker) {
+        Preconditions.checkArgument(maximumSize >= 0L, "maximumSize must be >= 0 but is %s", maximumSize);
+        Preconditions.checkArgument(timeToLive >= 0L, "timeToLive must be >= 0 but is %s", timeToLive);
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        Preconditions.checkNotNull(ticker, "ticker may not be null");
+        this.results = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive, timeUnit)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Wraps the given callable so that it uses this cache. The returned callable
+     * is meant to be given to a {@link Retryer}, once per logical call.
+     *
+     * @param key      the idempotency key of the call
+     * @param callable the callable doing the work
+     * @return a callable using this cache
+     */
+    public Callable<V> wrap(@Nonnull final K key, @Nonnull final Callable<V> callable) {
+        Preconditions.checkNotNull(key, "key may not be null");
+        Preconditions.checkNotNull(callable, "callable may not be null");
+        return new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return IdempotentResultCache.this.call(key, callable);
+            }
+        };
+    }
+
+    /**
+     * Returns the result kept for the given key, waits for the call in progress
+     * with the given key, or calls the given callable and keeps its result.
+     *
+     * @param key      the idempotency key of the call
+     * @param callable the callable doing the work
+     * @return the result of the call
+     * @throws Exception the exception thrown by the call, or InterruptedException if
+     *                   interrupted while waiting for the call in progress
+     */
+    public V call(@Nonnull K key, @Nonnull Callable<V> callable) throws Exception {
+        Optional<V> cached = results.getIfPresent(key);
+        if (cached != null) {
+            return cached.orNull();
+        }
+        SettableFuture<V> future = SettableFuture.create();
+        SettableFuture<V> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            // a call may have completed between the lookup and putIfAbsent
+            cached = results.getIfPresent(key);
+            V result = cached != null ? cached.orNull() : callable.call();
+            results.put(key, Optional.fromNullable(result));
+            future.set(result);
+            return result;
+        } catch (Throwable t) {
+            future.setException(t);
+            throw rethrow(t);
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private static <V> V await(SettableFuture<V> running) throws Exception {
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    private static Exception rethrow(Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return (Exception) t;
+    }
+
+    /**
+     * Forgets the result kept for the given key, if any. A call in progress with
+     * this key still keeps its result when it completes.
+     *
+     * @param key the idempotency key to forget
+     */
+    public void invalidate(@Nonnull K key) {
+        results.invalidate(key);
+    }
+
+    /**
+     * @return the approximate number of results kept
+     */
+    public long size() {
+        return results.size();
+    }
+}
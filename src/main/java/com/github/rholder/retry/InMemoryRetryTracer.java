@@ -0,0 +1,196 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link RetryTracer} which keeps the spans of every call it traces in memory,
+ * mostly to look at them in tests. Each call has a parent {@link Kind#CALL} span,
+ * recorded when it ends, and a child span per attempt and per wait between
+ * attempts, all sharing the same trace id.
+ */
+@Beta
+@ThreadSafe
+public final class InMemoryRetryTracer implements RetryTracer {
+
+    /**
+     * What a span covers.
+     */
+    public enum Kind {
+        /**
+         * A whole call.
+         */
+        CALL,
+        /**
+         * A single attempt.
+         */
+        ATTEMPT,
+        /**
+         * A wait between two attempts.
+         */
+        WAIT
+    }
+
+    private final AtomicLong traceIds = new AtomicLong();
+    private final Queue<Span> spans = new ConcurrentLinkedQueue<Span>();
+
+    @Override
+    public CallTrace startCall(final long startTime) {
+        final long traceId = traceIds.incrementAndGet();
+        return new CallTrace() {
+            private long attemptNumber;
+
+            @Override
+            public void onAttempt(Attempt<?> attempt, long attemptStartTime, long endTime) {
+                attemptNumber = attempt.getAttemptNumber();
+                spans.add(new Span(traceId, Kind.ATTEMPT, attemptNumber, attemptStartTime, endTime,
+                        attempt.hasResult() ? CallOutcome.RESULT : CallOutcome.EXCEPTION,
+                        attempt.hasException() ? attempt.getExceptionCause().getClass() : null, 0L));
+            }
+
+            @Override
+            public void onWait(long attemptNumber, long sleepTime, long waitStartTime, long endTime) {
+                spans.add(new Span(traceId, Kind.WAIT, attemptNumber, waitStartTime, endTime, null, null, sleepTime));
+            }
+
+            @Override
+            public void onCallEnd(CallOutcome outcome, long endTime) {
+                spans.add(new Span(traceId, Kind.CALL, attemptNumber, startTime, endTime, outcome, null, 0L));
+            }
+        };
+    }
+
+    /**
+     * @return all the spans recorded so far, in the order they ended
+     */
+    public List<Span> getSpans() {
+        return new ArrayList<Span>(spans);
+    }
+
+    /**
+     * Forgets all the spans recorded so far.
+     */
+    public void clear() {
+        spans.clear();
+    }
+
+    /**
+     * A span of a traced call.
+     */
+    @Immutable
+    public static final class Span {
+        private final long traceId;
+        private final Kind kind;
+        private final long attemptNumber;
+        private final long startTime;
+        private final long endTime;
+        private final CallOutcome outcome;
+        private final Class<? extends Throwable> exceptionClass;
+        private final long sleepTime;
+
+        private Span(long traceId, Kind kind, long attemptNumber, long startTime, long endTime,
+                     CallOutcome outcome, Class<? extends Throwable> exceptionClass, long sleepTime) {
+            this.traceId = traceId;
+            this.kind = kind;
+            this.attemptNumber = attemptNumber;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.outcome = outcome;
+            this.exceptionClass = exceptionClass;
+            this.sleepTime = sleepTime;
+        }
+
+        /**
+         * @return the id shared by all the spans of a call
+         */
+        public long getTraceId() {
+            return traceId;
+        }
+
+        /**
+         * @return what the span covers
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the number of the attempt, of the attempt before the wait, or of the
+         *         last attempt of the call
+         */
+        public long getAttemptNumber() {
+            return attemptNumber;
+        }
+
+        /**
+         * @return the time the span started, in nanoseconds
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * @return the time the span ended, in nanoseconds
+         */
+        public long getEndTime() {
+            return endTime;
+        }
+
+        /**
+         * @return how the call ended, {@link CallOutcome#RESULT} or {@link CallOutcome#EXCEPTION}
+         *         for an attempt, or <code>null</code> for a wait
+         */
+        @Nullable
+        public CallOutcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * @return the class of the exception thrown by an attempt, or <code>null</code>
+         */
+        @Nullable
+        public Class<? extends Throwable> getExceptionClass() {
+            return exceptionClass;
+        }
+
+        /**
+         * @return the time computed by the wait strategy for a wait, in milliseconds
+         */
+        public long getSleepTime() {
+            return sleepTime;
+        }
+
+        @Override
+        public String toString() {
+            return kind + "{trace=" + traceId + ", attempt=" + attemptNumber
+                    + ", duration=" + (endTime - startTime) + "ns"
+                    + (outcome != null ? ", outcome=" + outcome : "")
+                    + (exceptionClass != null ? ", exception=" + exceptionClass.getName() : "")
+                    + (kind == Kind.WAIT ? ", sleepTime=" + sleepTime + "ms" : "") + "}";
+        }
+    }
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Detects the endpoints which fail much more than the others, from the outcome
+ * of the attempts made on them, and ejects them for a while so that attempts,
+ * first ones as well as retries, skip them. An {@link EndpointSelector} given
+ * a detector feeds it and skips the ejected endpoints; other code can call
+ * {@link #record(Object, boolean)} and {@link #isEjected(Object)} itself.
+ * <p></p>
+ * An endpoint is ejected when it fails a number of attempts in a row, or when,
+ * at the end of an interval, its success rate over the interval is more than a
+ * number of standard deviations below the mean of the endpoints which had
+ * enough attempts. The first ejection lasts the base ejection time, and each
+ * following one twice as long as the previous one, up to the maximum ejection
+ * time; the count shrinks by one for each interval an endpoint spends without
+ * being ejected. No more than the maximum ejection percentage of the endpoints
+ * is ejected at a time.
+ * <p></p>
+ * The state of all the endpoints is kept in a single array allocated up front
+ * and updated without locking, and the intervals are closed by whichever thread
+ * records the first outcome after their end, so the cost of a detector doesn't
+ * grow with its use, and it needs no thread of its own.
+ *
+ * @param <E> the type of the endpoints
+ */
+@Beta
+@ThreadSafe
+public final class OutlierDetector<E> {
+
+    private static final int SUCCESSES = 0;
+    private static final int FAILURES = 1;
+    private static final int CONSECUTIVE_FAILURES = 2;
+    private static final int EJECTED_UNTIL = 3;
+    private static final int EJECTIONS = 4;
+    private static final int FIELDS = 5;
+
+    /**
+     * The minimum number of endpoints with enough attempts in an interval for
+     * success rates to be compared.
+     */
+    public static final int MINIMUM_ENDPOINTS = 3;
+
+    private final ImmutableList<E> endpoints;
+    private final ImmutableMap<E, Integer> indexes;
+    private final AtomicLongArray state;
+    // the endpoints with an ejection time set, expired or not, plus the ejections in progress
+    private final AtomicInteger ejected = new AtomicInteger();
+    private final AtomicLong nextEvaluation;
+    private final int consecutiveFailures;
+    private final double successRateDeviations;
+    private final int minimumRequestVolume;
+    private final long intervalNanos;
+    private final long baseEjectionNanos;
+    private final long maximumEjectionNanos;
+    private final int maximumEjected;
+    private final Ticker ticker;
+
+    private OutlierDetector(Builder<E> builder) {
+        this.endpoints = builder.endpoints;
+        ImmutableMap.Builder<E, Integer> indexBuilder = ImmutableMap.builder();
+        for (int i = 0; i < endpoints.size(); i++) {
+            indexBuilder.put(endpoints.get(i), i);
+        }
+        this.indexes = indexBuilder.build();
+        this.state = new AtomicLongArray(endpoints.size() * FIELDS);
+        this.consecutiveFailures = builder.consecutiveFailures;
+        this.successRateDeviations = builder.successRateDeviations;
+        this.minimumRequestVolume = builder.minimumRequestVolume;
+        this.intervalNanos = builder.intervalNanos;
+        this.baseEjectionNanos = builder.baseEjectionNanos;
+        this.maximumEjectionNanos = builder.maximumEjectionNanos;
+        this.maximumEjected = endpoints.size() * builder.maximumEjectionPercent / 100;
+        this.ticker = builder.ticker;
+        this.nextEvaluation = new AtomicLong(ticker.read() + intervalNanos);
+    }
+
+    /**
+     * Constructs a new builder
+     *
+     * @param endpoints the endpoints, which must not be empty
+     * @param <E>       the type of the endpoints
+     * @return the new builder
+     */
+    public static <E> Builder<E> newBuilder(@Nonnull Collection<? extends E> endpoints) {
+        return new Builder<E>(endpoints);
+    }
+
+    /**
+     * Records the outcome of an attempt on the given endpoint.
+     *
+     * @param endpoint the endpoint
+     * @param success  whether the attempt succeeded
+     */
+    public void record(@Nonnull E endpoint, boolean success) {
+        int base = indexOf(endpoint) * FIELDS;
+        long now = ticker.read();
+        if (success) {
+            state.incrementAndGet(base + SUCCESSES);
+            if (state.get(base + CONSECUTIVE_FAILURES) != 0L) {
+                state.set(base + CONSECUTIVE_FAILURES, 0L);
+            }
+        } else {
+            state.incrementAndGet(base + FAILURES);
+            if (state.incrementAndGet(base + CONSECUTIVE_FAILURES) >= consecutiveFailures) {
+                eject(base, now);
+            }
+        }
+        long evaluation = nextEvaluation.get();
+        if (now - evaluation >= 0L && nextEvaluation.compareAndSet(evaluation, now + intervalNanos)) {
+            evaluate(now);
+        }
+    }
+
+    /**
+     * Records the outcome of the given attempt on the given endpoint. An attempt
+     * which threw an exception failed, and any other attempt succeeded, even one
+     * whose result the retryer rejects; use
+     * {@link #record(Object, Attempt, Predicate)} to count those as failures.
+     *
+     * @param endpoint the endpoint
+     * @param attempt  the attempt
+     */
+    public void record(@Nonnull E endpoint, @Nonnull Attempt<?> attempt) {
+        record(endpoint, !attempt.hasException());
+    }
+
+    /**
+     * Records the outcome of the given attempt on the given endpoint, as told by
+     * the given predicate.
+     *
+     * @param endpoint the endpoint
+     * @param attempt  the attempt
+     * @param failed   tells whether the attempt failed
+     * @param <V>      the type of the call return value
+     */
+    public <V> void record(@Nonnull E endpoint, @Nonnull Attempt<V> attempt, @Nonnull Predicate<? super Attempt<V>> failed) {
+        record(endpoint, !failed.apply(attempt));
+    }
+
+    /**
+     * @param endpoint the endpoint
+     * @return <code>true</code> if the endpoint is currently ejected
+     */
+    public boolean isEjected(@Nonnull E endpoint) {
+        return isEjected(indexOf(endpoint) * FIELDS, ticker.read());
+    }
+
+    /**
+     * @return the number of endpoints currently ejected
+     */
+    public int getEjectedCount() {
+        long now = ticker.read();
+        int count = 0;
+        for (int base = 0; base < state.length(); base += FIELDS) {
+            if (isEjected(base, now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the endpoints, in the order they were given
+     */
+    public ImmutableList<E> getEndpoints() {
+        return endpoints;
+    }
+
+    boolean contains(E endpoint) {
+        return indexes.containsKey(endpoint);
+    }
+
+    private int indexOf(E endpoint) {
+        Integer index = indexes.get(endpoint);
+        Preconditions.checkArgument(index != null, "unknown endpoint %s", endpoint);
+        return index;
+    }
+
+    /**
+     * Tells whether an endpoint is ejected, and clears an ejection found to have
+     * ended, which then no longer counts towards the maximum. An ended ejection
+     * is cleared by the next look at the endpoint, at the latest when the interval
+     * closes.
+     */
+    private boolean isEjected(int base, long now) {
+        long ejectedUntil = state.get(base + EJECTED_UNTIL);
+        if (ejectedUntil == 0L) {
+            return false;
+        }
+        if (ejectedUntil - now > 0L) {
+            return true;
+        }
+        if (state.compareAndSet(base + EJECTED_UNTIL, ejectedUntil, 0L)) {
+            ejected.decrementAndGet();
+        }
+        return false;
+    }
+
+    private void eject(int base, long now) {
+        if (isEjected(base, now) || state.get(base + EJECTED_UNTIL) != 0L) {
+            return;
+        }
+        // a place is taken before the ejection, so concurrent ejections can't exceed the maximum
+        for (; ; ) {
+            int count = ejected.get();
+            if (count >= maximumEjected) {
+                return;
+            }
+            if (ejected.compareAndSet(count, count + 1)) {
+                break;
+            }
+        }
+        long ejections = state.get(base + EJECTIONS);
+        // doubling stops once it would overflow, well past any maximum
+        long duration = ejections >= Long.numberOfLeadingZeros(baseEjectionNanos) - 1
+                ? maximumEjectionNanos
+                : Math.min(maximumEjectionNanos, baseEjectionNanos << ejections);
+        // 0 means not ejected, so an ejection never ends exactly at 0
+        long until = now + duration;
+        if (until == 0L) {
+            until = 1L;
+        }
+        if (state.compareAndSet(base + EJECTED_UNTIL, 0L, until)) {
+            state.incrementAndGet(base + EJECTIONS);
+            state.set(base + CONSECUTIVE_FAILURES, 0L);
+        } else {
+            ejected.decrementAndGet();
+        }
+    }
+
+    /**
+     * Closes an interval: compares the success rates over the interval, and
+     * lowers the ejection count of the endpoints which weren't ejected.
+     */
+    private void evaluate(long now) {
+        int size = endpoints.size();
+        double[] rates = new double[size];
+        int counted = 0;
+        double sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            int base = i * FIELDS;
+            long successes = state.getAndSet(base + SUCCESSES, 0L);
+            long failures = state.getAndSet(base + FAILURES, 0L);
+            rates[i] = -1.0;
+            if (successes + failures >= minimumRequestVolume && successes + failures > 0L) {
+                rates[i] = (double) successes / (successes + failures);
+                sum += rates[i];
+                counted++;
+            }
+            if (!isEjected(base, now)) {
+                long ejections = state.get(base + EJECTIONS);
+                if (ejections > 0L) {
+                    state.compareAndSet(base + EJECTIONS, ejections, ejections - 1L);
+                }
+            }
+        }
+        if (counted < MINIMUM_ENDPOINTS) {
+            return;
+        }
+        double mean = sum / counted;
+        double squares = 0.0;
+        for (double rate : rates) {
+            if (rate >= 0.0) {
+                squares += (rate - mean) * (rate - mean);
+            }
+        }
+        double threshold = mean - successRateDeviations * Math.sqrt(squares / counted);
+        for (int i = 0; i < size; i++) {
+            if (rates[i] >= 0.0 && rates[i] < threshold) {
+                eject(i * FIELDS, now);
+            }
+        }
+    }
+
+    /**
+     * Builds an {@link OutlierDetector}. The defaults are to eject an endpoint
+     * after 5 failures in a row, or when its success rate over an interval of 10
+     * seconds with at least 100 attempts is 1.9 standard deviations below the
+     * mean, for 30 seconds up to 5 minutes, and to eject at most 50% of the
+     * endpoints.
+     *
+     * @param <E> the type of the endpoints
+     */
+    public static final class Builder<E> {
+        private final ImmutableList<E> endpoints;
+        private int consecutiveFailures = 5;
+        private double successRateDeviations = 1.9;
+        private int minimumRequestVolume = 100;
+        private long intervalNanos = TimeUnit.SECONDS.toNanos(10L);
+        private long baseEjectionNanos = TimeUnit.SECONDS.toNanos(30L);
+        private long maximumEjectionNanos = TimeUnit.MINUTES.toNanos(5L);
+        private int maximumEjectionPercent = 50;
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Builder(Collection<? extends E> endpoints) {
+            Preconditions.checkNotNull(endpoints, "endpoints may not be null");
+            this.endpoints = ImmutableList.copyOf(endpoints);
+            Preconditions.checkArgument(!this.endpoints.isEmpty(), "endpoints may not be empty");
+        }
+
+        /**
+         * Sets the number of failures in a row which ejects an endpoint.
+         *
+         * @param consecutiveFailures the number of failures in a row, which must be > 0
+         * @return <code>this</code>
+         */
+        public Builder<E> withConsecutiveFailures(int consecutiveFailures) {
+            Preconditions.checkArgument(consecutiveFailures > 0, "consecutiveFailures must be > 0 but is %s", consecutiveFailures);
+            this.consecutiveFailures = consecutiveFailures;
+            return this;
+        }
+
+        /**
+         * Sets how success rates are compared at the end of each interval.
+         *
+         * @param deviations           the number of standard deviations below the mean which ejects an endpoint
+         * @param minimumRequestVolume the minimum number of attempts in the interval for the success rate of
+         *                             an endpoint to be compared
+         * @param interval             the length of the intervals
+         * @param timeUnit             the unit of the interval
+         * @return <code>this</code>
+         */
+        public Builder<E> withSuccessRateDeviation(double deviations, int minimumRequestVolume,
+                                                   long interval, @Nonnull TimeUnit timeUnit) {
+            Preconditions.checkArgument(deviations >= 0.0, "deviations must be >= 0 but is %s", deviations);
+            Preconditions.checkArgument(minimumRequestVolume > 0, "minimumRequestVolume must be > 0 but is %s", minimumRequestVolume);
+            Preconditions.checkArgument(interval > 0L, "interval must be > 0 but is %s", interval);
+            Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+            this.successRateDeviations = deviations;
+            this.minimumRequestVolume = minimumRequestVolume;
+            this.intervalNanos = timeUnit.toNanos(interval);
+            return this;
+        }
+
+        /**
+         * Sets how long endpoints are ejected for.
+         *
+         * @param baseEjectionTime    the length of the first ejection of an endpoint
+         * @param maximumEjectionTime the maximum length of an ejection
+         * @param timeUnit            the unit of the ejection times
+         * @return <code>this</code>
+         */
+        public Builder<E> withEjectionTime(long baseEjectionTime, long maximumEjectionTime, @Nonnull TimeUnit timeUnit) {
+            Preconditions.checkArgument(baseEjectionTime > 0L, "baseEjectionTime must be > 0 but is %s", baseEjectionTime);
+            Preconditions.checkArgument(maximumEjectionTime >= baseEjectionTime,
+                    "maximumEjectionTime must be >= baseEjectionTime but is %s", maximumEjectionTime);
+            Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+            this.baseEjectionNanos = timeUnit.toNanos(baseEjectionTime);
+            this.maximumEjectionNanos = timeUnit.toNanos(maximumEjectionTime);
+            return this;
+        }
+
+        /**
+         * Sets the maximum percentage of the endpoints ejected at a time.
+         *
+         * @param maximumEjectionPercent the percentage, between 0 and 100
+         * @return <code>this</code>
+         */
+        public Builder<E> withMaximumEjectionPercent(int maximumEjectionPercent) {
+            Preconditions.checkArgument(maximumEjectionPercent >= 0 && maximumEjectionPercent <= 100,
+                    "maximumEjectionPercent must be between 0 and 100 but is %s", maximumEjectionPercent);
+            this.maximumEjectionPercent = maximumEjectionPercent;
+            return this;
+        }
+
+        /**
+         * Sets the ticker times are measured with. The default is {@link Ticker#systemTicker()}.
+         *
+         * @param ticker the ticker
+         * @return <code>this</code>
+         */
+        public Builder<E> withTicker(@Nonnull Ticker ticker) {
+            Preconditions.checkNotNull(ticker, "ticker may not be null");
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * @return the detector
+         */
+        public OutlierDetector<E> build() {
+            return new OutlierDetector<E>(this);
+        }
+    }
+}
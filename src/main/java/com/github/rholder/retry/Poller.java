@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Polls for a condition until it is met, using the rules of a {@link Retryer}
+ * to decide when a poll result is acceptable, how long to wait between polls
+ * and when to give up. A typical poller retries while the result is
+ * <code>null</code>:
+ * <pre>
+ * Retryer&lt;Job&gt; retryer = RetryerBuilder.&lt;Job&gt;newBuilder()
+ *         .retryIfResult(Predicates.&lt;Job&gt;isNull())
+ *         .withWaitStrategy(WaitStrategies.fixedWait(1, TimeUnit.SECONDS))
+ *         .withStopStrategy(StopStrategies.stopAfterDelay(10, TimeUnit.MINUTES))
+ *         .build();
+ * Poller&lt;Job&gt; poller = new Poller&lt;Job&gt;(retryer, RetrySchedulers.scheduledExecutor(executor));
+ * ListenableFuture&lt;Job&gt; job = poller.poll(jobId, findCompletedJob(jobId));
+ * </pre>
+ * Polls never block a thread between attempts, so thousands of them can share
+ * one scheduler. Listeners registered with the retryer are notified of every
+ * poll attempt. Callers polling for the same key share a single poll.
+ * <p></p>
+ * A poller is thread-safe, provided the retryer and scheduler are thread-safe.
+ *
+ * @param <V> the type of the poll result
+ */
+public final class Poller<V> {
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Retryer<V> retryer;
+    private final RetryScheduler scheduler;
+    private final ConcurrentMap<Object, ListenableFuture<V>> polls = new ConcurrentHashMap<Object, ListenableFuture<V>>();
+
+    /**
+     * Constructor
+     *
+     * @param retryer   the retryer whose rules are used to poll
+     * @param scheduler the scheduler used to run each poll attempt
+     */
+    public Poller(@Nonnull Retryer<V> retryer, @Nonnull RetryScheduler scheduler) {
+        Preconditions.checkNotNull(retryer, "retryer may not be null");
+        Preconditions.checkNotNull(scheduler, "scheduler may not be null");
+        this.retryer = retryer;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Starts polling the given condition.
+     *
+     * @param condition the callable polled until its attempt is accepted
+     * @return a future holding the accepted poll result
+     * @see Retryer#callAsync(Callable, RetryScheduler)
+     */
+    public ListenableFuture<V> poll(@Nonnull Callable<V> condition) {
+        return retryer.callAsync(condition, scheduler);
+    }
+
+    /**
+     * Starts polling the given condition, unless a poll for the same key is
+     * already running, in which case the future of that poll is returned and
+     * the given condition is ignored. Since the future is shared by all the
+     * callers polling for the key, cancelling it cancels the poll for all of
+     * them.
+     *
+     * @param key       identifies the condition being polled
+     * @param condition the callable polled until its attempt is accepted
+     * @return a future holding the accepted poll result
+     */
+    public ListenableFuture<V> poll(@Nonnull final Object key, @Nonnull Callable<V> condition) {
+        Preconditions.checkNotNull(key, "key may not be null");
+        ListenableFuture<V> existing = polls.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        final Retryer<V>.RetryingFuture poll = retryer.newRetryingFuture(condition, scheduler);
+        existing = polls.putIfAbsent(key, poll);
+        if (existing != null) {
+            return existing;
+        }
+        poll.addListener(new Runnable() {
+            @Override
+            public void run() {
+                polls.remove(key, poll);
+            }
+        }, DIRECT_EXECUTOR);
+        poll.start();
+        return poll;
+    }
+
+    /**
+     * Returns the number of keyed polls which are currently running.
+     *
+     * @return the number of keyed polls which are currently running
+     */
+    public int getActivePollCount() {
+        return polls.size();
+    }
+}
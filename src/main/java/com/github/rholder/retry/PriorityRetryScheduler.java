@@ -0,0 +1,319 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scheduler shared by asynchronous calls of different importance, which
+ * runs the attempts of the most important ones first. Each call picks its
+ * {@link Priority} by being given the {@link RetryScheduler} returned by
+ * {@link #forPriority(Priority)}, for instance in
+ * {@link Retryer#callAsync(java.util.concurrent.Callable, RetryScheduler)}.
+ * <p></p>
+ * At most a given number of attempts run at the same time. Once their sleep
+ * time is over, attempts wait for a free slot in order of priority, then of
+ * the time they were due. When as many attempts are pending as the scheduler
+ * can hold, scheduling a new one drops the least important pending attempt
+ * with the latest due time, or rejects the new one if nothing pending is less
+ * important. A call whose attempt is dropped fails with a {@link RetryException},
+ * so batch traffic absorbs an overload while critical traffic keeps going.
+ */
+@Beta
+@ThreadSafe
+public final class PriorityRetryScheduler {
+
+    /**
+     * The importance of a call, from the most to the least important.
+     */
+    public enum Priority {
+        CRITICAL,
+        HIGH,
+        NORMAL,
+        LOW
+    }
+
+    private static final Comparator<Task> RUN_ORDER = new Comparator<Task>() {
+        @Override
+        public int compare(Task left, Task right) {
+            int result = left.priority.compareTo(right.priority);
+            if (result == 0) {
+                result = compareLongs(left.dueTime, right.dueTime);
+            }
+            return result != 0 ? result : compareLongs(left.sequence, right.sequence);
+        }
+    };
+
+    private static final Comparator<Task> DROP_ORDER = new Comparator<Task>() {
+        @Override
+        public int compare(Task left, Task right) {
+            return RUN_ORDER.compare(right, left);
+        }
+    };
+
+    private final ScheduledExecutorService executorService;
+    private final int maxConcurrency;
+    private final int capacity;
+    private final Map<Priority, RetryScheduler> schedulers = new EnumMap<Priority, RetryScheduler>(Priority.class);
+
+    private final Object lock = new Object();
+    @GuardedBy("lock")
+    private final TreeSet<Task> pending = new TreeSet<Task>(DROP_ORDER);
+    @GuardedBy("lock")
+    private final TreeSet<Task> ready = new TreeSet<Task>(RUN_ORDER);
+    @GuardedBy("lock")
+    private long sequence;
+    @GuardedBy("lock")
+    private int running;
+    @GuardedBy("lock")
+    private final long[] scheduledCounts = new long[Priority.values().length];
+    @GuardedBy("lock")
+    private final long[] runCounts = new long[Priority.values().length];
+    @GuardedBy("lock")
+    private final long[] droppedCounts = new long[Priority.values().length];
+    @GuardedBy("lock")
+    private final long[] pendingCounts = new long[Priority.values().length];
+    @GuardedBy("lock")
+    private final long[] queueingTimes = new long[Priority.values().length];
+
+    /**
+     * Constructor
+     *
+     * @param executorService the executor used to wait for the sleep times and to run the attempts
+     * @param maxConcurrency  the maximum number of attempts running at the same time
+     * @param capacity        the maximum number of attempts waiting to run, either sleeping or for a free slot
+     */
+    public PriorityRetryScheduler(@Nonnull ScheduledExecutorService executorService, int maxConcurrency, int capacity) {
+        Preconditions.checkNotNull(executorService, "executorService may not be null");
+        Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency must be > 0 but is %s", maxConcurrency);
+        Preconditions.checkArgument(capacity > 0, "capacity must be > 0 but is %s", capacity);
+        this.executorService = executorService;
+        this.maxConcurrency = maxConcurrency;
+        this.capacity = capacity;
+        for (final Priority priority : Priority.values()) {
+            schedulers.put(priority, new RetryScheduler() {
+                @Override
+                public void schedule(Runnable attempt, long sleepTime) throws RejectedExecutionException {
+                    PriorityRetryScheduler.this.schedule(attempt, sleepTime, priority);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the scheduler running attempts with the given priority.
+     *
+     * @param priority the priority of the attempts
+     * @return a scheduler for the given priority
+     */
+    public RetryScheduler forPriority(@Nonnull Priority priority) {
+        Preconditions.checkNotNull(priority, "priority may not be null");
+        return schedulers.get(priority);
+    }
+
+    private void schedule(Runnable attempt, long sleepTime, Priority priority) {
+        Preconditions.checkNotNull(attempt, "attempt may not be null");
+        long now = System.nanoTime();
+        Task dropped = null;
+        final Task task;
+        synchronized (lock) {
+            if (pending.size() >= capacity) {
+                Task candidate = pending.first();
+                if (candidate.priority.compareTo(priority) <= 0 || !(candidate.attempt instanceof RejectableRunnable)) {
+                    droppedCounts[priority.ordinal()]++;
+                    throw new RejectedExecutionException("Too many pending attempts with a priority of " + priority + " or more");
+                }
+                remove(candidate);
+                droppedCounts[candidate.priority.ordinal()]++;
+                dropped = candidate;
+            }
+            task = new Task(attempt, priority, now + TimeUnit.MILLISECONDS.toNanos(Math.max(0L, sleepTime)), sequence++);
+            pending.add(task);
+            scheduledCounts[priority.ordinal()]++;
+            pendingCounts[priority.ordinal()]++;
+        }
+        if (dropped != null) {
+            ((RejectableRunnable) dropped.attempt).reject(new RejectedExecutionException(
+                    "Dropped for an attempt with a priority of " + priority));
+        }
+        if (sleepTime <= 0L) {
+            onDue(task);
+        } else {
+            try {
+                executorService.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDue(task);
+                    }
+                }, sleepTime, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                synchronized (lock) {
+                    remove(task);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void onDue(Task task) {
+        synchronized (lock) {
+            if (!pending.contains(task)) {
+                return;
+            }
+            ready.add(task);
+        }
+        dispatch();
+    }
+
+    private void dispatch() {
+        for (; ; ) {
+            final Task task;
+            synchronized (lock) {
+                if (running >= maxConcurrency || ready.isEmpty()) {
+                    return;
+                }
+                task = ready.pollFirst();
+                remove(task);
+                running++;
+                runCounts[task.priority.ordinal()]++;
+                queueingTimes[task.priority.ordinal()] += Math.max(0L, System.nanoTime() - task.dueTime);
+            }
+            try {
+                executorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            task.attempt.run();
+                        } finally {
+                            synchronized (lock) {
+                                running--;
+                            }
+                            dispatch();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (lock) {
+                    running--;
+                }
+                if (task.attempt instanceof RejectableRunnable) {
+                    ((RejectableRunnable) task.attempt).reject(e);
+                }
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private void remove(Task task) {
+        if (pending.remove(task)) {
+            ready.remove(task);
+            pendingCounts[task.priority.ordinal()]--;
+        }
+    }
+
+    /**
+     * Returns the number of attempts of the given priority scheduled so far.
+     *
+     * @param priority the priority of the attempts
+     * @return the number of scheduled attempts
+     */
+    public long getScheduledCount(@Nonnull Priority priority) {
+        synchronized (lock) {
+            return scheduledCounts[priority.ordinal()];
+        }
+    }
+
+    /**
+     * Returns the number of attempts of the given priority which were started so far.
+     *
+     * @param priority the priority of the attempts
+     * @return the number of started attempts
+     */
+    public long getRunCount(@Nonnull Priority priority) {
+        synchronized (lock) {
+            return runCounts[priority.ordinal()];
+        }
+    }
+
+    /**
+     * Returns the number of attempts of the given priority which were dropped
+     * or rejected because too many attempts were pending.
+     *
+     * @param priority the priority of the attempts
+     * @return the number of dropped attempts
+     */
+    public long getDroppedCount(@Nonnull Priority priority) {
+        synchronized (lock) {
+            return droppedCounts[priority.ordinal()];
+        }
+    }
+
+    /**
+     * Returns the number of attempts of the given priority waiting to run.
+     *
+     * @param priority the priority of the attempts
+     * @return the number of pending attempts
+     */
+    public long getPendingCount(@Nonnull Priority priority) {
+        synchronized (lock) {
+            return pendingCounts[priority.ordinal()];
+        }
+    }
+
+    /**
+     * Returns the total time, in milliseconds, attempts of the given priority
+     * waited for a free slot after their sleep time was over.
+     *
+     * @param priority the priority of the attempts
+     * @return the total queueing time, in milliseconds
+     */
+    public long getQueueingTime(@Nonnull Priority priority) {
+        synchronized (lock) {
+            return TimeUnit.NANOSECONDS.toMillis(queueingTimes[priority.ordinal()]);
+        }
+    }
+
+    private static int compareLongs(long left, long right) {
+        return left < right ? -1 : (left == right ? 0 : 1);
+    }
+
+    private static final class Task {
+        final Runnable attempt;
+        final Priority priority;
+        final long dueTime;
+        final long sequence;
+
+        Task(Runnable attempt, Priority priority, long dueTime, long sequence) {
+            this.attempt = attempt;
+            this.priority = priority;
+            this.dueTime = dueTime;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A task running the next attempt of an asynchronous call, which can be told
+ * that a {@link RetryScheduler} dropped it after accepting it, so the call
+ * fails instead of waiting forever for an attempt that will never run.
+ */
+interface RejectableRunnable extends Runnable {
+
+    /**
+     * Fails the call this task belongs to, since its next attempt will never run.
+     *
+     * @param cause why the attempt was dropped
+     */
+    void reject(RejectedExecutionException cause);
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The state of a single call made by a {@link Retryer}, shared between its
+ * attempts. A context is created when the call starts and is handed to the
+ * {@link ContextualWaitStrategy} and {@link ContextualStopStrategy} of the
+ * retryer after each failed attempt, which lets them base their decision on
+ * what happened earlier in the same call without keeping any shared mutable
+ * state of their own.
+ * <p></p>
+ * A context belongs to one call and must not be kept beyond it. It is only
+ * created when the retryer has a contextual strategy, and only once per call,
+ * so the attempts themselves don't allocate anything for it.
+ */
+@NotThreadSafe
+public final class RetryContext {
+    private long exceptionCount;
+    private long previousSleepTime;
+    private long totalSleepTime;
+
+    RetryContext() {
+    }
+
+    /**
+     * Returns the number of attempts made so far in this call which threw an
+     * exception, including the last failed attempt.
+     *
+     * @return the number of attempts which threw an exception
+     */
+    public long getExceptionCount() {
+        return exceptionCount;
+    }
+
+    /**
+     * Returns the time, in milliseconds, slept before the last failed attempt,
+     * or 0 if it was the first attempt.
+     *
+     * @return the previous sleep time, in milliseconds
+     */
+    public long getPreviousSleepTime() {
+        return previousSleepTime;
+    }
+
+    /**
+     * Returns the total time, in milliseconds, slept between the attempts of
+     * this call so far.
+     *
+     * @return the total sleep time, in milliseconds
+     */
+    public long getTotalSleepTime() {
+        return totalSleepTime;
+    }
+
+    void onAttempt(Attempt<?> attempt) {
+        if (attempt.hasException()) {
+            exceptionCount++;
+        }
+    }
+
+    void onSleep(long sleepTime) {
+        previousSleepTime = sleepTime;
+        totalSleepTime += sleepTime;
+    }
+}
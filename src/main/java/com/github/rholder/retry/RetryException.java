@@ -33,6 +33,7 @@ public final class RetryException extends Exception {
 
     private final int numberOfFailedAttempts;
     private final Attempt<?> lastFailedAttempt;
+    private final boolean writableStackTrace;
 
     /**
      * If the last {@link Attempt} had an Exception, ensure it is available in
@@ -42,7 +43,19 @@ public final class RetryException extends Exception {
      * @param lastFailedAttempt      what happened the last time we failed
      */
     public RetryException(int numberOfFailedAttempts, @Nonnull Attempt<?> lastFailedAttempt) {
-        this("Retrying failed to complete successfully after " + numberOfFailedAttempts + " attempts.", numberOfFailedAttempts, lastFailedAttempt);
+        this(numberOfFailedAttempts, lastFailedAttempt, true);
+    }
+
+    /**
+     * If the last {@link Attempt} had an Exception, ensure it is available as
+     * the cause.
+     *
+     * @param numberOfFailedAttempts times we've tried and failed
+     * @param lastFailedAttempt      what happened the last time we failed
+     * @param writableStackTrace     whether or not the stack trace should be captured
+     */
+    public RetryException(int numberOfFailedAttempts, @Nonnull Attempt<?> lastFailedAttempt, boolean writableStackTrace) {
+        this("Retrying failed to complete successfully after " + numberOfFailedAttempts + " attempts.", numberOfFailedAttempts, lastFailedAttempt, writableStackTrace);
     }
 
     /**
@@ -54,9 +67,40 @@ public final class RetryException extends Exception {
      * @param lastFailedAttempt      what happened the last time we failed
      */
     public RetryException(String message, int numberOfFailedAttempts, Attempt<?> lastFailedAttempt) {
+        this(message, numberOfFailedAttempts, lastFailedAttempt, true);
+    }
+
+    /**
+     * If the last {@link Attempt} had an Exception, ensure it is available as
+     * the cause. When {@code writableStackTrace} is <code>false</code>, no stack
+     * trace is captured for this exception, which makes it cheap to create when
+     * giving up is part of the normal control flow, such as when polling.
+     *
+     * @param message                Exception description to be added to the stack trace
+     * @param numberOfFailedAttempts times we've tried and failed
+     * @param lastFailedAttempt      what happened the last time we failed
+     * @param writableStackTrace     whether or not the stack trace should be captured
+     */
+    public RetryException(String message, int numberOfFailedAttempts, Attempt<?> lastFailedAttempt, boolean writableStackTrace) {
         super(message, checkNotNull(lastFailedAttempt, "Last attempt was null").hasException() ? lastFailedAttempt.getExceptionCause() : null);
         this.numberOfFailedAttempts = numberOfFailedAttempts;
         this.lastFailedAttempt = lastFailedAttempt;
+        this.writableStackTrace = writableStackTrace;
+        if (writableStackTrace) {
+            super.fillInStackTrace();
+        }
+    }
+
+    /**
+     * The stack trace is filled in by the constructor once it knows whether
+     * or not it is wanted, since {@link Throwable}'s own constructor calls
+     * this method before any of the fields here have been set.
+     *
+     * @return this exception
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return writableStackTrace ? super.fillInStackTrace() : this;
     }
 
     /**
@@ -76,4 +120,13 @@ public final class RetryException extends Exception {
     public Attempt<?> getLastFailedAttempt() {
         return lastFailedAttempt;
     }
+
+    /**
+     * Tells if a stack trace was captured for this exception
+     *
+     * @return <code>true</code> if the stack trace was captured, <code>false</code> otherwise
+     */
+    public boolean isWritableStackTrace() {
+        return writableStackTrace;
+    }
 }
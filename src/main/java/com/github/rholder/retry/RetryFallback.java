@@ -0,0 +1,256 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes calls with a {@link Retryer} and keeps the last known good result of
+ * each call under a key, to be served when the retryer gives up:
+ * <pre>
+ * RetryFallback&lt;String, Profile&gt; profiles = new RetryFallback&lt;String, Profile&gt;(retryer, 10000, 1, TimeUnit.HOURS);
+ * Profile profile = profiles.call(userId, loadProfile);
+ * </pre>
+ * When the retryer throws a {@link RetryException}, whether because its stop
+ * strategy ran out of attempts or out of time, the last result of a call with
+ * the same key is returned instead, provided it is younger than the maximum
+ * age. Any other exception is thrown as usual, since it means the call itself
+ * decided to fail.
+ * <p></p>
+ * Given a scheduler, a fallback also serves stale results right away: a call
+ * with a known result older than the refresh age returns it immediately, and
+ * refreshes it by retrying the call in the background, once at a time per key.
+ * A call with a younger known result returns it without calling at all, and
+ * only a call without a known result waits for the retryer.
+ * <p></p>
+ * Results are kept in a cache bounded by the maximum size, which evicts the
+ * least recently used ones first, and their age is measured with the ticker
+ * of the retryer.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the call return value
+ */
+@Beta
+@ThreadSafe
+public final class RetryFallback<K, V> {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Retryer<V> retryer;
+    private final Cache<K, Result<V>> lastKnownGood;
+    private final Ticker ticker;
+    private final long refreshAfterNanos;
+    private final RetryScheduler refreshScheduler;
+    private final ConcurrentMap<K, ListenableFuture<V>> refreshing = new ConcurrentHashMap<K, ListenableFuture<V>>();
+    private final AtomicLong fallbackCount = new AtomicLong();
+    private final AtomicLong staleCount = new AtomicLong();
+
+    /**
+     * Constructor for a fallback which serves the last known good result only
+     * when the retryer gives up.
+     *
+     * @param retryer     the retryer making the calls
+     * @param maximumSize the maximum number of results to keep, which must be >= 0
+     * @param maximumAge  the maximum age of a result which is served
+     * @param timeUnit    the unit of the maximum age
+     */
+    public RetryFallback(@Nonnull Retryer<V> retryer, long maximumSize, long maximumAge, @Nonnull TimeUnit timeUnit) {
+        this(retryer, maximumSize, maximumAge, 0L, timeUnit, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param retryer          the retryer making the calls
+     * @param maximumSize      the maximum number of results to keep, which must be >= 0
+     * @param maximumAge       the maximum age of a result which is served
+     * @param refreshAfter     the age from which a known result is refreshed rather than served as is,
+     *                         which must be >= 0
+     * @param timeUnit         the unit of the ages
+     * @param refreshScheduler the scheduler used to refresh known results in the background, or
+     *                         <code>null</code> to always wait for the retryer
+     */
+    public RetryFallback(@Nonnull Retryer<V> retryer,
+                         long maximumSize,
+                         long maximumAge,
+                         long refreshAfter,
+                         @Nonnull TimeUnit timeUnit,
+                         @Nullable RetryScheduler refreshScheduler) {
+        Preconditions.checkNotNull(retryer, "retryer may not be null");
+        Preconditions.checkArgument(maximumSize >= 0L, "maximumSize must be >= 0 but is %s", maximumSize);
+        Preconditions.checkArgument(maximumAge >= 0L, "maximumAge must be >= 0 but is %s", maximumAge);
+        Preconditions.checkArgument(refreshAfter >= 0L, "refreshAfter must be >= 0 but is %s", refreshAfter);
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        this.retryer = retryer;
+        this.ticker = retryer.getTicker();
+        this.lastKnownGood = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(maximumAge, timeUnit)
+                .ticker(ticker)
+                .build();
+        this.refreshAfterNanos = timeUnit.toNanos(refreshAfter);
+        this.refreshScheduler = refreshScheduler;
+    }
+
+    /**
+     * Calls the given callable with the retryer, or falls back to the last known
+     * good result of a call with the same key.
+     *
+     * @param key      the key the result is kept under
+     * @param callable the callable to call
+     * @return the result of the call, or the last known good result
+     * @throws ExecutionException if the call threw an exception which wasn't retried
+     * @throws RetryException     if the retryer gave up and there is no known result
+     */
+    public V call(@Nonnull K key, @Nonnull Callable<V> callable) throws ExecutionException, RetryException {
+        Preconditions.checkNotNull(key, "key may not be null");
+        Preconditions.checkNotNull(callable, "callable may not be null");
+        if (refreshScheduler != null) {
+            Result<V> known = lastKnownGood.getIfPresent(key);
+            if (known != null) {
+                if (ticker.read() - known.writeTime < refreshAfterNanos) {
+                    return known.value;
+                }
+                staleCount.incrementAndGet();
+                refresh(key, callable);
+                return known.value;
+            }
+        }
+        try {
+            V result = retryer.call(callable);
+            if (result != null) {
+                keep(key, result);
+            }
+            return result;
+        } catch (RetryException e) {
+            V fallback = getLastKnownGood(key);
+            if (fallback == null) {
+                throw e;
+            }
+            fallbackCount.incrementAndGet();
+            return fallback;
+        }
+    }
+
+    private void refresh(final K key, Callable<V> callable) {
+        // the key is claimed before the call starts, so that concurrent refreshes never reach the callable
+        final SettableFuture<V> refresh = SettableFuture.create();
+        if (refreshing.putIfAbsent(key, refresh) != null) {
+            return;
+        }
+        final ListenableFuture<V> future;
+        try {
+            future = retryer.callAsync(callable, refreshScheduler);
+        } catch (RuntimeException e) {
+            refreshing.remove(key, refresh);
+            refresh.setException(e);
+            throw e;
+        }
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    V result = future.get();
+                    if (result != null) {
+                        keep(key, result);
+                    }
+                    refresh.set(result);
+                } catch (ExecutionException e) {
+                    // the known result is kept until it is too old
+                    refresh.setException(e.getCause());
+                } catch (Throwable t) {
+                    refresh.setException(t);
+                } finally {
+                    refreshing.remove(key, refresh);
+                }
+            }
+        }, DIRECT_EXECUTOR);
+    }
+
+    private void keep(K key, V result) {
+        lastKnownGood.put(key, new Result<V>(result, ticker.read()));
+    }
+
+    /**
+     * Returns the last known good result kept under the given key.
+     *
+     * @param key the key
+     * @return the last known good result, or <code>null</code> if there is none
+     */
+    @Nullable
+    public V getLastKnownGood(@Nonnull K key) {
+        Result<V> known = lastKnownGood.getIfPresent(key);
+        return known == null ? null : known.value;
+    }
+
+    /**
+     * Forgets the last known good result kept under the given key, if any.
+     *
+     * @param key the key
+     */
+    public void invalidate(@Nonnull K key) {
+        lastKnownGood.invalidate(key);
+    }
+
+    /**
+     * @return the number of times a known result was served because the retryer gave up
+     */
+    public long getFallbackCount() {
+        return fallbackCount.get();
+    }
+
+    /**
+     * @return the number of times a known result was served right away while being refreshed
+     */
+    public long getStaleCount() {
+        return staleCount.get();
+    }
+
+    @Immutable
+    private static final class Result<V> {
+        private final V value;
+        private final long writeTime;
+
+        Result(V value, long writeTime) {
+            this.value = value;
+            this.writeTime = writeTime;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs many independent calls with the rules of a {@link Retryer}, a limited
+ * number of them at a time, and collects their results:
+ * <pre>
+ * RetryFanOut&lt;Price&gt; fanOut = new RetryFanOut&lt;Price&gt;(retryer, RetrySchedulers.scheduledExecutor(executor), 20)
+ *         .withDeadline(2, TimeUnit.SECONDS)
+ *         .withFailFast();
+ * List&lt;Price&gt; prices = fanOut.start(priceLookups).allAsList().get();
+ * </pre>
+ * Each call is made with {@link Retryer#callAsync(Callable, RetryScheduler)},
+ * so waiting between attempts doesn't hold a thread, and a scatter phase of
+ * hundreds of calls runs on the few threads of the scheduler. The parallelism
+ * bounds the number of calls in progress, waits included, rather than the
+ * number of threads.
+ * <p></p>
+ * A fan-out is immutable and thread-safe, provided the retryer and scheduler
+ * are thread-safe, and can start any number of batches.
+ *
+ * @param <V> the type of the call return value
+ */
+@Beta
+@Immutable
+public final class RetryFanOut<V> {
+    private static final long NO_DEADLINE = -1L;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Retryer<V> retryer;
+    private final RetryScheduler scheduler;
+    private final int parallelism;
+    private final long deadlineMillis;
+    private final boolean failFast;
+
+    /**
+     * Constructor
+     *
+     * @param retryer     the retryer whose rules are used for each call
+     * @param scheduler   the scheduler used to run each attempt
+     * @param parallelism the maximum number of calls in progress at a time, which must be > 0
+     */
+    public RetryFanOut(@Nonnull Retryer<V> retryer, @Nonnull RetryScheduler scheduler, int parallelism) {
+        this(retryer, scheduler, parallelism, NO_DEADLINE, false);
+        Preconditions.checkNotNull(retryer, "retryer may not be null");
+        Preconditions.checkNotNull(scheduler, "scheduler may not be null");
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be > 0 but is %s", parallelism);
+    }
+
+    private RetryFanOut(Retryer<V> retryer, RetryScheduler scheduler, int parallelism, long deadlineMillis, boolean failFast) {
+        this.retryer = retryer;
+        this.scheduler = scheduler;
+        this.parallelism = parallelism;
+        this.deadlineMillis = deadlineMillis;
+        this.failFast = failFast;
+    }
+
+    /**
+     * Returns a fan-out which gives each batch the given time to complete. When
+     * the time is up, the calls which haven't completed fail with a
+     * {@link TimeoutException}, and no further attempt is made.
+     *
+     * @param timeout  the time a batch has to complete
+     * @param timeUnit the unit of the timeout
+     * @return a fan-out with the given deadline
+     */
+    public RetryFanOut<V> withDeadline(long timeout, @Nonnull TimeUnit timeUnit) {
+        Preconditions.checkArgument(timeout >= 0L, "timeout must be >= 0 but is %s", timeout);
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        return new RetryFanOut<V>(retryer, scheduler, parallelism, timeUnit.toMillis(timeout), failFast);
+    }
+
+    /**
+     * Returns a fan-out which cancels the whole batch as soon as one of its calls
+     * fails, rather than letting the other calls complete.
+     *
+     * @return a fan-out failing fast
+     */
+    public RetryFanOut<V> withFailFast() {
+        return new RetryFanOut<V>(retryer, scheduler, parallelism, deadlineMillis, true);
+    }
+
+    /**
+     * Starts a batch of calls.
+     *
+     * @param callables the callables to call, each with retries
+     * @return the batch, holding the future of each call
+     */
+    public Batch<V> start(@Nonnull Collection<? extends Callable<V>> callables) {
+        Preconditions.checkNotNull(callables, "callables may not be null");
+        Batch<V> batch = new Batch<V>(this, new ArrayList<Callable<V>>(callables));
+        batch.start();
+        return batch;
+    }
+
+    /**
+     * A batch of calls started by a {@link RetryFanOut}.
+     *
+     * @param <V> the type of the call return value
+     */
+    @ThreadSafe
+    public static final class Batch<V> {
+        private final RetryFanOut<V> fanOut;
+        private final List<Callable<V>> callables;
+        private final List<SettableFuture<V>> results;
+        private final ListenableFuture<List<V>> all;
+        private final AtomicReferenceArray<ListenableFuture<V>> calls;
+        private final AtomicInteger nextIndex = new AtomicInteger();
+        private final AtomicInteger taken = new AtomicInteger();
+        private final AtomicInteger done = new AtomicInteger();
+        private final BlockingQueue<ListenableFuture<V>> completed = new LinkedBlockingQueue<ListenableFuture<V>>();
+        private volatile boolean closed;
+        private volatile Future<?> deadline;
+
+        private Batch(RetryFanOut<V> fanOut, List<Callable<V>> callables) {
+            this.fanOut = fanOut;
+            this.callables = callables;
+            this.calls = new AtomicReferenceArray<ListenableFuture<V>>(callables.size());
+            List<SettableFuture<V>> theResults = new ArrayList<SettableFuture<V>>(callables.size());
+            for (int i = 0; i < callables.size(); i++) {
+                theResults.add(SettableFuture.<V>create());
+            }
+            this.results = Collections.unmodifiableList(theResults);
+            // listens before onResult does, so it fails with the first failure rather than
+            // with the cancellation of the other calls by a fail-fast batch
+            this.all = Futures.allAsList(results);
+            for (int i = 0; i < callables.size(); i++) {
+                final int index = i;
+                results.get(i).addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        onResult(index);
+                    }
+                }, DIRECT_EXECUTOR);
+            }
+        }
+
+        private void start() {
+            if (fanOut.deadlineMillis != NO_DEADLINE && !callables.isEmpty()) {
+                DeadlineTask task = new DeadlineTask(this);
+                if (fanOut.scheduler instanceof CancellableRetryScheduler) {
+                    deadline = ((CancellableRetryScheduler) fanOut.scheduler).scheduleCancellable(task, fanOut.deadlineMillis);
+                } else {
+                    fanOut.scheduler.schedule(task, fanOut.deadlineMillis);
+                }
+            }
+            for (int i = 0; i < fanOut.parallelism; i++) {
+                startNext();
+            }
+        }
+
+        private void startNext() {
+            while (!closed) {
+                int index = nextIndex.getAndIncrement();
+                if (index >= callables.size()) {
+                    return;
+                }
+                if (results.get(index).isDone()) {
+                    continue;
+                }
+                final SettableFuture<V> result = results.get(index);
+                final ListenableFuture<V> call = fanOut.retryer.callAsync(callables.get(index), fanOut.scheduler);
+                calls.set(index, call);
+                call.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        complete(result, call);
+                    }
+                }, DIRECT_EXECUTOR);
+                if (result.isDone()) {
+                    call.cancel(false);
+                }
+                return;
+            }
+        }
+
+        private void complete(SettableFuture<V> result, ListenableFuture<V> call) {
+            try {
+                result.set(call.get());
+            } catch (ExecutionException e) {
+                result.setException(e.getCause());
+            } catch (Throwable t) {
+                result.setException(t);
+            }
+        }
+
+        private void onResult(int index) {
+            SettableFuture<V> result = results.get(index);
+            ListenableFuture<V> call = calls.get(index);
+            if (call != null && !call.isDone()) {
+                call.cancel(false);
+            }
+            if (done.incrementAndGet() == results.size()) {
+                Future<?> task = deadline;
+                if (task != null) {
+                    task.cancel(false);
+                }
+            }
+            completed.add(result);
+            if (fanOut.failFast && !result.isCancelled() && failed(result)) {
+                close(null);
+            }
+            startNext();
+        }
+
+        private static boolean failed(ListenableFuture<?> future) {
+            try {
+                future.get();
+                return false;
+            } catch (Exception e) {
+                return true;
+            }
+        }
+
+        /**
+         * Stops the batch, failing the calls which haven't completed with the given
+         * exception, or cancelling them if it is null.
+         */
+        private void close(Throwable cause) {
+            closed = true;
+            for (SettableFuture<V> result : results) {
+                if (cause == null) {
+                    result.cancel(false);
+                } else {
+                    result.setException(cause);
+                }
+            }
+        }
+
+        /**
+         * @return the future of each call, in the order the callables were given
+         */
+        public List<ListenableFuture<V>> getFutures() {
+            return Collections.<ListenableFuture<V>>unmodifiableList(results);
+        }
+
+        /**
+         * Returns a future holding the results of all the calls, in the order the
+         * callables were given, or failing as soon as one of the calls fails.
+         *
+         * @return a future holding all the results
+         */
+        public ListenableFuture<List<V>> allAsList() {
+            return all;
+        }
+
+        /**
+         * Waits for the next call to complete, and returns its future. Each call is
+         * returned once, in the order the calls complete.
+         *
+         * @return the future of the next call to complete, which is done
+         * @throws InterruptedException   if interrupted while waiting
+         * @throws NoSuchElementException if all the calls have already been returned
+         */
+        public ListenableFuture<V> takeCompleted() throws InterruptedException {
+            if (taken.getAndIncrement() >= results.size()) {
+                taken.decrementAndGet();
+                throw new NoSuchElementException("all the calls have been taken");
+            }
+            return completed.take();
+        }
+
+        /**
+         * Cancels the calls which haven't completed yet. No further attempt is made.
+         */
+        public void cancel() {
+            close(null);
+        }
+    }
+
+    /**
+     * Fails the calls of a batch which are still in progress when its deadline
+     * passes. The batch is only weakly referenced, so that a scheduler whose tasks
+     * can't be cancelled doesn't keep a completed batch and its results until then.
+     */
+    private static final class DeadlineTask implements Runnable {
+        private final WeakReference<Batch<?>> batch;
+
+        DeadlineTask(Batch<?> batch) {
+            this.batch = new WeakReference<Batch<?>>(batch);
+        }
+
+        @Override
+        public void run() {
+            Batch<?> theBatch = batch.get();
+            if (theBatch != null) {
+                theBatch.close(new TimeoutException("the deadline of the batch has passed"));
+            }
+        }
+    }
+}
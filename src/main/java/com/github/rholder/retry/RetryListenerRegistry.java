@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link RetryListener} which forwards each attempt to a set of listeners
+ * that can be changed at any time, for example to turn on tracing in a
+ * running application. Register it once with
+ * {@link RetryerBuilder#withRetryListener(RetryListener)} and then add or
+ * remove listeners as needed.
+ * <p></p>
+ * The listeners are kept in an array which is copied on every change, so
+ * notifying them is a plain loop over the current array that neither locks
+ * nor allocates. Changes are expected to be rare compared to attempts.
+ */
+@Beta
+@ThreadSafe
+public final class RetryListenerRegistry implements RetryListener {
+    private static final RetryListener[] NO_LISTENERS = new RetryListener[0];
+
+    private final AtomicReference<RetryListener[]> listeners = new AtomicReference<RetryListener[]>(NO_LISTENERS);
+
+    /**
+     * Adds a listener which will be notified of each attempt from now on.
+     *
+     * @param listener the listener to add
+     */
+    public void addListener(@Nonnull RetryListener listener) {
+        Preconditions.checkNotNull(listener, "listener may not be null");
+        for (; ; ) {
+            RetryListener[] current = listeners.get();
+            RetryListener[] updated = new RetryListener[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = listener;
+            if (listeners.compareAndSet(current, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the first occurrence of the given listener, if it was added.
+     *
+     * @param listener the listener to remove
+     * @return <code>true</code> if the listener was removed, <code>false</code>
+     *         if it wasn't registered
+     */
+    public boolean removeListener(@Nonnull RetryListener listener) {
+        Preconditions.checkNotNull(listener, "listener may not be null");
+        for (; ; ) {
+            RetryListener[] current = listeners.get();
+            int index = indexOf(current, listener);
+            if (index < 0) {
+                return false;
+            }
+            RetryListener[] updated = current.length == 1 ? NO_LISTENERS : new RetryListener[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            if (listeners.compareAndSet(current, updated)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of registered listeners.
+     *
+     * @return the number of registered listeners
+     */
+    public int size() {
+        return listeners.get().length;
+    }
+
+    @Override
+    public <V> void onRetry(Attempt<V> attempt) {
+        RetryListener[] current = listeners.get();
+        for (int i = 0; i < current.length; i++) {
+            current[i].onRetry(attempt);
+        }
+    }
+
+    private static int indexOf(RetryListener[] listeners, RetryListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i].equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the tasks waiting in a {@link DurableRetryQueue},
+ * kept in a memory-mapped file. Each change to a task is appended as a record
+ * with a checksum, so records written before the process died are found again
+ * when the log is reopened, and a record torn by the crash is ignored along
+ * with anything after it. When the file is full, the tasks still waiting are
+ * written to a new file which replaces the old one. Should the new file fail to
+ * replace the old one, which is then still whole, the old one grows instead.
+ * <p></p>
+ * Records reach the operating system as soon as they are appended, which
+ * survives the process dying, but only {@link #force()} makes sure they are
+ * on disk.
+ */
+@ThreadSafe
+class RetryLog implements Closeable {
+    private static final int MAGIC = 0x47524c31;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte ADD = 1;
+    private static final byte RESCHEDULE = 2;
+    private static final byte REMOVE = 3;
+
+    private final File file;
+    private final int initialSize;
+    private final CRC32 crc = new CRC32();
+
+    private final Object lock = new Object();
+    @GuardedBy("lock")
+    private final Map<Long, Entry> entries = new LinkedHashMap<Long, Entry>();
+    @GuardedBy("lock")
+    private RandomAccessFile randomAccessFile;
+    @GuardedBy("lock")
+    private MappedByteBuffer buffer;
+    @GuardedBy("lock")
+    private ByteBuffer scratch = ByteBuffer.allocate(256);
+    @GuardedBy("lock")
+    private long nextId;
+
+    /**
+     * Opens the log in the given file, creating it if needed, and reads back
+     * the tasks it holds.
+     *
+     * @param file        the file holding the log
+     * @param initialSize the size the file is created with, in bytes
+     * @throws IOException if the file can't be read or isn't a log
+     */
+    RetryLog(File file, int initialSize) throws IOException {
+        Preconditions.checkArgument(initialSize >= 1024, "initialSize must be >= 1024 but is %s", initialSize);
+        this.file = file;
+        this.initialSize = initialSize;
+        File compacted = compactedFile();
+        if (compacted.exists() && !compacted.delete()) {
+            throw new IOException("Could not delete " + compacted);
+        }
+        synchronized (lock) {
+            boolean created = !file.exists() || file.length() == 0L;
+            map(file, (int) Math.max(initialSize, file.length()));
+            if (created) {
+                buffer.putInt(0, MAGIC);
+                buffer.position(HEADER_SIZE);
+            } else {
+                if (buffer.getInt(0) != MAGIC) {
+                    close();
+                    throw new IOException(file + " is not a retry log");
+                }
+                recover();
+            }
+        }
+    }
+
+    /**
+     * Returns the tasks held by the log, in the order they were added.
+     */
+    Collection<Entry> entries() {
+        synchronized (lock) {
+            return new ArrayList<Entry>(entries.values());
+        }
+    }
+
+    Entry get(long id) {
+        synchronized (lock) {
+            return entries.get(id);
+        }
+    }
+
+    /**
+     * Appends a new task to the log.
+     *
+     * @return the task as added, with its id
+     */
+    Entry add(byte[] payload, long attemptNumber, long firstAttemptTime, long nextAttemptTime) throws IOException {
+        synchronized (lock) {
+            Entry entry = new Entry(nextId++, attemptNumber, firstAttemptTime, nextAttemptTime, payload);
+            ByteBuffer body = startRecord(1 + 8 * 4 + payload.length);
+            body.put(ADD).putLong(entry.id).putLong(attemptNumber).putLong(firstAttemptTime).putLong(nextAttemptTime).put(payload);
+            append(body);
+            entries.put(entry.id, entry);
+            return entry;
+        }
+    }
+
+    /**
+     * Appends the attempt number and the time of the next attempt of a task.
+     *
+     * @return the task as rescheduled, or null if it isn't in the log
+     */
+    Entry reschedule(long id, long attemptNumber, long nextAttemptTime) throws IOException {
+        synchronized (lock) {
+            Entry entry = entries.get(id);
+            if (entry == null) {
+                return null;
+            }
+            ByteBuffer body = startRecord(1 + 8 * 3);
+            body.put(RESCHEDULE).putLong(id).putLong(attemptNumber).putLong(nextAttemptTime);
+            append(body);
+            entry = entry.reschedule(attemptNumber, nextAttemptTime);
+            entries.put(id, entry);
+            return entry;
+        }
+    }
+
+    /**
+     * Appends the removal of a task, which is then forgotten.
+     *
+     * @return <code>true</code> if the task was in the log
+     */
+    boolean remove(long id) throws IOException {
+        synchronized (lock) {
+            if (!entries.containsKey(id)) {
+                return false;
+            }
+            ByteBuffer body = startRecord(1 + 8);
+            body.put(REMOVE).putLong(id);
+            append(body);
+            entries.remove(id);
+            return true;
+        }
+    }
+
+    /**
+     * Returns the number of tasks held by the log.
+     */
+    int size() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Writes the records appended so far to disk.
+     */
+    void force() {
+        synchronized (lock) {
+            if (buffer != null) {
+                buffer.force();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (randomAccessFile != null) {
+                buffer.force();
+                buffer = null;
+                randomAccessFile.close();
+                randomAccessFile = null;
+            }
+        }
+    }
+
+    /**
+     * Makes sure the file has room for a record with a body of the given size,
+     * then returns an empty buffer to write the body to.
+     */
+    @GuardedBy("lock")
+    private ByteBuffer startRecord(int size) throws IOException {
+        Preconditions.checkState(buffer != null, "The retry log is closed");
+        // keep room for the length of the next record, which marks the end of the log
+        if (buffer.remaining() < RECORD_HEADER_SIZE + size + 4) {
+            compact(RECORD_HEADER_SIZE + size + 4);
+        }
+        if (scratch.capacity() < size) {
+            scratch = ByteBuffer.allocate(Math.max(size, scratch.capacity() * 2));
+        }
+        scratch.clear();
+        return scratch;
+    }
+
+    @GuardedBy("lock")
+    private void append(ByteBuffer body) {
+        body.flip();
+        int length = body.remaining();
+        crc.reset();
+        crc.update(body.array(), 0, length);
+        int position = buffer.position();
+        buffer.position(position + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(body);
+        // the length goes last, so a record is only ever seen once complete
+        buffer.putInt(position, length);
+    }
+
+    /**
+     * Writes the tasks still waiting to a new file, large enough for them and
+     * the given number of bytes, and switches over to it.
+     */
+    @GuardedBy("lock")
+    private void compact(int needed) throws IOException {
+        long liveSize = HEADER_SIZE + needed + 4;
+        for (Entry entry : entries.values()) {
+            liveSize += RECORD_HEADER_SIZE + 1 + 8 * 4 + entry.payload.length;
+        }
+        long size = initialSize;
+        while (size < liveSize * 2) {
+            size *= 2;
+        }
+        Preconditions.checkState(size <= Integer.MAX_VALUE, "The retry log can't grow beyond 2GB");
+
+        File compacted = compactedFile();
+        int previousSize = buffer.capacity();
+        close();
+        map(compacted, (int) size);
+        buffer.putInt(0, MAGIC);
+        buffer.position(HEADER_SIZE);
+        for (Entry entry : entries.values()) {
+            ByteBuffer body = startRecord(1 + 8 * 4 + entry.payload.length);
+            body.put(ADD).putLong(entry.id).putLong(entry.attemptNumber).putLong(entry.firstAttemptTime)
+                    .putLong(entry.nextAttemptTime).put(entry.payload);
+            append(body);
+        }
+        buffer.force();
+        if (!rename(compacted, file)) {
+            // the old file still holds every task, so it is kept and grown rather than left for the compacted one,
+            // which is deleted when the log is opened
+            long grownSize = previousSize + size;
+            Preconditions.checkState(grownSize <= Integer.MAX_VALUE, "The retry log can't grow beyond 2GB");
+            close();
+            compacted.delete();
+            map(file, (int) grownSize);
+            entries.clear();
+            recover();
+        }
+    }
+
+    /**
+     * Replaces the given file with the compacted one.
+     *
+     * @return <code>true</code> if the file was replaced
+     */
+    boolean rename(File compacted, File target) {
+        return compacted.renameTo(target);
+    }
+
+    @GuardedBy("lock")
+    private void recover() {
+        int position = HEADER_SIZE;
+        byte[] bytes = new byte[0];
+        for (; ; ) {
+            if (position + RECORD_HEADER_SIZE > buffer.capacity()) {
+                break;
+            }
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            if (bytes.length < length) {
+                bytes = new byte[length];
+            }
+            buffer.position(position + RECORD_HEADER_SIZE);
+            buffer.get(bytes, 0, length);
+            crc.reset();
+            crc.update(bytes, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            apply(ByteBuffer.wrap(bytes, 0, length));
+            position += RECORD_HEADER_SIZE + length;
+        }
+        // clear what is left of a torn record, so it can't pass for one later
+        for (int i = position; i < buffer.capacity() && i < position + RECORD_HEADER_SIZE; i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.position(position);
+    }
+
+    @GuardedBy("lock")
+    private void apply(ByteBuffer body) {
+        byte type = body.get();
+        long id = body.getLong();
+        nextId = Math.max(nextId, id + 1);
+        if (type == ADD) {
+            long attemptNumber = body.getLong();
+            long firstAttemptTime = body.getLong();
+            long nextAttemptTime = body.getLong();
+            byte[] payload = new byte[body.remaining()];
+            body.get(payload);
+            entries.put(id, new Entry(id, attemptNumber, firstAttemptTime, nextAttemptTime, payload));
+        } else if (type == RESCHEDULE) {
+            Entry entry = entries.get(id);
+            if (entry != null) {
+                entries.put(id, entry.reschedule(body.getLong(), body.getLong()));
+            }
+        } else if (type == REMOVE) {
+            entries.remove(id);
+        }
+    }
+
+    @GuardedBy("lock")
+    private void map(File target, int size) throws IOException {
+        randomAccessFile = new RandomAccessFile(target, "rw");
+        try {
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, size);
+        } catch (IOException e) {
+            randomAccessFile.close();
+            randomAccessFile = null;
+            throw e;
+        }
+    }
+
+    private File compactedFile() {
+        return new File(file.getPath() + ".compacting");
+    }
+
+    /**
+     * A task held by the log.
+     */
+    @Immutable
+    static final class Entry {
+        final long id;
+        final long attemptNumber;
+        final long firstAttemptTime;
+        final long nextAttemptTime;
+        final byte[] payload;
+
+        Entry(long id, long attemptNumber, long firstAttemptTime, long nextAttemptTime, byte[] payload) {
+            this.id = id;
+            this.attemptNumber = attemptNumber;
+            this.firstAttemptTime = firstAttemptTime;
+            this.nextAttemptTime = nextAttemptTime;
+            this.payload = payload;
+        }
+
+        Entry reschedule(long newAttemptNumber, long newNextAttemptTime) {
+            return new Entry(id, newAttemptNumber, firstAttemptTime, newNextAttemptTime, payload);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The settings of a retryer which only retries exceptions, as given by a
+ * {@link Retrying} annotation or a {@link RetryerRegistry} file. Two equal
+ * policies build equivalent retryers, which lets a registry keep the retryer
+ * of a policy which didn't change when its file is reloaded.
+ */
+@Immutable
+final class RetryPolicy {
+    static final long NO_TIME_LIMIT = 0L;
+
+    private final int maxAttempts;
+    private final Retrying.WaitType waitType;
+    private final long waitTime;
+    private final long maxWaitTime;
+    private final long timeLimit;
+    private final TimeUnit timeUnit;
+    private final Class<? extends Throwable>[] retryOn;
+
+    RetryPolicy(int maxAttempts,
+                Retrying.WaitType waitType,
+                long waitTime,
+                long maxWaitTime,
+                long timeLimit,
+                TimeUnit timeUnit,
+                Class<? extends Throwable>[] retryOn) {
+        Preconditions.checkArgument(maxAttempts >= 1, "maxAttempts must be >= 1 but is %s", maxAttempts);
+        Preconditions.checkNotNull(waitType, "waitType may not be null");
+        Preconditions.checkArgument(waitTime >= 0L, "waitTime must be >= 0 but is %s", waitTime);
+        Preconditions.checkArgument(maxWaitTime >= 0L, "maxWaitTime must be >= 0 but is %s", maxWaitTime);
+        Preconditions.checkArgument(timeLimit >= 0L, "timeLimit must be >= 0 but is %s", timeLimit);
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        Preconditions.checkNotNull(retryOn, "retryOn may not be null");
+        this.maxAttempts = maxAttempts;
+        this.waitType = waitType;
+        this.waitTime = waitTime;
+        this.maxWaitTime = maxWaitTime;
+        this.timeLimit = timeLimit;
+        this.timeUnit = timeUnit;
+        this.retryOn = retryOn.clone();
+    }
+
+    static RetryPolicy of(Retrying annotation) {
+        return new RetryPolicy(annotation.maxAttempts(), annotation.waitType(), annotation.waitTime(),
+                annotation.maxWaitTime(), NO_TIME_LIMIT, annotation.timeUnit(), annotation.retryOn());
+    }
+
+    boolean hasTimeLimit() {
+        return timeLimit != NO_TIME_LIMIT;
+    }
+
+    /**
+     * @param timeLimitExecutor the executor running the attempts if the policy has a time limit
+     * @return a new retryer following this policy
+     */
+    Retryer<Object> newRetryer(ExecutorService timeLimitExecutor) {
+        RetryerBuilder<Object> builder = RetryerBuilder.newBuilder()
+                .withStopStrategy(StopStrategies.stopAfterAttempt(maxAttempts))
+                .withWaitStrategy(newWaitStrategy());
+        for (Class<? extends Throwable> exceptionClass : retryOn) {
+            builder.retryIfExceptionOfType(exceptionClass);
+        }
+        if (hasTimeLimit()) {
+            Preconditions.checkNotNull(timeLimitExecutor, "timeLimitExecutor may not be null with a time limit");
+            builder.withAttemptTimeLimiter(AttemptTimeLimiters.fixedTimeLimit(timeLimit, timeUnit, timeLimitExecutor));
+        }
+        return builder.build();
+    }
+
+    private WaitStrategy newWaitStrategy() {
+        long waitMillis = timeUnit.toMillis(waitTime);
+        long maxWaitMillis = timeUnit.toMillis(maxWaitTime);
+        switch (waitType) {
+            case INCREMENTING:
+                return WaitStrategies.incrementingWait(waitMillis, TimeUnit.MILLISECONDS, waitMillis, TimeUnit.MILLISECONDS);
+            case EXPONENTIAL:
+                return WaitStrategies.exponentialWait(waitMillis, maxWaitMillis, TimeUnit.MILLISECONDS);
+            case FIBONACCI:
+                return WaitStrategies.fibonacciWait(waitMillis, maxWaitMillis, TimeUnit.MILLISECONDS);
+            case DECORRELATED_JITTER:
+                return WaitStrategies.decorrelatedJitterWait(waitMillis, TimeUnit.MILLISECONDS, maxWaitMillis, TimeUnit.MILLISECONDS);
+            default:
+                return WaitStrategies.fixedWait(waitMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RetryPolicy)) {
+            return false;
+        }
+        RetryPolicy other = (RetryPolicy) o;
+        return maxAttempts == other.maxAttempts
+                && waitType == other.waitType
+                && waitTime == other.waitTime
+                && maxWaitTime == other.maxWaitTime
+                && timeLimit == other.timeLimit
+                && timeUnit == other.timeUnit
+                && Arrays.equals(retryOn, other.retryOn);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(new Object[]{maxAttempts, waitType, waitTime, maxWaitTime, timeLimit, timeUnit, Arrays.hashCode(retryOn)});
+    }
+}
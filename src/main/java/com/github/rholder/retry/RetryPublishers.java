@@ -0,0 +1,540 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Factory class for Reactive Streams {@link Publisher} operators which apply
+ * the rules of a {@link Retryer} to a stream, so the same retry policy can be
+ * shared between blocking calls and streaming pipelines. Waits between
+ * attempts are run by a {@link RetryScheduler}, so no thread is blocked.
+ */
+public final class RetryPublishers {
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private RetryPublishers() {
+    }
+
+    /**
+     * Returns a publisher which subscribes to the given source again when it
+     * signals an error the retryer rejects, after waiting as decided by the
+     * retryer's wait strategy. Each subscription to the source counts as one
+     * attempt, and elements already delivered are not replayed, so a source
+     * emitting the same elements again on every subscription will emit them
+     * downstream again. Demand signalled downstream and not yet satisfied is
+     * requested again from every new subscription. Once the stop strategy
+     * decides to stop, the stream fails with a {@link RetryException}; an
+     * error the retryer accepts is passed downstream as is.
+     * <p></p>
+     * Only the exception rules of the retryer apply, since a stream has no
+     * single result. The attempt time limiter is not used.
+     *
+     * @param source    the publisher to subscribe to
+     * @param retryer   the retryer whose rules decide when and how often to subscribe again
+     * @param scheduler the scheduler used to subscribe again once the wait is over
+     * @param <T>       the type of the elements
+     * @return a publisher retrying the given source
+     */
+    public static <T> Publisher<T> retry(@Nonnull Publisher<T> source,
+                                         @Nonnull Retryer<T> retryer,
+                                         @Nonnull RetryScheduler scheduler) {
+        Preconditions.checkNotNull(source, "source may not be null");
+        Preconditions.checkNotNull(retryer, "retryer may not be null");
+        Preconditions.checkNotNull(scheduler, "scheduler may not be null");
+        return new RetryPublisher<T>(source, retryer, scheduler);
+    }
+
+    /**
+     * Returns a publisher which maps each element of the given source to a
+     * callable, and calls it with {@link Retryer#callAsync(Callable, RetryScheduler)}.
+     * At most {@code maxConcurrency} elements are in flight or waiting to be
+     * delivered at any time, and results are delivered in the order they
+     * complete. If the retries of any element fail, the stream fails with the
+     * same exception and the other elements in flight are cancelled.
+     *
+     * @param source         the publisher of the elements to map
+     * @param mapper         function returning the callable which maps an element
+     * @param retryer        the retryer used to call each callable
+     * @param scheduler      the scheduler used to run each attempt
+     * @param maxConcurrency the maximum number of elements in flight
+     * @param <T>            the type of the source elements
+     * @param <R>            the type of the mapped elements
+     * @return a publisher of the mapped elements
+     */
+    public static <T, R> Publisher<R> mapWithRetry(@Nonnull Publisher<T> source,
+                                                   @Nonnull Function<? super T, ? extends Callable<R>> mapper,
+                                                   @Nonnull Retryer<R> retryer,
+                                                   @Nonnull RetryScheduler scheduler,
+                                                   int maxConcurrency) {
+        Preconditions.checkNotNull(source, "source may not be null");
+        Preconditions.checkNotNull(mapper, "mapper may not be null");
+        Preconditions.checkNotNull(retryer, "retryer may not be null");
+        Preconditions.checkNotNull(scheduler, "scheduler may not be null");
+        Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency must be > 0 but is %s", maxConcurrency);
+        return new MapWithRetryPublisher<T, R>(source, mapper, retryer, scheduler, maxConcurrency);
+    }
+
+    private static long addCap(long a, long b) {
+        long result = a + b;
+        return result < 0L ? Long.MAX_VALUE : result;
+    }
+
+    private static void addCap(AtomicLong requested, long n) {
+        for (; ; ) {
+            long current = requested.get();
+            if (requested.compareAndSet(current, addCap(current, n))) {
+                return;
+            }
+        }
+    }
+
+    @Immutable
+    private static final class RetryPublisher<T> implements Publisher<T> {
+        private final Publisher<T> source;
+        private final Retryer<T> retryer;
+        private final RetryScheduler scheduler;
+
+        public RetryPublisher(Publisher<T> source, Retryer<T> retryer, RetryScheduler scheduler) {
+            this.source = source;
+            this.retryer = retryer;
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super T> subscriber) {
+            Preconditions.checkNotNull(subscriber, "subscriber may not be null");
+            RetrySubscription<T> subscription = new RetrySubscription<T>(source, retryer, scheduler, subscriber);
+            subscriber.onSubscribe(subscription);
+            subscription.run();
+        }
+    }
+
+    /**
+     * The subscription handed downstream, which stays the same across all the
+     * subscriptions made to the source. Requests, cancellation and switching
+     * to a new source subscription are all applied by a single drain loop, so
+     * the current source subscription is only ever used by one thread at a time.
+     */
+    private static final class RetrySubscription<T> implements Subscription, RejectableRunnable {
+        private final Publisher<T> source;
+        private final Retryer<T> retryer;
+        private final RetryScheduler scheduler;
+        private final Subscriber<? super T> downstream;
+        private final RetryContext context;
+        private final long startTime;
+        private int attemptNumber;
+        private volatile Attempt<T> lastAttempt;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicLong missedRequested = new AtomicLong();
+        private final AtomicLong missedProduced = new AtomicLong();
+        private final AtomicReference<Subscription> missedSubscription = new AtomicReference<Subscription>();
+        private Subscription current;
+        private long requested;
+
+        public RetrySubscription(Publisher<T> source, Retryer<T> retryer, RetryScheduler scheduler,
+                                 Subscriber<? super T> downstream) {
+            this.source = source;
+            this.retryer = retryer;
+            this.scheduler = scheduler;
+            this.downstream = downstream;
+            this.context = retryer.newContext();
+            this.startTime = retryer.readTicker();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0L) {
+                cancel();
+                terminate(new IllegalArgumentException("request must be > 0 but is " + n));
+                return;
+            }
+            addCap(missedRequested, n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                drain();
+            }
+        }
+
+        /**
+         * Subscribes to the source, once for the first attempt and then again
+         * each time the wait before a new attempt is over.
+         */
+        @Override
+        public void run() {
+            if (cancelled || done) {
+                return;
+            }
+            attemptNumber++;
+            source.subscribe(new AttemptSubscriber<T>(this));
+        }
+
+        void onSubscribe(Subscription subscription) {
+            Subscription previous = missedSubscription.getAndSet(subscription);
+            if (previous != null) {
+                previous.cancel();
+            }
+            drain();
+        }
+
+        void onNext(T element) {
+            if (done) {
+                return;
+            }
+            downstream.onNext(element);
+            missedProduced.incrementAndGet();
+            drain();
+        }
+
+        void onError(Throwable t) {
+            if (done || cancelled) {
+                return;
+            }
+            Attempt<T> attempt = new Retryer.ExceptionAttempt<T>(t, attemptNumber, retryer.millisSince(startTime));
+            try {
+                long sleepTime = retryer.nextSleepTime(attempt, context);
+                if (sleepTime == Retryer.ACCEPTED) {
+                    terminate(t);
+                } else {
+                    lastAttempt = attempt;
+                    scheduler.schedule(this, sleepTime);
+                }
+            } catch (RejectedExecutionException e) {
+                terminate(retryer.newRetryException(attempt));
+            } catch (Throwable e) {
+                terminate(e);
+            }
+        }
+
+        @Override
+        public void reject(RejectedExecutionException cause) {
+            if (!cancelled) {
+                terminate(retryer.newRetryException(lastAttempt));
+            }
+        }
+
+        void onComplete() {
+            if (!done) {
+                done = true;
+                downstream.onComplete();
+            }
+        }
+
+        private void terminate(Throwable t) {
+            if (!done) {
+                done = true;
+                downstream.onError(t);
+            }
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (; ; ) {
+                long newRequests = missedRequested.getAndSet(0L);
+                long produced = missedProduced.getAndSet(0L);
+                Subscription subscription = missedSubscription.getAndSet(null);
+
+                if (cancelled) {
+                    if (current != null) {
+                        current.cancel();
+                        current = null;
+                    }
+                    if (subscription != null) {
+                        subscription.cancel();
+                    }
+                } else {
+                    long r = requested;
+                    if (r != Long.MAX_VALUE) {
+                        r = addCap(r, newRequests);
+                        if (r != Long.MAX_VALUE) {
+                            r = Math.max(0L, r - produced);
+                        }
+                        requested = r;
+                    }
+
+                    if (subscription != null) {
+                        current = subscription;
+                        if (r > 0L) {
+                            subscription.request(r);
+                        }
+                    } else if (newRequests != 0L && current != null) {
+                        current.request(newRequests);
+                    }
+                }
+
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private static final class AttemptSubscriber<T> implements Subscriber<T> {
+        private final RetrySubscription<T> parent;
+
+        public AttemptSubscriber(RetrySubscription<T> parent) {
+            this.parent = parent;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            parent.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(T element) {
+            parent.onNext(element);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            parent.onError(t);
+        }
+
+        @Override
+        public void onComplete() {
+            parent.onComplete();
+        }
+    }
+
+    @Immutable
+    private static final class MapWithRetryPublisher<T, R> implements Publisher<R> {
+        private final Publisher<T> source;
+        private final Function<? super T, ? extends Callable<R>> mapper;
+        private final Retryer<R> retryer;
+        private final RetryScheduler scheduler;
+        private final int maxConcurrency;
+
+        public MapWithRetryPublisher(Publisher<T> source, Function<? super T, ? extends Callable<R>> mapper,
+                                     Retryer<R> retryer, RetryScheduler scheduler, int maxConcurrency) {
+            this.source = source;
+            this.mapper = mapper;
+            this.retryer = retryer;
+            this.scheduler = scheduler;
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super R> subscriber) {
+            Preconditions.checkNotNull(subscriber, "subscriber may not be null");
+            source.subscribe(new MapWithRetrySubscriber<T, R>(this, subscriber));
+        }
+    }
+
+    /**
+     * Subscribes to the source and hands out the downstream subscription.
+     * Elements are requested from the source as results are delivered, so the
+     * number of elements in flight plus the number of results waiting for
+     * demand never exceeds the maximum concurrency. All the calls made on the
+     * source subscription and all the signals sent downstream happen in a
+     * single drain loop.
+     */
+    private static final class MapWithRetrySubscriber<T, R> implements Subscriber<T>, Subscription {
+        private final MapWithRetryPublisher<T, R> parent;
+        private final Subscriber<? super R> downstream;
+        private final ConcurrentLinkedQueue<R> results = new ConcurrentLinkedQueue<R>();
+        private final Set<ListenableFuture<R>> running =
+                Collections.newSetFromMap(new ConcurrentHashMap<ListenableFuture<R>, Boolean>());
+        private final AtomicInteger wip = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicLong missedUpstream = new AtomicLong();
+        private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        private volatile Subscription upstream;
+        private volatile boolean upstreamDone;
+        private volatile boolean cancelled;
+        private boolean terminated;
+
+        public MapWithRetrySubscriber(MapWithRetryPublisher<T, R> parent, Subscriber<? super R> downstream) {
+            this.parent = parent;
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            upstream = subscription;
+            missedUpstream.set(parent.maxConcurrency);
+            downstream.onSubscribe(this);
+            drain();
+        }
+
+        @Override
+        public void onNext(T element) {
+            if (upstreamDone || error.get() != null || cancelled) {
+                return;
+            }
+            inFlight.incrementAndGet();
+            final ListenableFuture<R> future;
+            try {
+                future = parent.retryer.callAsync(parent.mapper.apply(element), parent.scheduler);
+            } catch (Throwable t) {
+                inFlight.decrementAndGet();
+                fail(t);
+                return;
+            }
+            running.add(future);
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    running.remove(future);
+                    try {
+                        R result = future.get();
+                        if (result == null) {
+                            fail(new NullPointerException("mapped element may not be null"));
+                        } else {
+                            results.offer(result);
+                        }
+                    } catch (ExecutionException e) {
+                        fail(e.getCause());
+                    } catch (CancellationException e) {
+                        // cancelled because the stream has terminated
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        fail(e);
+                    }
+                    inFlight.decrementAndGet();
+                    drain();
+                }
+            }, DIRECT_EXECUTOR);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            fail(t);
+        }
+
+        @Override
+        public void onComplete() {
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0L) {
+                fail(new IllegalArgumentException("request must be > 0 but is " + n));
+                return;
+            }
+            addCap(requested, n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void fail(Throwable t) {
+            if (error.compareAndSet(null, t)) {
+                drain();
+            }
+        }
+
+        private void stop() {
+            terminated = true;
+            upstream.cancel();
+            for (ListenableFuture<R> future : running) {
+                future.cancel(false);
+            }
+            results.clear();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (; ; ) {
+                if (terminated) {
+                    results.clear();
+                } else if (cancelled) {
+                    stop();
+                } else if (error.get() != null) {
+                    stop();
+                    downstream.onError(error.get());
+                } else {
+                    long r = requested.get();
+                    long emitted = 0L;
+                    while (emitted != r && !cancelled) {
+                        R result = results.poll();
+                        if (result == null) {
+                            break;
+                        }
+                        downstream.onNext(result);
+                        emitted++;
+                    }
+                    if (emitted != 0L && r != Long.MAX_VALUE) {
+                        requested.addAndGet(-emitted);
+                    }
+
+                    if (upstreamDone && inFlight.get() == 0 && results.isEmpty()) {
+                        terminated = true;
+                        downstream.onComplete();
+                    } else {
+                        long replenish = missedUpstream.getAndSet(0L) + emitted;
+                        if (replenish > 0L && !upstreamDone) {
+                            upstream.request(replenish);
+                        }
+                    }
+                }
+
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+    }
+}
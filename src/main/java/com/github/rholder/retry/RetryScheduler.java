@@ -0,0 +1,39 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This is a strategy used to decide how an asynchronous retryer runs its
+ * attempts. Where a {@link BlockStrategy} puts the calling thread to sleep
+ * between attempts, a scheduler runs the next attempt later without holding
+ * on to any thread in the meantime.
+ */
+public interface RetryScheduler {
+
+    /**
+     * Schedule the given attempt to run once the designated amount of time
+     * has passed. A sleep time of 0 means the attempt should run as soon as
+     * possible.
+     *
+     * @param attempt   the task running the next attempt
+     * @param sleepTime the computed sleep duration in milliseconds
+     * @throws RejectedExecutionException if the attempt cannot be scheduled
+     */
+    void schedule(Runnable attempt, long sleepTime) throws RejectedExecutionException;
+}
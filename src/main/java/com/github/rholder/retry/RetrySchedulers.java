@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Factory class for {@link RetryScheduler} instances.
+ */
+public final class RetrySchedulers {
+
+    private RetrySchedulers() {
+    }
+
+    /**
+     * Returns a scheduler which runs attempts on the given executor. Many
+     * asynchronous calls can share a small executor, since none of them holds
+     * a thread while waiting for its next attempt.
+     *
+     * @param executorService the executor used to run the attempts
+     * @return a scheduler backed by the given executor
+     */
+    public static RetryScheduler scheduledExecutor(@Nonnull ScheduledExecutorService executorService) {
+        Preconditions.checkNotNull(executorService, "executorService may not be null");
+        return new ScheduledExecutorScheduler(executorService);
+    }
+
+    @Immutable
+    private static final class ScheduledExecutorScheduler implements CancellableRetryScheduler {
+        private final ScheduledExecutorService executorService;
+
+        public ScheduledExecutorScheduler(ScheduledExecutorService executorService) {
+            this.executorService = executorService;
+        }
+
+        @Override
+        public void schedule(Runnable attempt, long sleepTime) {
+            if (sleepTime <= 0L) {
+                executorService.execute(attempt);
+            } else {
+                executorService.schedule(attempt, sleepTime, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public Future<?> scheduleCancellable(Runnable attempt, long sleepTime) {
+            return executorService.schedule(attempt, Math.max(0L, sleepTime), TimeUnit.MILLISECONDS);
+        }
+    }
+}
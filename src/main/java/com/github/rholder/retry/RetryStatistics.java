@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live statistics about the calls made by the retryers it is added to, as a
+ * {@link RetryTracer}, which can be exposed as a platform MBean:
+ * <pre>
+ * RetryStatistics statistics = new RetryStatistics();
+ * Retryer&lt;Order&gt; retryer = RetryerBuilder.&lt;Order&gt;newBuilder()
+ *         .withRetryTracer(statistics)
+ *         .build();
+ * statistics.register("orders");
+ * </pre>
+ * Every call is counted, without allocating anything, and the counters are
+ * striped over several cache lines, so that neither the retrying threads nor
+ * the JMX clients reading the statistics contend with each other.
+ */
+@Beta
+@ThreadSafe
+public final class RetryStatistics implements RetryTracer, RetryStatisticsMBean {
+    /**
+     * The domain of the names the statistics are registered under.
+     */
+    public static final String DOMAIN = "com.github.rholder.retry";
+
+    private final StripedCounter calls = new StripedCounter();
+    private final StripedCounter inFlight = new StripedCounter();
+    private final StripedCounter attempts = new StripedCounter();
+    private final StripedCounter retries = new StripedCounter();
+    private final StripedCounter giveUps = new StripedCounter();
+    private final StripedCounter blockedNanos = new StripedCounter();
+    private final AtomicLong maxAttempts = new AtomicLong();
+    private final CallTrace trace = new StatisticsCallTrace();
+    private volatile ObjectName objectName;
+
+    @Override
+    public CallTrace startCall(long startTime) {
+        calls.increment();
+        inFlight.increment();
+        return trace;
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server, under the name
+     * <code>com.github.rholder.retry:type=Retryer,name=</code><i>name</i>.
+     *
+     * @param name the name of the retryer
+     * @return the name the statistics are registered under
+     * @throws JMException           if the statistics couldn't be registered, such as when the name is taken
+     * @throws IllegalStateException if the statistics are already registered
+     */
+    public synchronized ObjectName register(@Nonnull String name) throws JMException {
+        Preconditions.checkNotNull(name, "name may not be null");
+        Preconditions.checkState(objectName == null, "already registered as %s", objectName);
+        ObjectName theObjectName = new ObjectName(DOMAIN + ":type=Retryer,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, theObjectName);
+        objectName = theObjectName;
+        return theObjectName;
+    }
+
+    /**
+     * Unregisters these statistics from the platform MBean server, if they are registered.
+     *
+     * @throws JMException if the statistics couldn't be unregistered
+     */
+    public synchronized void unregister() throws JMException {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getInFlightCount() {
+        return inFlight.sum();
+    }
+
+    @Override
+    public long getAttemptCount() {
+        return attempts.sum();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    @Override
+    public double getRetryRatio() {
+        long theAttempts = attempts.sum();
+        return theAttempts == 0L ? 0.0 : (double) retries.sum() / theAttempts;
+    }
+
+    @Override
+    public long getGiveUpCount() {
+        return giveUps.sum();
+    }
+
+    @Override
+    public double getMeanAttemptsPerCall() {
+        long theCalls = calls.sum();
+        return theCalls == 0L ? 0.0 : (double) attempts.sum() / theCalls;
+    }
+
+    @Override
+    public long getMaxAttemptsPerCall() {
+        return maxAttempts.get();
+    }
+
+    @Override
+    public long getBlockedTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum());
+    }
+
+    @Override
+    public void reset() {
+        calls.reset();
+        attempts.reset();
+        retries.reset();
+        giveUps.reset();
+        blockedNanos.reset();
+        maxAttempts.set(0L);
+    }
+
+    /**
+     * The trace shared by all the calls, which only updates the counters.
+     */
+    @ThreadSafe
+    private final class StatisticsCallTrace implements CallTrace {
+
+        @Override
+        public void onAttempt(Attempt<?> attempt, long startTime, long endTime) {
+            attempts.increment();
+            long attemptNumber = attempt.getAttemptNumber();
+            if (attemptNumber > 1L) {
+                retries.increment();
+                long max = maxAttempts.get();
+                while (attemptNumber > max && !maxAttempts.compareAndSet(max, attemptNumber)) {
+                    max = maxAttempts.get();
+                }
+            } else if (maxAttempts.get() == 0L) {
+                maxAttempts.compareAndSet(0L, 1L);
+            }
+        }
+
+        @Override
+        public void onWait(long attemptNumber, long sleepTime, long startTime, long endTime) {
+            blockedNanos.add(endTime - startTime);
+        }
+
+        @Override
+        public void onCallEnd(CallOutcome outcome, long endTime) {
+            inFlight.add(-1L);
+            if (outcome == CallOutcome.GAVE_UP) {
+                giveUps.increment();
+            }
+        }
+    }
+}
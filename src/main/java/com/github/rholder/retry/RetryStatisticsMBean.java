@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+
+/**
+ * The management interface of {@link RetryStatistics}.
+ */
+@Beta
+public interface RetryStatisticsMBean {
+
+    /**
+     * @return the number of calls started since the last reset
+     */
+    long getCallCount();
+
+    /**
+     * @return the number of calls which have started but not ended yet
+     */
+    long getInFlightCount();
+
+    /**
+     * @return the number of attempts made since the last reset, first attempts included
+     */
+    long getAttemptCount();
+
+    /**
+     * @return the number of attempts made since the last reset which weren't the first of their call
+     */
+    long getRetryCount();
+
+    /**
+     * @return the share of the attempts which were retries, between 0 and 1
+     */
+    double getRetryRatio();
+
+    /**
+     * @return the number of calls which gave up since the last reset
+     */
+    long getGiveUpCount();
+
+    /**
+     * @return the mean number of attempts per call since the last reset
+     */
+    double getMeanAttemptsPerCall();
+
+    /**
+     * @return the highest number of attempts made by a call since the last reset
+     */
+    long getMaxAttemptsPerCall();
+
+    /**
+     * @return the total time spent waiting between attempts since the last reset, in milliseconds
+     */
+    long getBlockedTimeMillis();
+
+    /**
+     * Resets all the counters, except the number of calls in flight.
+     */
+    void reset();
+}
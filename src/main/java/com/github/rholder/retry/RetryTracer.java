@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+
+import javax.annotation.Nullable;
+
+/**
+ * Traces the calls made by a {@link Retryer}, with the timing of each attempt
+ * and of each wait between attempts, which a {@link RetryListener} doesn't get.
+ * Both {@link Retryer#call(java.util.concurrent.Callable)} and
+ * {@link Retryer#callAsync(java.util.concurrent.Callable, RetryScheduler)} are traced.
+ * <p></p>
+ * The tracer decides whether to trace a call when it starts, so a call which
+ * isn't traced costs no more than a <code>null</code> check at each step. All
+ * the times are read from the ticker of the retryer, in nanoseconds.
+ */
+@Beta
+public interface RetryTracer {
+
+    /**
+     * How a traced call ended.
+     */
+    enum CallOutcome {
+        /**
+         * An attempt returned an accepted result.
+         */
+        RESULT,
+        /**
+         * An attempt threw an accepted exception, which the call threw in turn,
+         * or a listener or a strategy threw an exception.
+         */
+        EXCEPTION,
+        /**
+         * The stop strategy decided to stop, or the asynchronous call couldn't
+         * be scheduled again.
+         */
+        GAVE_UP,
+        /**
+         * The thread was interrupted while waiting for the next attempt.
+         */
+        INTERRUPTED,
+        /**
+         * The future of the asynchronous call was cancelled.
+         */
+        CANCELLED
+    }
+
+    /**
+     * Called when a call starts.
+     *
+     * @param startTime the time the call started
+     * @return the trace of the call, or <code>null</code> if the call isn't traced
+     */
+    @Nullable
+    CallTrace startCall(long startTime);
+
+    /**
+     * The trace of a single call. Its methods are called one at a time, in order,
+     * possibly from different threads for an asynchronous call.
+     */
+    interface CallTrace {
+
+        /**
+         * Called after each attempt, before the listeners are notified.
+         *
+         * @param attempt   the attempt, which can be reused by the retryer for the next
+         *                  attempt and must be copied to be kept
+         * @param startTime the time the attempt started
+         * @param endTime   the time the attempt ended
+         */
+        void onAttempt(Attempt<?> attempt, long startTime, long endTime);
+
+        /**
+         * Called after each wait between two attempts.
+         *
+         * @param attemptNumber the number of the attempt before the wait
+         * @param sleepTime     the time the wait strategy computed, in milliseconds
+         * @param startTime     the time the wait started
+         * @param endTime       the time the wait ended
+         */
+        void onWait(long attemptNumber, long sleepTime, long startTime, long endTime);
+
+        /**
+         * Called once, when the call ends.
+         *
+         * @param outcome the way the call ended
+         * @param endTime the time the call ended
+         */
+        void onCallEnd(CallOutcome outcome, long endTime);
+    }
+}
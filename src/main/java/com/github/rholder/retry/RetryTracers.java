@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Factory class for {@link RetryTracer} instances.
+ */
+@Beta
+public final class RetryTracers {
+    private static final String FLIGHT_RECORDER_TRACER = "com.github.rholder.retry.FlightRecorderTracer";
+    private static final RetryTracer NO_TRACER = new NoTracer();
+
+    private RetryTracers() {
+    }
+
+    /**
+     * Returns a tracer emitting Java Flight Recorder events for the attempts, the
+     * waits between attempts and the calls which give up, named after the given
+     * retryer name. While no recording enables these events, which are in the
+     * "Retry" category, a call costs the tracer a few checks and no allocation.
+     * <p></p>
+     * On a JVM without the <code>jdk.jfr</code> module, which needs Java 11, or
+     * with a jar built without the events, the returned tracer never traces anything.
+     *
+     * @param name the name of the retryer, recorded in the events
+     * @return a tracer emitting flight recorder events
+     */
+    public static RetryTracer flightRecorder(@Nonnull String name) {
+        Preconditions.checkNotNull(name, "name may not be null");
+        try {
+            Constructor<?> constructor = Class.forName(FLIGHT_RECORDER_TRACER).getDeclaredConstructor(String.class);
+            constructor.setAccessible(true);
+            return (RetryTracer) constructor.newInstance(name);
+        } catch (Exception e) {
+            return NO_TRACER;
+        } catch (LinkageError e) {
+            return NO_TRACER;
+        }
+    }
+
+    /**
+     * Returns a tracer which only traces a random sample of the calls, using the
+     * given tracer. The other calls aren't seen by the given tracer at all.
+     *
+     * @param tracer      the tracer of the sampled calls
+     * @param probability the probability for a call to be traced, between 0 and 1
+     * @return a tracer sampling the calls
+     */
+    public static RetryTracer sampling(@Nonnull RetryTracer tracer, double probability) {
+        Preconditions.checkNotNull(tracer, "tracer may not be null");
+        Preconditions.checkArgument(probability >= 0.0 && probability <= 1.0,
+                "probability must be between 0 and 1 but is %s", probability);
+        return new SamplingTracer(tracer, probability);
+    }
+
+    /**
+     * Returns a tracer which traces each call with all the given tracers. Each of
+     * them decides on its own whether to trace the call.
+     *
+     * @param tracers the tracers to join
+     * @return a tracer tracing calls with all the given tracers
+     */
+    public static RetryTracer join(@Nonnull RetryTracer... tracers) {
+        Preconditions.checkNotNull(tracers, "tracers may not be null");
+        for (RetryTracer tracer : tracers) {
+            Preconditions.checkNotNull(tracer, "tracer may not be null");
+        }
+        return tracers.length == 1 ? tracers[0] : new CompositeTracer(tracers.clone());
+    }
+
+    @Immutable
+    private static final class NoTracer implements RetryTracer {
+        @Override
+        public CallTrace startCall(long startTime) {
+            return null;
+        }
+    }
+
+    @Immutable
+    private static final class SamplingTracer implements RetryTracer {
+        private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+            @Override
+            protected Random initialValue() {
+                return new Random();
+            }
+        };
+
+        private final RetryTracer tracer;
+        private final double probability;
+
+        public SamplingTracer(RetryTracer tracer, double probability) {
+            this.tracer = tracer;
+            this.probability = probability;
+        }
+
+        @Override
+        public CallTrace startCall(long startTime) {
+            return RANDOM.get().nextDouble() < probability ? tracer.startCall(startTime) : null;
+        }
+    }
+
+    @Immutable
+    private static final class CompositeTracer implements RetryTracer {
+        private final RetryTracer[] tracers;
+
+        public CompositeTracer(RetryTracer[] tracers) {
+            this.tracers = tracers;
+        }
+
+        @Override
+        public CallTrace startCall(long startTime) {
+            CallTrace first = null;
+            List<CallTrace> traces = null;
+            for (RetryTracer tracer : tracers) {
+                CallTrace trace = tracer.startCall(startTime);
+                if (trace == null) {
+                    continue;
+                }
+                if (first == null) {
+                    first = trace;
+                } else {
+                    if (traces == null) {
+                        traces = new ArrayList<CallTrace>(Arrays.asList(first));
+                    }
+                    traces.add(trace);
+                }
+            }
+            return traces == null ? first : new CompositeCallTrace(traces.toArray(new CallTrace[traces.size()]));
+        }
+    }
+
+    @Immutable
+    private static final class CompositeCallTrace implements RetryTracer.CallTrace {
+        private final RetryTracer.CallTrace[] traces;
+
+        public CompositeCallTrace(RetryTracer.CallTrace[] traces) {
+            this.traces = traces;
+        }
+
+        @Override
+        public void onAttempt(Attempt<?> attempt, long startTime, long endTime) {
+            for (RetryTracer.CallTrace trace : traces) {
+                trace.onAttempt(attempt, startTime, endTime);
+            }
+        }
+
+        @Override
+        public void onWait(long attemptNumber, long sleepTime, long startTime, long endTime) {
+            for (RetryTracer.CallTrace trace : traces) {
+                trace.onWait(attemptNumber, sleepTime, startTime, endTime);
+            }
+        }
+
+        @Override
+        public void onCallEnd(RetryTracer.CallOutcome outcome, long endTime) {
+            for (RetryTracer.CallTrace trace : traces) {
+                trace.onCallEnd(outcome, endTime);
+            }
+        }
+    }
+}
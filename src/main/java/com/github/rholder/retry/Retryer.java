@@ -19,14 +19,23 @@ package com.github.rholder.retry;
 import com.google.common.annotations.Beta;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A retryer, which executes a call, and retries it until it succeeds, or
@@ -34,22 +43,33 @@ import java.util.concurrent.TimeUnit;
  * between attempts. The strategy to decide if the call succeeds or not is
  * also configurable.
  * <p></p>
- * A retryer can also wrap the callable into a RetryerCallable, which can be submitted to an executor.
+ * A retryer can also wrap the callable into a RetryerCallable, which can be submitted to an executor,
+ * or run it asynchronously with a {@link RetryScheduler}, which doesn't block any thread between attempts.
  * <p></p>
  * Retryer instances are better constructed with a {@link RetryerBuilder}. A retryer
  * is thread-safe, provided the arguments passed to its constructor are thread-safe.
+ * The listeners are copied when the retryer is constructed; a {@link RetryListenerRegistry}
+ * can be used to add or remove listeners while the retryer is in use.
  *
  * @param <V> the type of the call return value
  * @author JB
  * @author Jason Dunkelberger (dirkraft)
  */
 public final class Retryer<V> {
+    static final long ACCEPTED = -1L;
+
     private final StopStrategy stopStrategy;
     private final WaitStrategy waitStrategy;
     private final BlockStrategy blockStrategy;
     private final AttemptTimeLimiter<V> attemptTimeLimiter;
     private final Predicate<Attempt<V>> rejectionPredicate;
-    private final Collection<RetryListener> listeners;
+    private final RetryListener[] listeners;
+    private final boolean writableStackTrace;
+    private final boolean reuseAttempt;
+    private final Ticker ticker;
+    private final RetryTracer tracer;
+    private final ContextualStopStrategy contextualStopStrategy;
+    private final ContextualWaitStrategy contextualWaitStrategy;
 
     /**
      * Constructor
@@ -122,19 +142,55 @@ public final class Retryer<V> {
                    @Nonnull BlockStrategy blockStrategy,
                    @Nonnull Predicate<Attempt<V>> rejectionPredicate,
                    @Nonnull Collection<RetryListener> listeners) {
+        this(attemptTimeLimiter, stopStrategy, waitStrategy, blockStrategy, rejectionPredicate, listeners, true, false, Ticker.systemTicker(), null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param attemptTimeLimiter to prevent from any single attempt from spinning infinitely
+     * @param stopStrategy       the strategy used to decide when the retryer must stop retrying
+     * @param waitStrategy       the strategy used to decide how much time to sleep between attempts
+     * @param blockStrategy      the strategy used to decide how to block between retry attempts; eg, Thread#sleep(), latches, etc.
+     * @param rejectionPredicate the predicate used to decide if the attempt must be rejected
+     *                           or not. If an attempt is rejected, the retryer will retry the call, unless the stop
+     *                           strategy indicates otherwise or the thread is interrupted.
+     * @param listeners          collection of retry listeners, copied so later changes to it have no effect
+     * @param writableStackTrace whether or not a stack trace is captured for a thrown {@link RetryException}
+     * @param reuseAttempt       whether or not {@link #call(Callable)} updates a single attempt in place for each call
+     * @param ticker             the source of time used to measure the delay since the first attempt
+     * @param tracer             the tracer of the calls, or null if they aren't traced
+     */
+    Retryer(@Nonnull AttemptTimeLimiter<V> attemptTimeLimiter,
+            @Nonnull StopStrategy stopStrategy,
+            @Nonnull WaitStrategy waitStrategy,
+            @Nonnull BlockStrategy blockStrategy,
+            @Nonnull Predicate<Attempt<V>> rejectionPredicate,
+            @Nonnull Collection<RetryListener> listeners,
+            boolean writableStackTrace,
+            boolean reuseAttempt,
+            @Nonnull Ticker ticker,
+            @Nullable RetryTracer tracer) {
         Preconditions.checkNotNull(attemptTimeLimiter, "timeLimiter may not be null");
         Preconditions.checkNotNull(stopStrategy, "stopStrategy may not be null");
         Preconditions.checkNotNull(waitStrategy, "waitStrategy may not be null");
         Preconditions.checkNotNull(blockStrategy, "blockStrategy may not be null");
         Preconditions.checkNotNull(rejectionPredicate, "rejectionPredicate may not be null");
         Preconditions.checkNotNull(listeners, "listeners may not null");
+        Preconditions.checkNotNull(ticker, "ticker may not be null");
 
         this.attemptTimeLimiter = attemptTimeLimiter;
         this.stopStrategy = stopStrategy;
         this.waitStrategy = waitStrategy;
         this.blockStrategy = blockStrategy;
         this.rejectionPredicate = rejectionPredicate;
-        this.listeners = listeners;
+        this.listeners = listeners.toArray(new RetryListener[listeners.size()]);
+        this.writableStackTrace = writableStackTrace;
+        this.reuseAttempt = reuseAttempt;
+        this.ticker = ticker;
+        this.tracer = tracer;
+        this.contextualStopStrategy = stopStrategy instanceof ContextualStopStrategy ? (ContextualStopStrategy) stopStrategy : null;
+        this.contextualWaitStrategy = waitStrategy instanceof ContextualWaitStrategy ? (ContextualWaitStrategy) waitStrategy : null;
     }
 
     /**
@@ -153,37 +209,162 @@ public final class Retryer<V> {
      *                            this exception is thrown and the thread's interrupt status is set.
      */
     public V call(Callable<V> callable) throws ExecutionException, RetryException {
-        long startTime = System.nanoTime();
-        for (int attemptNumber = 1; ; attemptNumber++) {
-            Attempt<V> attempt;
-            try {
-                V result = attemptTimeLimiter.call(callable);
-                attempt = new ResultAttempt<V>(result, attemptNumber, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
-            } catch (Throwable t) {
-                attempt = new ExceptionAttempt<V>(t, attemptNumber, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
-            }
-
-            for (RetryListener listener : listeners) {
-                listener.onRetry(attempt);
-            }
+        long startTime = ticker.read();
+        RetryTracer.CallTrace trace = tracer != null ? tracer.startCall(startTime) : null;
+        RetryContext context = newContext();
+        MutableAttempt<V> reusedAttempt = reuseAttempt ? new MutableAttempt<V>() : null;
+        // anything thrown without setting an outcome, an Error included, ends the trace as an exception
+        RetryTracer.CallOutcome outcome = RetryTracer.CallOutcome.EXCEPTION;
+        try {
+            for (int attemptNumber = 1; ; attemptNumber++) {
+                long attemptStartTime = trace != null ? ticker.read() : 0L;
+                Attempt<V> attempt;
+                try {
+                    V result = attemptTimeLimiter.call(callable);
+                    long delay = millisSince(startTime);
+                    attempt = reusedAttempt != null
+                            ? reusedAttempt.setResult(result, attemptNumber, delay)
+                            : new ResultAttempt<V>(result, attemptNumber, delay);
+                } catch (Throwable t) {
+                    long delay = millisSince(startTime);
+                    attempt = reusedAttempt != null
+                            ? reusedAttempt.setException(t, attemptNumber, delay)
+                            : new ExceptionAttempt<V>(t, attemptNumber, delay);
+                }
+                if (trace != null) {
+                    trace.onAttempt(attempt, attemptStartTime, ticker.read());
+                }
 
-            if (!rejectionPredicate.apply(attempt)) {
-                return attempt.get();
-            }
-            if (stopStrategy.shouldStop(attempt)) {
-                throw new RetryException(attemptNumber, attempt);
-            } else {
-                long sleepTime = waitStrategy.computeSleepTime(attempt);
+                long sleepTime;
+                try {
+                    sleepTime = nextSleepTime(attempt, context);
+                } catch (RetryException e) {
+                    outcome = RetryTracer.CallOutcome.GAVE_UP;
+                    throw e;
+                }
+                if (sleepTime == ACCEPTED) {
+                    outcome = attempt.hasResult() ? RetryTracer.CallOutcome.RESULT : RetryTracer.CallOutcome.EXCEPTION;
+                    return attempt.get();
+                }
+                long waitStartTime = trace != null ? ticker.read() : 0L;
                 try {
                     blockStrategy.block(sleepTime);
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
-                    throw new RetryException(attemptNumber, attempt);
+                    if (trace != null) {
+                        trace.onWait(attemptNumber, sleepTime, waitStartTime, ticker.read());
+                    }
+                    outcome = RetryTracer.CallOutcome.INTERRUPTED;
+                    throw newRetryException(attempt);
+                }
+                if (trace != null) {
+                    trace.onWait(attemptNumber, sleepTime, waitStartTime, ticker.read());
                 }
             }
+        } finally {
+            endTrace(trace, outcome);
         }
     }
 
+    /**
+     * Executes the given callable asynchronously, using the same rules as
+     * {@link #call(Callable)}. Each attempt is run by the given scheduler, and
+     * instead of blocking between attempts the next one is scheduled to run
+     * after the computed sleep time, so no thread is held while waiting.
+     * This makes it possible to run many long-lived pollers on a handful of
+     * threads.
+     * <p></p>
+     * The returned future fails with the same exception the callable threw if
+     * the rejection predicate considers the attempt as successful, or with a
+     * {@link RetryException} if all the attempts failed before the stop strategy
+     * decided to abort. Cancelling the future stops any further attempts.
+     *
+     * @param callable  the callable task to be executed
+     * @param scheduler the scheduler used to run each attempt
+     * @return a future holding the computed result of the given callable
+     */
+    public ListenableFuture<V> callAsync(@Nonnull Callable<V> callable, @Nonnull RetryScheduler scheduler) {
+        RetryingFuture future = newRetryingFuture(callable, scheduler);
+        future.start();
+        return future;
+    }
+
+    /**
+     * Notifies the listeners of an attempt, then applies the rejection predicate
+     * and the stop and wait strategies to it.
+     *
+     * @param attempt the attempt which has just been made
+     * @param context the state of the call, or null if the strategies don't need one
+     * @return {@link #ACCEPTED} if the attempt was accepted, otherwise the time to sleep
+     *         before the next attempt, which is never negative
+     * @throws RetryException if the attempt was rejected and the stop strategy decided to stop
+     */
+    long nextSleepTime(Attempt<V> attempt, RetryContext context) throws RetryException {
+        for (RetryListener listener : listeners) {
+            listener.onRetry(attempt);
+        }
+
+        if (!rejectionPredicate.apply(attempt)) {
+            return ACCEPTED;
+        }
+        if (context == null) {
+            if (stopStrategy.shouldStop(attempt)) {
+                throw newRetryException(attempt);
+            }
+            return Math.max(0L, waitStrategy.computeSleepTime(attempt));
+        }
+
+        context.onAttempt(attempt);
+        boolean stop = contextualStopStrategy != null
+                ? contextualStopStrategy.shouldStop(attempt, context)
+                : stopStrategy.shouldStop(attempt);
+        if (stop) {
+            throw newRetryException(attempt);
+        }
+        long sleepTime = Math.max(0L, contextualWaitStrategy != null
+                ? contextualWaitStrategy.computeSleepTime(attempt, context)
+                : waitStrategy.computeSleepTime(attempt));
+        context.onSleep(sleepTime);
+        return sleepTime;
+    }
+
+    private void endTrace(RetryTracer.CallTrace trace, RetryTracer.CallOutcome outcome) {
+        if (trace != null) {
+            trace.onCallEnd(outcome, ticker.read());
+        }
+    }
+
+    Ticker getTicker() {
+        return ticker;
+    }
+
+    long readTicker() {
+        return ticker.read();
+    }
+
+    long millisSince(long startTime) {
+        return TimeUnit.NANOSECONDS.toMillis(ticker.read() - startTime);
+    }
+
+    /**
+     * Returns a new context for a call, or null if neither the stop strategy
+     * nor the wait strategy is contextual, so that calls which don't need one
+     * don't pay for it.
+     */
+    RetryContext newContext() {
+        return contextualStopStrategy != null || contextualWaitStrategy != null ? new RetryContext() : null;
+    }
+
+    RetryException newRetryException(Attempt<V> lastFailedAttempt) {
+        return new RetryException((int) lastFailedAttempt.getAttemptNumber(), Attempts.copyOf(lastFailedAttempt), writableStackTrace);
+    }
+
+    RetryingFuture newRetryingFuture(@Nonnull Callable<V> callable, @Nonnull RetryScheduler scheduler) {
+        Preconditions.checkNotNull(callable, "callable may not be null");
+        Preconditions.checkNotNull(scheduler, "scheduler may not be null");
+        return new RetryingFuture(callable, scheduler);
+    }
+
     /**
      * Wraps the given {@link Callable} in a {@link RetryerCallable}, which can
      * be submitted to an executor. The returned {@link RetryerCallable} uses
@@ -196,6 +377,140 @@ public final class Retryer<V> {
         return new RetryerCallable<V>(this, callable);
     }
 
+    /**
+     * A future which runs one attempt each time it is run by its scheduler,
+     * and schedules itself again until an attempt is accepted or the stop
+     * strategy decides to stop.
+     */
+    final class RetryingFuture extends AbstractFuture<V> implements RejectableRunnable {
+        private final Callable<V> callable;
+        private final RetryScheduler scheduler;
+        private final RetryContext context = newContext();
+        private long startTime;
+        private int attemptNumber;
+        private volatile Attempt<V> lastAttempt;
+        private RetryTracer.CallTrace trace;
+        private final AtomicBoolean traceEnded = new AtomicBoolean();
+        private long waitStartTime;
+        private long sleepTime;
+        private final Object nextAttemptLock = new Object();
+        private volatile Future<?> nextAttempt;
+        @GuardedBy("nextAttemptLock")
+        private int nextAttemptScheduledAfter = -1;
+
+        private RetryingFuture(Callable<V> callable, RetryScheduler scheduler) {
+            this.callable = callable;
+            this.scheduler = scheduler;
+        }
+
+        void start() {
+            startTime = ticker.read();
+            trace = tracer != null ? tracer.startCall(startTime) : null;
+            scheduleNext(null, 0L);
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                endTrace(RetryTracer.CallOutcome.CANCELLED);
+                return;
+            }
+            long attemptStartTime = 0L;
+            if (trace != null) {
+                attemptStartTime = ticker.read();
+                if (attemptNumber > 0) {
+                    trace.onWait(attemptNumber, sleepTime, waitStartTime, attemptStartTime);
+                }
+            }
+            attemptNumber++;
+            Attempt<V> attempt;
+            try {
+                V result = attemptTimeLimiter.call(callable);
+                attempt = new ResultAttempt<V>(result, attemptNumber, millisSince(startTime));
+            } catch (Throwable t) {
+                attempt = new ExceptionAttempt<V>(t, attemptNumber, millisSince(startTime));
+            }
+            if (trace != null) {
+                trace.onAttempt(attempt, attemptStartTime, ticker.read());
+            }
+
+            try {
+                long sleepTime = nextSleepTime(attempt, context);
+                if (sleepTime != ACCEPTED) {
+                    scheduleNext(attempt, sleepTime);
+                } else if (attempt.hasResult()) {
+                    endTrace(RetryTracer.CallOutcome.RESULT);
+                    set(attempt.getResult());
+                } else {
+                    endTrace(RetryTracer.CallOutcome.EXCEPTION);
+                    setException(attempt.getExceptionCause());
+                }
+            } catch (Throwable t) {
+                endTrace(t instanceof RetryException ? RetryTracer.CallOutcome.GAVE_UP : RetryTracer.CallOutcome.EXCEPTION);
+                setException(t);
+            }
+        }
+
+        private void scheduleNext(Attempt<V> lastAttempt, long sleepTime) {
+            this.lastAttempt = lastAttempt;
+            if (trace != null) {
+                this.sleepTime = sleepTime;
+                this.waitStartTime = ticker.read();
+            }
+            try {
+                if (scheduler instanceof CancellableRetryScheduler) {
+                    int scheduledAfter = attemptNumber;
+                    Future<?> task = ((CancellableRetryScheduler) scheduler).scheduleCancellable(this, sleepTime);
+                    // the task may already have run and scheduled the next one, whose handle must not be replaced
+                    synchronized (nextAttemptLock) {
+                        if (scheduledAfter > nextAttemptScheduledAfter) {
+                            nextAttemptScheduledAfter = scheduledAfter;
+                            nextAttempt = task;
+                        }
+                    }
+                    // cancel() may have run before nextAttempt was set
+                    if (isDone() && task.cancel(false)) {
+                        endTrace(RetryTracer.CallOutcome.CANCELLED);
+                    }
+                } else {
+                    scheduler.schedule(this, sleepTime);
+                }
+            } catch (RejectedExecutionException e) {
+                reject(e);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (!super.cancel(mayInterruptIfRunning)) {
+                return false;
+            }
+            // an attempt which will never run can't end the trace, so it is ended here
+            Future<?> task = nextAttempt;
+            if (task != null && task.cancel(false)) {
+                endTrace(RetryTracer.CallOutcome.CANCELLED);
+            }
+            return true;
+        }
+
+        /**
+         * Ends the trace of the call, once whichever of the attempts, the scheduler
+         * and cancel() gets there first.
+         */
+        private void endTrace(RetryTracer.CallOutcome outcome) {
+            if (traceEnded.compareAndSet(false, true)) {
+                Retryer.this.endTrace(trace, outcome);
+            }
+        }
+
+        @Override
+        public void reject(RejectedExecutionException cause) {
+            Attempt<V> attempt = lastAttempt;
+            endTrace(isCancelled() ? RetryTracer.CallOutcome.CANCELLED : RetryTracer.CallOutcome.GAVE_UP);
+            setException(attempt == null ? cause : newRetryException(attempt));
+        }
+    }
+
     @Immutable
     static final class ResultAttempt<R> implements Attempt<R> {
         private final R result;
@@ -292,6 +607,79 @@ public final class Retryer<V> {
         }
     }
 
+    /**
+     * An attempt updated in place for each new attempt of a call, so that
+     * retrying doesn't allocate anything. It must be copied with
+     * {@link Attempts#copyOf(Attempt)} to be kept after it was handed over.
+     */
+    @NotThreadSafe
+    static final class MutableAttempt<R> implements Attempt<R> {
+        private R result;
+        private Throwable cause;
+        private long attemptNumber;
+        private long delaySinceFirstAttempt;
+
+        MutableAttempt<R> setResult(R result, long attemptNumber, long delaySinceFirstAttempt) {
+            this.result = result;
+            this.cause = null;
+            this.attemptNumber = attemptNumber;
+            this.delaySinceFirstAttempt = delaySinceFirstAttempt;
+            return this;
+        }
+
+        MutableAttempt<R> setException(Throwable cause, long attemptNumber, long delaySinceFirstAttempt) {
+            this.result = null;
+            this.cause = cause;
+            this.attemptNumber = attemptNumber;
+            this.delaySinceFirstAttempt = delaySinceFirstAttempt;
+            return this;
+        }
+
+        @Override
+        public R get() throws ExecutionException {
+            if (cause != null) {
+                throw new ExecutionException(cause);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean hasResult() {
+            return cause == null;
+        }
+
+        @Override
+        public boolean hasException() {
+            return cause != null;
+        }
+
+        @Override
+        public R getResult() throws IllegalStateException {
+            if (cause != null) {
+                throw new IllegalStateException("The attempt resulted in an exception, not in a result");
+            }
+            return result;
+        }
+
+        @Override
+        public Throwable getExceptionCause() throws IllegalStateException {
+            if (cause == null) {
+                throw new IllegalStateException("The attempt resulted in a result, not in an exception");
+            }
+            return cause;
+        }
+
+        @Override
+        public long getAttemptNumber() {
+            return attemptNumber;
+        }
+
+        @Override
+        public long getDelaySinceFirstAttempt() {
+            return delaySinceFirstAttempt;
+        }
+    }
+
     /**
      * A {@link Callable} which wraps another {@link Callable} in order to add
      * retrying behavior from a given {@link Retryer} instance.
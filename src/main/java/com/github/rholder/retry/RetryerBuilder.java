@@ -19,6 +19,7 @@ package com.github.rholder.retry;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.base.Ticker;
 
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
@@ -38,6 +39,10 @@ public class RetryerBuilder<V> {
     private BlockStrategy blockStrategy;
     private Predicate<Attempt<V>> rejectionPredicate = Predicates.alwaysFalse();
     private List<RetryListener> listeners = new ArrayList<RetryListener>();
+    private List<RetryTracer> tracers = new ArrayList<RetryTracer>();
+    private boolean writableStackTrace = true;
+    private boolean reuseAttempt;
+    private Ticker ticker = Ticker.systemTicker();
 
     private RetryerBuilder() {
     }
@@ -64,6 +69,19 @@ public class RetryerBuilder<V> {
         return this;
     }
 
+    /**
+     * Adds a tracer that will be given the timing of each attempt and of each wait
+     * between attempts of the calls it decides to trace
+     *
+     * @param tracer Tracer to add
+     * @return <code>this</code>
+     */
+    public RetryerBuilder<V> withRetryTracer(@Nonnull RetryTracer tracer) {
+        Preconditions.checkNotNull(tracer, "tracer may not be null");
+        tracers.add(tracer);
+        return this;
+    }
+
     /**
      * Sets the wait strategy used to decide how long to sleep between failed attempts.
      * The default strategy is to retry immediately after a failed attempt.
@@ -121,6 +139,48 @@ public class RetryerBuilder<V> {
         return this;
     }
 
+    /**
+     * Sets the ticker used to measure the delay since the first attempt, which
+     * {@link Attempt#getDelaySinceFirstAttempt()} and time-based stop strategies rely on.
+     * The default is {@link Ticker#systemTicker()}. A {@link VirtualTicker} along with
+     * {@link BlockStrategies#virtualTimeStrategy(VirtualTicker)} makes the retryer run
+     * its whole schedule without sleeping.
+     *
+     * @param ticker the ticker used to measure time
+     * @return <code>this</code>
+     */
+    public RetryerBuilder<V> withTicker(@Nonnull Ticker ticker) {
+        Preconditions.checkNotNull(ticker, "ticker may not be null");
+        this.ticker = ticker;
+        return this;
+    }
+
+    /**
+     * Configures the retryer to throw a {@link RetryException} without capturing its stack trace
+     * when it gives up. The number of failed attempts and the last failed attempt are still
+     * available. This is useful when giving up is routine, such as when polling for a result.
+     *
+     * @return <code>this</code>
+     */
+    public RetryerBuilder<V> withStacklessRetryException() {
+        this.writableStackTrace = false;
+        return this;
+    }
+
+    /**
+     * Configures the retryer to update a single {@link Attempt} in place for each new attempt of
+     * a synchronous call, instead of creating a new one, so that a call retried many times
+     * doesn't create any garbage. Listeners and strategies must then not keep the attempt they
+     * are given past their own method, and use {@link Attempts#copyOf(Attempt)} to keep it.
+     * The last failed attempt held by a {@link RetryException} is always a copy.
+     *
+     * @return <code>this</code>
+     */
+    public RetryerBuilder<V> withReusedAttempt() {
+        this.reuseAttempt = true;
+        return this;
+    }
+
     /**
      * Configures the retryer to retry if an exception (i.e. any <code>Exception</code> or subclass
      * of <code>Exception</code>) is thrown by the call.
@@ -192,8 +252,9 @@ public class RetryerBuilder<V> {
         StopStrategy theStopStrategy = stopStrategy == null ? StopStrategies.neverStop() : stopStrategy;
         WaitStrategy theWaitStrategy = waitStrategy == null ? WaitStrategies.noWait() : waitStrategy;
         BlockStrategy theBlockStrategy = blockStrategy == null ? BlockStrategies.threadSleepStrategy() : blockStrategy;
+        RetryTracer theTracer = tracers.isEmpty() ? null : RetryTracers.join(tracers.toArray(new RetryTracer[tracers.size()]));
 
-        return new Retryer<V>(theAttemptTimeLimiter, theStopStrategy, theWaitStrategy, theBlockStrategy, rejectionPredicate, listeners);
+        return new Retryer<V>(theAttemptTimeLimiter, theStopStrategy, theWaitStrategy, theBlockStrategy, rejectionPredicate, listeners, writableStackTrace, reuseAttempt, ticker, theTracer);
     }
 
     private static final class ExceptionClassPredicate<V> implements Predicate<Attempt<V>> {
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * A registry of named retryers, built once from the policies defined in a
+ * properties file rather than for every call. Each property is named after a
+ * policy and one of its settings, which are the same as those of {@link Retrying},
+ * plus an optional time limit for each attempt:
+ * <pre>
+ * payments.maxAttempts=5
+ * payments.waitType=EXPONENTIAL
+ * payments.waitTime=100
+ * payments.maxWaitTime=5000
+ * payments.timeUnit=MILLISECONDS
+ * payments.retryOn=java.io.IOException,java.util.concurrent.TimeoutException
+ * payments.timeLimit=2000
+ * </pre>
+ * The settings left out have the defaults of {@link Retrying}, and attempts
+ * have no time limit by default.
+ * <p></p>
+ * The file can be reloaded while the registry is in use, by hand or by watching
+ * it for changes. All the policies are swapped at once, and only if the whole
+ * file is valid. The retryer of a policy which didn't change is kept as is.
+ * Looking up a retryer is a single volatile read and a map lookup.
+ */
+@Beta
+@ThreadSafe
+public final class RetryerRegistry {
+
+    private static final String MAX_ATTEMPTS = "maxAttempts";
+    private static final String WAIT_TYPE = "waitType";
+    private static final String WAIT_TIME = "waitTime";
+    private static final String MAX_WAIT_TIME = "maxWaitTime";
+    private static final String TIME_UNIT = "timeUnit";
+    private static final String RETRY_ON = "retryOn";
+    private static final String TIME_LIMIT = "timeLimit";
+
+    private final File file;
+    private final ExecutorService timeLimitExecutor;
+    private final AtomicLong reloadFailures = new AtomicLong();
+    private volatile Map<String, Entry> entries = Collections.emptyMap();
+    // checksums of the content last loaded, and of the content last found invalid by watch()
+    private long loadedChecksum;
+    private long failedChecksum = -1L;
+
+    /**
+     * Constructor. The policies of the file can't have a time limit.
+     *
+     * @param file the properties file defining the policies
+     * @throws IOException              if the file can't be read
+     * @throws IllegalArgumentException if the file isn't valid
+     */
+    public RetryerRegistry(@Nonnull File file) throws IOException {
+        this(file, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param file              the properties file defining the policies
+     * @param timeLimitExecutor the executor running the attempts of the policies with a time limit,
+     *                          shared by all of them
+     * @throws IOException              if the file can't be read
+     * @throws IllegalArgumentException if the file isn't valid
+     */
+    public RetryerRegistry(@Nonnull File file, @Nullable ExecutorService timeLimitExecutor) throws IOException {
+        Preconditions.checkNotNull(file, "file may not be null");
+        this.file = file;
+        this.timeLimitExecutor = timeLimitExecutor;
+        reload();
+    }
+
+    /**
+     * Returns the retryer of the given policy. The retryers only look at the exceptions
+     * thrown by the calls, so they can be used for calls of any type.
+     *
+     * @param name the name of the policy
+     * @param <V>  the type of the call return value
+     * @return the retryer of the policy
+     * @throws IllegalArgumentException if there is no such policy
+     */
+    @SuppressWarnings("unchecked")
+    public <V> Retryer<V> get(@Nonnull String name) {
+        Entry entry = entries.get(name);
+        Preconditions.checkArgument(entry != null, "no retry policy named %s", name);
+        return (Retryer<V>) entry.retryer;
+    }
+
+    /**
+     * @return the names of the policies, sorted
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(new TreeSet<String>(entries.keySet()));
+    }
+
+    /**
+     * Reads the file again and swaps in its policies.
+     *
+     * @throws IOException              if the file can't be read, in which case the policies are unchanged
+     * @throws IllegalArgumentException if the file isn't valid, in which case the policies are unchanged
+     */
+    public synchronized void reload() throws IOException {
+        byte[] content = Files.toByteArray(file);
+        load(content, checksum(content));
+    }
+
+    private void load(byte[] content, long checksum) throws IOException {
+        Properties properties = new Properties();
+        properties.load(new ByteArrayInputStream(content));
+
+        Map<String, Entry> previous = entries;
+        Map<String, Entry> next = new HashMap<String, Entry>();
+        for (Map.Entry<String, RetryPolicy> policy : parse(properties).entrySet()) {
+            Entry entry = previous.get(policy.getKey());
+            if (entry == null || !entry.policy.equals(policy.getValue())) {
+                Preconditions.checkArgument(!policy.getValue().hasTimeLimit() || timeLimitExecutor != null,
+                        "retry policy %s has a time limit but the registry has no executor for it", policy.getKey());
+                entry = new Entry(policy.getValue(), policy.getValue().newRetryer(timeLimitExecutor));
+            }
+            next.put(policy.getKey(), entry);
+        }
+        entries = next;
+        loadedChecksum = checksum;
+    }
+
+    private static long checksum(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+        return crc.getValue();
+    }
+
+    /**
+     * Reloads the file if its content changed since it was last loaded, as told
+     * by a checksum of the content. Unlike the modification time, the checksum
+     * catches an edit which keeps the length of the file within the resolution
+     * of the file system's clock.
+     *
+     * @return <code>true</code> if the file was reloaded, <code>false</code> otherwise
+     * @throws IOException              if the file can't be read, in which case the policies are unchanged
+     * @throws IllegalArgumentException if the file isn't valid, in which case the policies are unchanged
+     */
+    public synchronized boolean reloadIfModified() throws IOException {
+        byte[] content = Files.toByteArray(file);
+        long checksum = checksum(content);
+        if (checksum == loadedChecksum) {
+            return false;
+        }
+        load(content, checksum);
+        return true;
+    }
+
+    /**
+     * Checks the file for changes at a fixed rate, and reloads it when it changed.
+     * An invalid file is counted as a failure and then ignored until it changes again.
+     *
+     * @param executor the executor checking the file
+     * @param period   the time between two checks
+     * @param timeUnit the unit of the period
+     * @return the future of the checks, to be cancelled to stop watching the file
+     */
+    public ScheduledFuture<?> watch(@Nonnull ScheduledExecutorService executor, long period, @Nonnull TimeUnit timeUnit) {
+        Preconditions.checkNotNull(executor, "executor may not be null");
+        Preconditions.checkArgument(period > 0L, "period must be > 0 but is %s", period);
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        return executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkForChanges();
+            }
+        }, period, period, timeUnit);
+    }
+
+    private synchronized void checkForChanges() {
+        long checksum = -1L;
+        try {
+            byte[] content = Files.toByteArray(file);
+            checksum = checksum(content);
+            if (checksum != loadedChecksum && checksum != failedChecksum) {
+                load(content, checksum);
+            }
+        } catch (Exception e) {
+            // the loaded checksum is kept, so the file is loaded as soon as its content changes again
+            reloadFailures.incrementAndGet();
+            failedChecksum = checksum;
+        }
+    }
+
+    /**
+     * @return the number of times watching the file found it changed but couldn't reload it
+     */
+    public long getReloadFailureCount() {
+        return reloadFailures.get();
+    }
+
+    private static Map<String, RetryPolicy> parse(Properties properties) {
+        Map<String, Map<String, String>> settings = new HashMap<String, Map<String, String>>();
+        for (String key : properties.stringPropertyNames()) {
+            int dot = key.lastIndexOf('.');
+            Preconditions.checkArgument(dot > 0 && dot < key.length() - 1, "invalid retry policy property %s", key);
+            String name = key.substring(0, dot);
+            Map<String, String> policySettings = settings.get(name);
+            if (policySettings == null) {
+                policySettings = new HashMap<String, String>();
+                settings.put(name, policySettings);
+            }
+            policySettings.put(key.substring(dot + 1), properties.getProperty(key).trim());
+        }
+
+        Map<String, RetryPolicy> policies = new HashMap<String, RetryPolicy>();
+        for (Map.Entry<String, Map<String, String>> policySettings : settings.entrySet()) {
+            try {
+                policies.put(policySettings.getKey(), parsePolicy(policySettings.getValue()));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("invalid retry policy " + policySettings.getKey() + ": " + e.getMessage(), e);
+            }
+        }
+        return policies;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RetryPolicy parsePolicy(Map<String, String> settings) {
+        int maxAttempts = 3;
+        Retrying.WaitType waitType = Retrying.WaitType.FIXED;
+        long waitTime = 0L;
+        long maxWaitTime = Long.MAX_VALUE;
+        long timeLimit = RetryPolicy.NO_TIME_LIMIT;
+        TimeUnit timeUnit = TimeUnit.MILLISECONDS;
+        Class<? extends Throwable>[] retryOn = (Class<? extends Throwable>[]) new Class<?>[]{Exception.class};
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            String value = setting.getValue();
+            if (MAX_ATTEMPTS.equals(setting.getKey())) {
+                maxAttempts = Integer.parseInt(value);
+            } else if (WAIT_TYPE.equals(setting.getKey())) {
+                waitType = Retrying.WaitType.valueOf(value);
+            } else if (WAIT_TIME.equals(setting.getKey())) {
+                waitTime = Long.parseLong(value);
+            } else if (MAX_WAIT_TIME.equals(setting.getKey())) {
+                maxWaitTime = Long.parseLong(value);
+            } else if (TIME_UNIT.equals(setting.getKey())) {
+                timeUnit = TimeUnit.valueOf(value);
+            } else if (RETRY_ON.equals(setting.getKey())) {
+                retryOn = exceptionClasses(value);
+            } else if (TIME_LIMIT.equals(setting.getKey())) {
+                timeLimit = Long.parseLong(value);
+            } else {
+                throw new IllegalArgumentException("unknown setting " + setting.getKey());
+            }
+        }
+        return new RetryPolicy(maxAttempts, waitType, waitTime, maxWaitTime, timeLimit, timeUnit, retryOn);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Throwable>[] exceptionClasses(String names) {
+        String[] classNames = names.split(",");
+        Class<? extends Throwable>[] classes = (Class<? extends Throwable>[]) new Class<?>[classNames.length];
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null) {
+            classLoader = RetryerRegistry.class.getClassLoader();
+        }
+        for (int i = 0; i < classNames.length; i++) {
+            Class<?> c;
+            try {
+                c = Class.forName(classNames[i].trim(), false, classLoader);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("unknown class " + classNames[i].trim(), e);
+            }
+            Preconditions.checkArgument(Throwable.class.isAssignableFrom(c), "%s is not an exception", c.getName());
+            classes[i] = (Class<? extends Throwable>) c;
+        }
+        return classes;
+    }
+
+    @Immutable
+    private static final class Entry {
+        final RetryPolicy policy;
+        final Retryer<Object> retryer;
+
+        Entry(RetryPolicy policy, Retryer<Object> retryer) {
+            this.policy = policy;
+            this.retryer = retryer;
+        }
+    }
+}
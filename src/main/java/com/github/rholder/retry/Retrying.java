@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marks a method of an interface, or all the methods of an interface, as
+ * retried by the proxies created with {@link RetryProxies#newProxy(Class, Object)}.
+ * An annotation on a method takes precedence over the one on its interface.
+ * Only exceptions are retried, and the time unit applies to both the wait
+ * time and the maximum wait time.
+ */
+@Beta
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Retrying {
+
+    /**
+     * How the time to wait between attempts is computed.
+     */
+    enum WaitType {
+        /**
+         * Always wait for the wait time, as {@link WaitStrategies#fixedWait(long, TimeUnit)}.
+         */
+        FIXED,
+        /**
+         * Wait for the wait time and add it again after each failed attempt, as
+         * {@link WaitStrategies#incrementingWait(long, TimeUnit, long, TimeUnit)}.
+         */
+        INCREMENTING,
+        /**
+         * Wait for exponentially increasing multiples of the wait time, up to the maximum
+         * wait time, as {@link WaitStrategies#exponentialWait(long, long, TimeUnit)}.
+         */
+        EXPONENTIAL,
+        /**
+         * Wait for Fibonacci multiples of the wait time, up to the maximum wait time, as
+         * {@link WaitStrategies#fibonacciWait(long, long, TimeUnit)}.
+         */
+        FIBONACCI,
+        /**
+         * Wait for a random time between the wait time and three times the previous wait,
+         * up to the maximum wait time, as
+         * {@link WaitStrategies#decorrelatedJitterWait(long, TimeUnit, long, TimeUnit)}.
+         */
+        DECORRELATED_JITTER
+    }
+
+    /**
+     * @return the maximum number of attempts, including the first one
+     */
+    int maxAttempts() default 3;
+
+    /**
+     * @return how the time to wait between attempts is computed
+     */
+    WaitType waitType() default WaitType.FIXED;
+
+    /**
+     * @return the base time to wait between attempts
+     */
+    long waitTime() default 0L;
+
+    /**
+     * @return the maximum time to wait between attempts, ignored by the fixed and incrementing wait types
+     */
+    long maxWaitTime() default Long.MAX_VALUE;
+
+    /**
+     * @return the unit of the wait time and the maximum wait time
+     */
+    TimeUnit timeUnit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * @return the exceptions which cause a retry, subclasses included
+     */
+    Class<? extends Throwable>[] retryOn() default Exception.class;
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts successes and failures over a sliding window of time, split into a
+ * fixed number of buckets. Each bucket holds the counts of one slice of the
+ * window and is reset when it is reused for a later slice, so recording an
+ * outcome never locks or allocates.
+ * <p></p>
+ * A few outcomes may be lost when a bucket is reset while other threads are
+ * recording into it; the counts are meant to drive decisions, not accounting.
+ */
+@ThreadSafe
+final class SlidingWindowCounter {
+    private static final int EPOCH = 0;
+    private static final int SUCCESSES = 1;
+    private static final int FAILURES = 2;
+    private static final int FIELDS = 3;
+
+    private final Ticker ticker;
+    private final long startTime;
+    private final int bucketCount;
+    private final long bucketNanos;
+    private final AtomicLongArray buckets;
+
+    SlidingWindowCounter(long window, TimeUnit timeUnit, int bucketCount, Ticker ticker) {
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        Preconditions.checkNotNull(ticker, "ticker may not be null");
+        Preconditions.checkArgument(bucketCount > 0, "bucketCount must be > 0 but is %s", bucketCount);
+        Preconditions.checkArgument(timeUnit.toNanos(window) >= bucketCount,
+                "window must be at least %s nanoseconds but is %s %s", bucketCount, window, timeUnit);
+        this.ticker = ticker;
+        this.startTime = ticker.read();
+        this.bucketCount = bucketCount;
+        this.bucketNanos = timeUnit.toNanos(window) / bucketCount;
+        this.buckets = new AtomicLongArray(bucketCount * FIELDS);
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.set(i * FIELDS + EPOCH, -1L);
+        }
+    }
+
+    /**
+     * Returns the number of the current slice of time, which only ever grows.
+     */
+    long currentEpoch() {
+        return (ticker.read() - startTime) / bucketNanos;
+    }
+
+    /**
+     * Records an outcome in the bucket of the current slice of time.
+     *
+     * @param success whether the outcome is a success or a failure
+     * @return the number of the slice the outcome was recorded in
+     */
+    long record(boolean success) {
+        long epoch = currentEpoch();
+        int base = bucketIndex(epoch);
+        long bucketEpoch = buckets.get(base + EPOCH);
+        if (bucketEpoch < epoch && buckets.compareAndSet(base + EPOCH, bucketEpoch, epoch)) {
+            buckets.set(base + SUCCESSES, 0L);
+            buckets.set(base + FAILURES, 0L);
+        }
+        buckets.incrementAndGet(base + (success ? SUCCESSES : FAILURES));
+        return epoch;
+    }
+
+    /**
+     * Returns the number of successes recorded in the complete slices of the
+     * window ending just before the given one.
+     */
+    long successesBefore(long epoch) {
+        return sumBefore(epoch, SUCCESSES);
+    }
+
+    /**
+     * Returns the number of failures recorded in the complete slices of the
+     * window ending just before the given one.
+     */
+    long failuresBefore(long epoch) {
+        return sumBefore(epoch, FAILURES);
+    }
+
+    private long sumBefore(long epoch, int field) {
+        long sum = 0L;
+        for (int i = 0; i < bucketCount; i++) {
+            int base = i * FIELDS;
+            long bucketEpoch = buckets.get(base + EPOCH);
+            if (bucketEpoch < epoch && bucketEpoch >= epoch - bucketCount) {
+                sum += buckets.get(base + field);
+            }
+        }
+        return sum;
+    }
+
+    private int bucketIndex(long epoch) {
+        return (int) (epoch % bucketCount) * FIELDS;
+    }
+}
@@ -16,12 +16,18 @@
 
 package com.github.rholder.retry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 
 /**
  * Factory class for {@link StopStrategy} instances.
@@ -31,6 +37,29 @@ import com.google.common.base.Preconditions;
 public final class StopStrategies {
     private static final StopStrategy NEVER_STOP = new NeverStopStrategy();
 
+    /**
+     * Orders stop strategies from the cheapest to check to the most expensive:
+     * comparing the attempt number, then looking at the exception, then
+     * comparing the delay, then anything else, whose cost is unknown.
+     */
+    private static final Comparator<StopStrategy> COST_ORDER = new Comparator<StopStrategy>() {
+        @Override
+        public int compare(StopStrategy left, StopStrategy right) {
+            return cost(left) - cost(right);
+        }
+
+        private int cost(StopStrategy stopStrategy) {
+            if (stopStrategy instanceof StopAfterAttemptStrategy) {
+                return 0;
+            } else if (stopStrategy instanceof StopOnExceptionStrategy) {
+                return 1;
+            } else if (stopStrategy instanceof StopAfterDelayStrategy) {
+                return 2;
+            }
+            return 3;
+        }
+    };
+
     private StopStrategies() {
     }
 
@@ -87,6 +116,125 @@ public final class StopStrategies {
         return new StopAfterDelayStrategy(timeUnit.toMillis(duration));
     }
 
+    /**
+     * Returns a stop strategy which stops once N attempts of the same call have
+     * thrown an exception, however many attempts were rejected because of their
+     * result. This suits polling, where an unwanted result is routine but
+     * errors are not. Without a {@link RetryContext}, every failed attempt is
+     * counted as having thrown an exception.
+     *
+     * @param exceptionCount the number of attempts which threw an exception before stopping
+     * @return a stop strategy which stops after {@code exceptionCount} exceptions
+     */
+    public static StopStrategy stopAfterExceptions(int exceptionCount) {
+        return new StopAfterExceptionsStrategy(exceptionCount);
+    }
+
+    /**
+     * Returns a stop strategy which stops as soon as an attempt throws an
+     * exception of the given class (or of a subclass of it), for errors which
+     * retrying can't fix.
+     *
+     * @param exceptionClass the type of the exception which should stop retrying
+     * @return a stop strategy which stops on an exception of the given type
+     */
+    public static StopStrategy stopIfExceptionOfType(@Nonnull Class<? extends Throwable> exceptionClass) {
+        Preconditions.checkNotNull(exceptionClass, "exceptionClass may not be null");
+        return new StopOnExceptionStrategy(new ExceptionClassPredicate(exceptionClass));
+    }
+
+    /**
+     * Returns a stop strategy which stops as soon as an attempt throws an
+     * exception satisfying the given predicate.
+     *
+     * @param exceptionPredicate the predicate which stops retrying if satisfied
+     * @return a stop strategy which stops on an exception satisfying the predicate
+     */
+    public static StopStrategy stopIfException(@Nonnull Predicate<Throwable> exceptionPredicate) {
+        Preconditions.checkNotNull(exceptionPredicate, "exceptionPredicate may not be null");
+        return new StopOnExceptionStrategy(exceptionPredicate);
+    }
+
+    /**
+     * Returns a stop strategy which stops as soon as any of the given
+     * strategies would stop. The strategies are flattened into a single one:
+     * strategies which are themselves combined with {@code any} are merged in,
+     * {@link #neverStop()} is left out, and the strategies based on the
+     * attempt number are merged into one. They are then checked cheapest
+     * first, and the checks stop at the first strategy deciding to stop.
+     *
+     * @param stopStrategies the strategies to combine
+     * @return a stop strategy which stops when any of the given ones stops
+     */
+    public static StopStrategy any(@Nonnull StopStrategy... stopStrategies) {
+        return combine(true, stopStrategies);
+    }
+
+    /**
+     * Returns a stop strategy which stops only once all of the given strategies
+     * would stop, such as to stop after at least 3 attempts <em>and</em> 10
+     * seconds. The strategies are flattened into a single one the same way as
+     * by {@link #any(StopStrategy...)}, except that a {@link #neverStop()}
+     * makes the combined strategy never stop, and the checks stop at the first
+     * strategy deciding not to stop.
+     *
+     * @param stopStrategies the strategies to combine
+     * @return a stop strategy which stops when all of the given ones stop
+     */
+    public static StopStrategy all(@Nonnull StopStrategy... stopStrategies) {
+        return combine(false, stopStrategies);
+    }
+
+    private static StopStrategy combine(boolean any, StopStrategy[] stopStrategies) {
+        Preconditions.checkNotNull(stopStrategies, "stopStrategies may not be null");
+        Preconditions.checkArgument(stopStrategies.length > 0, "Must have at least one stop strategy");
+        List<StopStrategy> flattened = new ArrayList<StopStrategy>();
+        int maxAttemptNumber = -1;
+        for (StopStrategy stopStrategy : flatten(any, Arrays.asList(stopStrategies))) {
+            if (stopStrategy instanceof NeverStopStrategy) {
+                if (!any) {
+                    return NEVER_STOP;
+                }
+            } else if (stopStrategy instanceof StopAfterAttemptStrategy) {
+                int attemptNumber = ((StopAfterAttemptStrategy) stopStrategy).maxAttemptNumber;
+                maxAttemptNumber = maxAttemptNumber < 0 ? attemptNumber
+                        : any ? Math.min(maxAttemptNumber, attemptNumber) : Math.max(maxAttemptNumber, attemptNumber);
+            } else {
+                flattened.add(stopStrategy);
+            }
+        }
+        if (maxAttemptNumber > 0) {
+            flattened.add(new StopAfterAttemptStrategy(maxAttemptNumber));
+        }
+        if (flattened.isEmpty()) {
+            return NEVER_STOP;
+        }
+        if (flattened.size() == 1) {
+            return flattened.get(0);
+        }
+        Collections.sort(flattened, COST_ORDER);
+        StopStrategy[] array = flattened.toArray(new StopStrategy[flattened.size()]);
+        for (StopStrategy stopStrategy : array) {
+            if (stopStrategy instanceof ContextualStopStrategy) {
+                return new ContextualCompositeStopStrategy(any, array);
+            }
+        }
+        return new CompositeStopStrategy(any, array);
+    }
+
+    private static List<StopStrategy> flatten(boolean any, List<StopStrategy> stopStrategies) {
+        List<StopStrategy> flattened = new ArrayList<StopStrategy>();
+        for (StopStrategy stopStrategy : stopStrategies) {
+            Preconditions.checkNotNull(stopStrategy, "Cannot have a null stop strategy");
+            if (stopStrategy instanceof CompositeStopStrategy && ((CompositeStopStrategy) stopStrategy).any == any) {
+                flattened.addAll(Arrays.asList(((CompositeStopStrategy) stopStrategy).stopStrategies));
+            } else {
+                flattened.add(stopStrategy);
+            }
+        }
+        return flattened;
+    }
+
     @Immutable
     private static final class NeverStopStrategy implements StopStrategy {
         @Override
@@ -124,4 +272,106 @@ public final class StopStrategies {
             return failedAttempt.getDelaySinceFirstAttempt() >= maxDelay;
         }
     }
+
+    @Immutable
+    private static final class StopAfterExceptionsStrategy implements ContextualStopStrategy {
+        private final int maxExceptionCount;
+
+        public StopAfterExceptionsStrategy(int maxExceptionCount) {
+            Preconditions.checkArgument(maxExceptionCount >= 1, "maxExceptionCount must be >= 1 but is %d", maxExceptionCount);
+            this.maxExceptionCount = maxExceptionCount;
+        }
+
+        @Override
+        public boolean shouldStop(Attempt failedAttempt) {
+            return failedAttempt.getAttemptNumber() >= maxExceptionCount;
+        }
+
+        @Override
+        public boolean shouldStop(Attempt failedAttempt, RetryContext context) {
+            return context.getExceptionCount() >= maxExceptionCount;
+        }
+    }
+
+    @Immutable
+    private static final class StopOnExceptionStrategy implements StopStrategy {
+        private final Predicate<Throwable> exceptionPredicate;
+
+        public StopOnExceptionStrategy(Predicate<Throwable> exceptionPredicate) {
+            this.exceptionPredicate = exceptionPredicate;
+        }
+
+        @Override
+        public boolean shouldStop(Attempt failedAttempt) {
+            return failedAttempt.hasException() && exceptionPredicate.apply(failedAttempt.getExceptionCause());
+        }
+    }
+
+    @Immutable
+    private static final class ExceptionClassPredicate implements Predicate<Throwable> {
+        private final Class<? extends Throwable> exceptionClass;
+
+        public ExceptionClassPredicate(Class<? extends Throwable> exceptionClass) {
+            this.exceptionClass = exceptionClass;
+        }
+
+        @Override
+        public boolean apply(Throwable exception) {
+            return exceptionClass.isInstance(exception);
+        }
+    }
+
+    /**
+     * Checks its strategies in order, and stops checking at the first one
+     * deciding to stop, if it stops when any of them does, or at the first one
+     * deciding not to stop, if it only stops when all of them do.
+     */
+    @Immutable
+    private static class CompositeStopStrategy implements StopStrategy {
+        final boolean any;
+        final StopStrategy[] stopStrategies;
+
+        public CompositeStopStrategy(boolean any, StopStrategy[] stopStrategies) {
+            this.any = any;
+            this.stopStrategies = stopStrategies;
+        }
+
+        @Override
+        public boolean shouldStop(Attempt failedAttempt) {
+            for (StopStrategy stopStrategy : stopStrategies) {
+                if (stopStrategy.shouldStop(failedAttempt) == any) {
+                    return any;
+                }
+            }
+            return !any;
+        }
+    }
+
+    @Immutable
+    private static final class ContextualCompositeStopStrategy extends CompositeStopStrategy implements ContextualStopStrategy {
+        private final ContextualStopStrategy[] contextualStopStrategies;
+
+        public ContextualCompositeStopStrategy(boolean any, StopStrategy[] stopStrategies) {
+            super(any, stopStrategies);
+            this.contextualStopStrategies = new ContextualStopStrategy[stopStrategies.length];
+            for (int i = 0; i < stopStrategies.length; i++) {
+                if (stopStrategies[i] instanceof ContextualStopStrategy) {
+                    contextualStopStrategies[i] = (ContextualStopStrategy) stopStrategies[i];
+                }
+            }
+        }
+
+        @Override
+        public boolean shouldStop(Attempt failedAttempt, RetryContext context) {
+            for (int i = 0; i < stopStrategies.length; i++) {
+                boolean stop = contextualStopStrategies[i] != null
+                        ? contextualStopStrategies[i].shouldStop(failedAttempt, context)
+                        : stopStrategies[i].shouldStop(failedAttempt);
+                if (stop == any) {
+                    return any;
+                }
+            }
+            return !any;
+        }
+    }
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over several cells, each on its own cache line, so that
+ * threads adding to it at the same time rarely touch the same cell. Reading
+ * it sums the cells, which is only consistent while no thread adds to it.
+ */
+@ThreadSafe
+final class StripedCounter {
+    /**
+     * The number of longs in a cache line, so cells don't share one.
+     */
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    StripedCounter() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+        this.cells = new AtomicLongArray(stripes * PADDING);
+        this.mask = stripes - 1;
+    }
+
+    void increment() {
+        add(1L);
+    }
+
+    void add(long x) {
+        cells.getAndAdd(index(), x);
+    }
+
+    long sum() {
+        long sum = 0L;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            cells.set(i, 0L);
+        }
+    }
+
+    private int index() {
+        long id = Thread.currentThread().getId();
+        return ((int) (id ^ (id >>> 16)) & mask) * PADDING;
+    }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link RetryScheduler} meant for very many pending attempts, such as the
+ * backoffs of every call to a service during an outage. A
+ * {@link java.util.concurrent.ScheduledThreadPoolExecutor} keeps its tasks in
+ * a heap behind a single lock, where adding or cancelling a task costs
+ * O(log n); this scheduler keeps them in a hierarchical timing wheel instead,
+ * where both cost O(1).
+ * <p></p>
+ * Time advances in ticks of a fixed duration. The first wheel has a bucket for
+ * each of the next ticks; each following wheel has a bucket for each turn of
+ * the previous one, and its buckets are spread over the previous wheel as it
+ * gets to them. A single background thread owns the wheels: scheduling an
+ * attempt only hands it over to that thread through a lock-free stack, and at
+ * each tick the thread files the new attempts and hands the ones due to the
+ * worker executor. Attempts therefore run up to one tick late, which batches
+ * the attempts due at about the same time.
+ * <p></p>
+ * Attempts with a sleep time of 0 are handed to the worker executor right away.
+ */
+@Beta
+@ThreadSafe
+public final class TimingWheelRetryScheduler implements RetryScheduler {
+
+    private static final int LEVELS = 4;
+
+    // the head of the stack of added tasks once the worker thread has drained it for the last time
+    private static final Timeout CLOSED = new Timeout(null, null, 0L);
+
+    private final Executor executor;
+    private final long tickNanos;
+    private final int wheelBits;
+    private final int mask;
+    private final Thread worker;
+    private final long startTime;
+    // tasks added or cancelled since the last tick, as stacks linked through the tasks themselves
+    private final AtomicReference<Timeout> added = new AtomicReference<Timeout>();
+    private final AtomicReference<Timeout> cancelled = new AtomicReference<Timeout>();
+    private volatile boolean shutdown;
+    private volatile long pending;
+
+    // owned by the worker thread
+    private final Bucket[][] wheels;
+    private long currentTick;
+    private long filed;
+
+    /**
+     * Constructor, with ticks of 10 milliseconds and wheels of 512 buckets,
+     * which covers about 21 years of sleep time. The background thread is a
+     * daemon thread.
+     *
+     * @param executor the executor the attempts are run by
+     */
+    public TimingWheelRetryScheduler(@Nonnull Executor executor) {
+        this(executor, 10L, TimeUnit.MILLISECONDS, 512, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "retry-timing-wheel");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Constructor
+     *
+     * @param executor      the executor the attempts are run by
+     * @param tickDuration  the duration of a tick, which is the precision of the sleep times
+     * @param tickUnit      the unit of the tick duration
+     * @param wheelSize     the number of buckets per wheel, rounded up to a power of two
+     * @param threadFactory used to create the background thread
+     */
+    public TimingWheelRetryScheduler(@Nonnull Executor executor,
+                                     long tickDuration,
+                                     @Nonnull TimeUnit tickUnit,
+                                     int wheelSize,
+                                     @Nonnull ThreadFactory threadFactory) {
+        Preconditions.checkNotNull(executor, "executor may not be null");
+        Preconditions.checkNotNull(tickUnit, "The tick unit may not be null");
+        Preconditions.checkNotNull(threadFactory, "threadFactory may not be null");
+        Preconditions.checkArgument(tickUnit.toMillis(tickDuration) >= 1L, "tickDuration must be >= 1ms but is %s %s", tickDuration, tickUnit);
+        Preconditions.checkArgument(wheelSize >= 2 && wheelSize <= 1 << 16, "wheelSize must be >= 2 and <= 65536 but is %s", wheelSize);
+        this.executor = executor;
+        this.tickNanos = tickUnit.toNanos(tickDuration);
+        this.wheelBits = 32 - Integer.numberOfLeadingZeros(wheelSize - 1);
+        this.mask = (1 << wheelBits) - 1;
+        this.wheels = new Bucket[LEVELS][1 << wheelBits];
+        for (Bucket[] wheel : wheels) {
+            for (int i = 0; i < wheel.length; i++) {
+                wheel[i] = new Bucket();
+            }
+        }
+        this.startTime = System.nanoTime();
+        this.worker = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        });
+        this.worker.start();
+    }
+
+    @Override
+    public void schedule(Runnable attempt, long sleepTime) throws RejectedExecutionException {
+        if (sleepTime <= 0L) {
+            if (shutdown) {
+                throw new RejectedExecutionException("The scheduler is shut down");
+            }
+            executor.execute(attempt);
+        } else {
+            newTimeout(attempt, sleepTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Schedules the given task to be handed to the worker executor once the
+     * given delay has passed, give or take a tick.
+     *
+     * @param task     the task to run
+     * @param delay    the delay before running the task
+     * @param timeUnit the unit of the delay
+     * @return a handle to cancel the task
+     * @throws RejectedExecutionException if the scheduler is shut down
+     */
+    public Timeout newTimeout(@Nonnull Runnable task, long delay, @Nonnull TimeUnit timeUnit) throws RejectedExecutionException {
+        Preconditions.checkNotNull(task, "task may not be null");
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        if (shutdown) {
+            throw new RejectedExecutionException("The scheduler is shut down");
+        }
+        long deadline = System.nanoTime() - startTime + Math.max(0L, timeUnit.toNanos(delay));
+        // round up, so a task never runs early
+        Timeout timeout = new Timeout(this, task, (deadline + tickNanos - 1) / tickNanos);
+        Timeout head;
+        do {
+            head = added.get();
+            if (head == CLOSED) {
+                throw new RejectedExecutionException("The scheduler is shut down");
+            }
+            timeout.nextAdded = head;
+        } while (!added.compareAndSet(head, timeout));
+        return timeout;
+    }
+
+    /**
+     * Returns the number of tasks waiting for their delay to pass, as of the
+     * last tick.
+     *
+     * @return the number of pending tasks
+     */
+    public long getPendingCount() {
+        return pending;
+    }
+
+    /**
+     * Stops the background thread. The pending tasks are never run; those
+     * running the attempts of a {@link Retryer} fail their call with a
+     * {@link RetryException}.
+     */
+    public void shutdown() {
+        shutdown = true;
+        LockSupport.unpark(worker);
+    }
+
+    private void work() {
+        while (!shutdown) {
+            long deadline = startTime + (currentTick + 1) * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0L) {
+                LockSupport.parkNanos(this, sleepNanos);
+                continue;
+            }
+            transferCancelled();
+            transferAdded(null);
+            currentTick++;
+            cascade();
+            expire(wheels[0][(int) (currentTick & mask)]);
+            pending = filed;
+        }
+        transferCancelled();
+        // tasks added from now on are rejected by newTimeout rather than left behind
+        transferAdded(CLOSED);
+        RejectedExecutionException e = new RejectedExecutionException("The scheduler was shut down");
+        for (Bucket[] wheel : wheels) {
+            for (Bucket bucket : wheel) {
+                for (Timeout timeout = bucket.poll(); timeout != null; timeout = bucket.poll()) {
+                    if (timeout.expire()) {
+                        reject(timeout.task, e);
+                    }
+                }
+            }
+        }
+        pending = 0L;
+    }
+
+    private void transferAdded(Timeout newHead) {
+        Timeout timeout = added.getAndSet(newHead);
+        while (timeout != null) {
+            Timeout next = timeout.nextAdded;
+            timeout.nextAdded = null;
+            if (!timeout.isCancelled()) {
+                file(timeout);
+                filed++;
+            }
+            timeout = next;
+        }
+    }
+
+    private void transferCancelled() {
+        Timeout timeout = cancelled.getAndSet(null);
+        while (timeout != null) {
+            Timeout next = timeout.nextCancelled;
+            timeout.nextCancelled = null;
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+                filed--;
+            }
+            timeout = next;
+        }
+    }
+
+    private void cancelled(Timeout timeout) {
+        Timeout head;
+        do {
+            head = cancelled.get();
+            timeout.nextCancelled = head;
+        } while (!cancelled.compareAndSet(head, timeout));
+    }
+
+    /**
+     * Files a task in the bucket of the lowest wheel whose current turn covers
+     * its deadline, which is the bucket of its deadline tick in the first wheel
+     * for a task due within the current turn of the first wheel.
+     */
+    private void file(Timeout timeout) {
+        long tick = timeout.deadlineTick;
+        if (tick <= currentTick) {
+            tick = currentTick + 1;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = wheelBits * (level + 1);
+            if (level == LEVELS - 1 || (tick >>> shift) == (currentTick >>> shift)) {
+                int shiftBelow = wheelBits * level;
+                if (level == LEVELS - 1 && (tick >>> shift) != (currentTick >>> shift)) {
+                    // beyond the last wheel: park it in the bucket the last wheel gets to last
+                    tick = currentTick - (1L << shiftBelow);
+                }
+                wheels[level][(int) ((tick >>> shiftBelow) & mask)].add(timeout);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Spreads the buckets of the higher wheels the current tick has just
+     * reached over the wheels below them.
+     */
+    private void cascade() {
+        for (int level = LEVELS - 1; level > 0; level--) {
+            int shift = wheelBits * level;
+            if ((currentTick & ((1L << shift) - 1)) == 0L) {
+                Bucket bucket = wheels[level][(int) ((currentTick >>> shift) & mask)];
+                for (Timeout timeout = bucket.poll(); timeout != null; timeout = bucket.poll()) {
+                    if (timeout.deadlineTick <= currentTick) {
+                        filed--;
+                        run(timeout);
+                    } else {
+                        file(timeout);
+                    }
+                }
+            }
+        }
+    }
+
+    private void expire(Bucket bucket) {
+        for (Timeout timeout = bucket.poll(); timeout != null; timeout = bucket.poll()) {
+            filed--;
+            run(timeout);
+        }
+    }
+
+    private void run(Timeout timeout) {
+        if (!timeout.expire()) {
+            return;
+        }
+        try {
+            executor.execute(timeout.task);
+        } catch (RejectedExecutionException e) {
+            reject(timeout.task, e);
+        } catch (Throwable t) {
+            // anything escaping here would kill the worker thread, and strand every pending task
+            reject(timeout.task, new RejectedExecutionException(t));
+        }
+    }
+
+    private static void reject(Runnable task, RejectedExecutionException e) {
+        if (task instanceof RejectableRunnable) {
+            try {
+                ((RejectableRunnable) task).reject(e);
+            } catch (Throwable ignored) {
+                // the task failed to fail; the worker thread must keep ticking regardless
+            }
+        }
+    }
+
+    /**
+     * A handle on a task scheduled by {@link #newTimeout(Runnable, long, TimeUnit)}.
+     */
+    public static final class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimingWheelRetryScheduler scheduler;
+        private final Runnable task;
+        private final long deadlineTick;
+        private volatile int state = WAITING;
+        private Timeout nextAdded;
+        private Timeout nextCancelled;
+
+        // owned by the worker thread
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(TimingWheelRetryScheduler scheduler, Runnable task, long deadlineTick) {
+            this.scheduler = scheduler;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Cancels the task, unless it was already handed to the worker executor.
+         *
+         * @return <code>true</code> if the task was cancelled by this call
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, WAITING, CANCELLED)) {
+                return false;
+            }
+            scheduler.cancelled(this);
+            return true;
+        }
+
+        /**
+         * @return <code>true</code> if the task was cancelled
+         */
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        /**
+         * @return <code>true</code> if the task was handed to the worker executor
+         */
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        private boolean expire() {
+            return STATE.compareAndSet(this, WAITING, EXPIRED);
+        }
+    }
+
+    /**
+     * A doubly-linked list of tasks, only ever used by the worker thread.
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.previous = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.previous == null) {
+                head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.previous;
+            } else {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+
+        Timeout poll() {
+            Timeout timeout = head;
+            if (timeout != null) {
+                remove(timeout);
+            }
+            return timeout;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Ticker} which only moves when it is told to. Given to a retryer
+ * along with {@link BlockStrategies#virtualTimeStrategy(VirtualTicker)}, it
+ * lets a whole retry schedule, delays and time-based stop strategies included,
+ * run without actually sleeping, which is mostly useful in tests.
+ */
+@Beta
+@ThreadSafe
+public final class VirtualTicker extends Ticker {
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    /**
+     * Moves this ticker forward by the given amount of time.
+     *
+     * @param time     the amount of time to move forward by, which must be >= 0
+     * @param timeUnit the unit of the time
+     * @return <code>this</code>
+     */
+    public VirtualTicker advance(long time, @Nonnull TimeUnit timeUnit) {
+        Preconditions.checkArgument(time >= 0L, "time must be >= 0 but is %s", time);
+        Preconditions.checkNotNull(timeUnit, "The time unit may not be null");
+        nanos.addAndGet(timeUnit.toNanos(time));
+        return this;
+    }
+
+    @Override
+    public long read() {
+        return nanos.get();
+    }
+}
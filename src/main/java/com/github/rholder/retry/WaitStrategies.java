@@ -22,6 +22,7 @@ import com.google.common.collect.Lists;
 
 import javax.annotation.Nonnull;
 import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
@@ -111,8 +112,8 @@ public final class WaitStrategies {
                                                 @Nonnull TimeUnit incrementTimeUnit) {
         Preconditions.checkNotNull(initialSleepTimeUnit, "The initial sleep time unit may not be null");
         Preconditions.checkNotNull(incrementTimeUnit, "The increment time unit may not be null");
-        return new IncrementingWaitStrategy(initialSleepTimeUnit.toMillis(initialSleepTime),
-                incrementTimeUnit.toMillis(increment));
+        return new ScheduleWaitStrategy(new IncrementingWaitStrategy(initialSleepTimeUnit.toMillis(initialSleepTime),
+                incrementTimeUnit.toMillis(increment)));
     }
 
     /**
@@ -122,7 +123,7 @@ public final class WaitStrategies {
      * @return a wait strategy that increments with each failed attempt using exponential backoff
      */
     public static WaitStrategy exponentialWait() {
-        return new ExponentialWaitStrategy(1, Long.MAX_VALUE);
+        return new ScheduleWaitStrategy(new ExponentialWaitStrategy(1, Long.MAX_VALUE));
     }
 
     /**
@@ -136,7 +137,7 @@ public final class WaitStrategies {
     public static WaitStrategy exponentialWait(long maximumTime,
                                                @Nonnull TimeUnit maximumTimeUnit) {
         Preconditions.checkNotNull(maximumTimeUnit, "The maximum time unit may not be null");
-        return new ExponentialWaitStrategy(1, maximumTimeUnit.toMillis(maximumTime));
+        return new ScheduleWaitStrategy(new ExponentialWaitStrategy(1, maximumTimeUnit.toMillis(maximumTime)));
     }
 
     /**
@@ -154,7 +155,7 @@ public final class WaitStrategies {
                                                long maximumTime,
                                                @Nonnull TimeUnit maximumTimeUnit) {
         Preconditions.checkNotNull(maximumTimeUnit, "The maximum time unit may not be null");
-        return new ExponentialWaitStrategy(multiplier, maximumTimeUnit.toMillis(maximumTime));
+        return new ScheduleWaitStrategy(new ExponentialWaitStrategy(multiplier, maximumTimeUnit.toMillis(maximumTime)));
     }
 
     /**
@@ -164,7 +165,7 @@ public final class WaitStrategies {
      * @return a wait strategy that increments with each failed attempt using a Fibonacci sequence
      */
     public static WaitStrategy fibonacciWait() {
-        return new FibonacciWaitStrategy(1, Long.MAX_VALUE);
+        return new ScheduleWaitStrategy(new FibonacciWaitStrategy(1, Long.MAX_VALUE));
     }
 
     /**
@@ -178,7 +179,7 @@ public final class WaitStrategies {
     public static WaitStrategy fibonacciWait(long maximumTime,
                                              @Nonnull TimeUnit maximumTimeUnit) {
         Preconditions.checkNotNull(maximumTimeUnit, "The maximum time unit may not be null");
-        return new FibonacciWaitStrategy(1, maximumTimeUnit.toMillis(maximumTime));
+        return new ScheduleWaitStrategy(new FibonacciWaitStrategy(1, maximumTimeUnit.toMillis(maximumTime)));
     }
 
     /**
@@ -196,7 +197,32 @@ public final class WaitStrategies {
                                              long maximumTime,
                                              @Nonnull TimeUnit maximumTimeUnit) {
         Preconditions.checkNotNull(maximumTimeUnit, "The maximum time unit may not be null");
-        return new FibonacciWaitStrategy(multiplier, maximumTimeUnit.toMillis(maximumTime));
+        return new ScheduleWaitStrategy(new FibonacciWaitStrategy(multiplier, maximumTimeUnit.toMillis(maximumTime)));
+    }
+
+    /**
+     * Returns a strategy which sleeps a random amount of time between the initial
+     * sleep time and three times the previous sleep time of the same call, capped
+     * at the maximum sleep time. This is the "decorrelated jitter" backoff, which
+     * spreads out retries from many callers better than jittering an exponential
+     * backoff, since each call's sleep times follow their own random walk.
+     *
+     * @param initialSleepTime     the minimum time to sleep, also used as the previous sleep time for the first retry
+     * @param initialSleepTimeUnit the unit of the initial sleep time
+     * @param maximumTime          the maximum time to sleep
+     * @param maximumTimeUnit      the unit of the maximum time
+     * @return a wait strategy with a decorrelated random wait time
+     * @throws IllegalArgumentException if the initial sleep time is &lt;= 0, or if the
+     *                                  maximum sleep time is less than the initial one.
+     */
+    public static WaitStrategy decorrelatedJitterWait(long initialSleepTime,
+                                                      @Nonnull TimeUnit initialSleepTimeUnit,
+                                                      long maximumTime,
+                                                      @Nonnull TimeUnit maximumTimeUnit) {
+        Preconditions.checkNotNull(initialSleepTimeUnit, "The initial sleep time unit may not be null");
+        Preconditions.checkNotNull(maximumTimeUnit, "The maximum time unit may not be null");
+        return new DecorrelatedJitterWaitStrategy(initialSleepTimeUnit.toMillis(initialSleepTime),
+                maximumTimeUnit.toMillis(maximumTime));
     }
 
     /**
@@ -218,6 +244,9 @@ public final class WaitStrategies {
     /**
      * Joins one or more wait strategies to derive a composite wait strategy.
      * The new joined strategy will have a wait time which is total of all wait times computed one after another in order.
+     * If the wait times of all the given strategies depend on nothing but the attempt number, the joined
+     * strategy precomputes their totals. If any of them is a {@link ContextualWaitStrategy}, so is the
+     * joined strategy, and it passes the context of the call on to them.
      *
      * @param waitStrategies Wait strategies that need to be applied one after another for computing the sleep time.
      * @return A composite wait strategy
@@ -226,11 +255,94 @@ public final class WaitStrategies {
         Preconditions.checkState(waitStrategies.length > 0, "Must have at least one wait strategy");
         List<WaitStrategy> waitStrategyList = Lists.newArrayList(waitStrategies);
         Preconditions.checkState(!waitStrategyList.contains(null), "Cannot have a null wait strategy");
-        return new CompositeWaitStrategy(waitStrategyList);
+        for (WaitStrategy waitStrategy : waitStrategies) {
+            if (waitStrategy instanceof ContextualWaitStrategy) {
+                return new ContextualCompositeWaitStrategy(waitStrategyList);
+            }
+        }
+        AttemptNumberWaitStrategy[] attemptNumberWaitStrategies = new AttemptNumberWaitStrategy[waitStrategies.length];
+        for (int i = 0; i < waitStrategies.length; i++) {
+            if (!(waitStrategies[i] instanceof AttemptNumberWaitStrategy)) {
+                return new CompositeWaitStrategy(waitStrategyList);
+            }
+            attemptNumberWaitStrategies[i] = (AttemptNumberWaitStrategy) waitStrategies[i];
+        }
+        return new ScheduleWaitStrategy(new SumWaitStrategy(attemptNumberWaitStrategies));
+    }
+
+    /**
+     * A wait strategy whose sleep time depends on nothing but the attempt number.
+     */
+    private interface AttemptNumberWaitStrategy extends WaitStrategy {
+
+        /**
+         * Returns the time, in milliseconds, to sleep before retrying.
+         *
+         * @param attemptNumber the number of the previous failed attempt
+         * @return the sleep time before next attempt
+         */
+        long computeSleepTime(long attemptNumber);
+
+        /**
+         * Returns the sleep time which, once reached, is used for every later
+         * attempt, or -1 if the sleep time never settles.
+         *
+         * @return the maximum sleep time, or -1 if there is none
+         */
+        long maximumSleepTime();
+    }
+
+    /**
+     * Computes the sleep times of another strategy for the first attempts once,
+     * up front, so that computing a sleep time is then a bounds-checked array
+     * read. For a strategy with a maximum sleep time, the schedule stops at the
+     * first attempt reaching it, and that sleep time is used for all later
+     * attempts.
+     */
+    @Immutable
+    private static final class ScheduleWaitStrategy implements AttemptNumberWaitStrategy {
+        private static final int MAX_SCHEDULE_LENGTH = 128;
+
+        private final AttemptNumberWaitStrategy waitStrategy;
+        private final long[] schedule;
+        private final boolean settled;
+
+        public ScheduleWaitStrategy(AttemptNumberWaitStrategy waitStrategy) {
+            long maximumSleepTime = waitStrategy.maximumSleepTime();
+            long[] sleepTimes = new long[MAX_SCHEDULE_LENGTH];
+            int length = 0;
+            boolean reachedMaximum = false;
+            while (length < MAX_SCHEDULE_LENGTH && !reachedMaximum) {
+                sleepTimes[length] = waitStrategy.computeSleepTime(length);
+                reachedMaximum = sleepTimes[length] == maximumSleepTime;
+                length++;
+            }
+            this.waitStrategy = waitStrategy;
+            this.schedule = Arrays.copyOf(sleepTimes, length);
+            this.settled = reachedMaximum;
+        }
+
+        @Override
+        public long computeSleepTime(Attempt failedAttempt) {
+            return computeSleepTime(failedAttempt.getAttemptNumber());
+        }
+
+        @Override
+        public long computeSleepTime(long attemptNumber) {
+            if (attemptNumber >= 0L && attemptNumber < schedule.length) {
+                return schedule[(int) attemptNumber];
+            }
+            return settled ? schedule[schedule.length - 1] : waitStrategy.computeSleepTime(attemptNumber);
+        }
+
+        @Override
+        public long maximumSleepTime() {
+            return waitStrategy.maximumSleepTime();
+        }
     }
 
     @Immutable
-    private static final class FixedWaitStrategy implements WaitStrategy {
+    private static final class FixedWaitStrategy implements AttemptNumberWaitStrategy {
         private final long sleepTime;
 
         public FixedWaitStrategy(long sleepTime) {
@@ -242,6 +354,16 @@ public final class WaitStrategies {
         public long computeSleepTime(Attempt failedAttempt) {
             return sleepTime;
         }
+
+        @Override
+        public long computeSleepTime(long attemptNumber) {
+            return sleepTime;
+        }
+
+        @Override
+        public long maximumSleepTime() {
+            return sleepTime;
+        }
     }
 
     @Immutable
@@ -266,7 +388,39 @@ public final class WaitStrategies {
     }
 
     @Immutable
-    private static final class IncrementingWaitStrategy implements WaitStrategy {
+    private static final class DecorrelatedJitterWaitStrategy implements ContextualWaitStrategy {
+        private static final Random RANDOM = new Random();
+        private final long initialSleepTime;
+        private final long maximumTime;
+
+        public DecorrelatedJitterWaitStrategy(long initialSleepTime, long maximumTime) {
+            Preconditions.checkArgument(initialSleepTime > 0L, "initialSleepTime must be > 0 but is %d", initialSleepTime);
+            Preconditions.checkArgument(maximumTime >= initialSleepTime, "maximumTime must be >= initialSleepTime but is %d", maximumTime);
+            this.initialSleepTime = initialSleepTime;
+            this.maximumTime = maximumTime;
+        }
+
+        @Override
+        public long computeSleepTime(Attempt failedAttempt) {
+            return computeSleepTime(initialSleepTime);
+        }
+
+        @Override
+        public long computeSleepTime(Attempt failedAttempt, RetryContext context) {
+            return computeSleepTime(Math.max(initialSleepTime, context.getPreviousSleepTime()));
+        }
+
+        private long computeSleepTime(long previousSleepTime) {
+            long upper = previousSleepTime > maximumTime / 3 ? maximumTime : previousSleepTime * 3;
+            if (upper <= initialSleepTime) {
+                return initialSleepTime;
+            }
+            return initialSleepTime + Math.abs(RANDOM.nextLong() % (upper - initialSleepTime + 1));
+        }
+    }
+
+    @Immutable
+    private static final class IncrementingWaitStrategy implements AttemptNumberWaitStrategy {
         private final long initialSleepTime;
         private final long increment;
 
@@ -279,13 +433,23 @@ public final class WaitStrategies {
 
         @Override
         public long computeSleepTime(Attempt failedAttempt) {
-            long result = initialSleepTime + (increment * (failedAttempt.getAttemptNumber() - 1));
+            return computeSleepTime(failedAttempt.getAttemptNumber());
+        }
+
+        @Override
+        public long computeSleepTime(long attemptNumber) {
+            long result = initialSleepTime + (increment * (attemptNumber - 1));
             return result >= 0L ? result : 0L;
         }
+
+        @Override
+        public long maximumSleepTime() {
+            return -1L;
+        }
     }
 
     @Immutable
-    private static final class ExponentialWaitStrategy implements WaitStrategy {
+    private static final class ExponentialWaitStrategy implements AttemptNumberWaitStrategy {
         private final long multiplier;
         private final long maximumWait;
 
@@ -300,17 +464,27 @@ public final class WaitStrategies {
 
         @Override
         public long computeSleepTime(Attempt failedAttempt) {
-            double exp = Math.pow(2, failedAttempt.getAttemptNumber());
+            return computeSleepTime(failedAttempt.getAttemptNumber());
+        }
+
+        @Override
+        public long computeSleepTime(long attemptNumber) {
+            double exp = Math.pow(2, attemptNumber);
             long result = Math.round(multiplier * exp);
             if (result > maximumWait) {
                 result = maximumWait;
             }
             return result >= 0L ? result : 0L;
         }
+
+        @Override
+        public long maximumSleepTime() {
+            return maximumWait;
+        }
     }
 
     @Immutable
-    private static final class FibonacciWaitStrategy implements WaitStrategy {
+    private static final class FibonacciWaitStrategy implements AttemptNumberWaitStrategy {
         private final long multiplier;
         private final long maximumWait;
 
@@ -324,7 +498,12 @@ public final class WaitStrategies {
 
         @Override
         public long computeSleepTime(Attempt failedAttempt) {
-            long fib = fib(failedAttempt.getAttemptNumber());
+            return computeSleepTime(failedAttempt.getAttemptNumber());
+        }
+
+        @Override
+        public long computeSleepTime(long attemptNumber) {
+            long fib = fib(attemptNumber);
             long result = multiplier * fib;
 
             if (result > maximumWait || result < 0L) {
@@ -334,6 +513,11 @@ public final class WaitStrategies {
             return result >= 0L ? result : 0L;
         }
 
+        @Override
+        public long maximumSleepTime() {
+            return maximumWait;
+        }
+
         private long fib(long n) {
             if (n == 0L) return 0L;
             if (n == 1L) return 1L;
@@ -352,13 +536,50 @@ public final class WaitStrategies {
         }
     }
 
+    @Immutable
+    private static final class SumWaitStrategy implements AttemptNumberWaitStrategy {
+        private final AttemptNumberWaitStrategy[] waitStrategies;
+
+        public SumWaitStrategy(AttemptNumberWaitStrategy[] waitStrategies) {
+            Preconditions.checkState(waitStrategies.length > 0, "Need at least one wait strategy");
+            this.waitStrategies = waitStrategies;
+        }
+
+        @Override
+        public long computeSleepTime(Attempt failedAttempt) {
+            return computeSleepTime(failedAttempt.getAttemptNumber());
+        }
+
+        @Override
+        public long computeSleepTime(long attemptNumber) {
+            long waitTime = 0L;
+            for (AttemptNumberWaitStrategy waitStrategy : waitStrategies) {
+                waitTime += waitStrategy.computeSleepTime(attemptNumber);
+            }
+            return waitTime;
+        }
+
+        @Override
+        public long maximumSleepTime() {
+            long maximum = 0L;
+            for (AttemptNumberWaitStrategy waitStrategy : waitStrategies) {
+                long strategyMaximum = waitStrategy.maximumSleepTime();
+                if (strategyMaximum < 0L) {
+                    return -1L;
+                }
+                maximum += strategyMaximum;
+            }
+            return maximum;
+        }
+    }
+
     @Immutable
     private static final class CompositeWaitStrategy implements WaitStrategy {
-        private final List<WaitStrategy> waitStrategies;
+        private final WaitStrategy[] waitStrategies;
 
         public CompositeWaitStrategy(List<WaitStrategy> waitStrategies) {
             Preconditions.checkState(!waitStrategies.isEmpty(), "Need at least one wait strategy");
-            this.waitStrategies = waitStrategies;
+            this.waitStrategies = waitStrategies.toArray(new WaitStrategy[waitStrategies.size()]);
         }
 
         @Override
@@ -371,6 +592,43 @@ public final class WaitStrategies {
         }
     }
 
+    @Immutable
+    private static final class ContextualCompositeWaitStrategy implements ContextualWaitStrategy {
+        private final WaitStrategy[] waitStrategies;
+        private final ContextualWaitStrategy[] contextualWaitStrategies;
+
+        public ContextualCompositeWaitStrategy(List<WaitStrategy> waitStrategies) {
+            Preconditions.checkState(!waitStrategies.isEmpty(), "Need at least one wait strategy");
+            this.waitStrategies = waitStrategies.toArray(new WaitStrategy[waitStrategies.size()]);
+            this.contextualWaitStrategies = new ContextualWaitStrategy[this.waitStrategies.length];
+            for (int i = 0; i < this.waitStrategies.length; i++) {
+                if (this.waitStrategies[i] instanceof ContextualWaitStrategy) {
+                    contextualWaitStrategies[i] = (ContextualWaitStrategy) this.waitStrategies[i];
+                }
+            }
+        }
+
+        @Override
+        public long computeSleepTime(Attempt failedAttempt) {
+            long waitTime = 0L;
+            for (WaitStrategy waitStrategy : waitStrategies) {
+                waitTime += waitStrategy.computeSleepTime(failedAttempt);
+            }
+            return waitTime;
+        }
+
+        @Override
+        public long computeSleepTime(Attempt failedAttempt, RetryContext context) {
+            long waitTime = 0L;
+            for (int i = 0; i < waitStrategies.length; i++) {
+                waitTime += contextualWaitStrategies[i] != null
+                        ? contextualWaitStrategies[i].computeSleepTime(failedAttempt, context)
+                        : waitStrategies[i].computeSleepTime(failedAttempt);
+            }
+            return waitTime;
+        }
+    }
+
     @Immutable
     private static final class ExceptionWaitStrategy<T extends Throwable> implements WaitStrategy {
         private final Class<T> exceptionClass;
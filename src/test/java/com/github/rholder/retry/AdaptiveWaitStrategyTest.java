@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveWaitStrategyTest {
+
+    private final FakeTicker ticker = new FakeTicker();
+    private final AdaptiveWaitStrategy adaptiveWait = new AdaptiveWaitStrategy(
+            100L, 2100L, TimeUnit.MILLISECONDS, 0.5, 10L, TimeUnit.SECONDS, ticker);
+
+    @Test
+    public void testRaisesSleepTimeWhenFailing() {
+        assertEquals(100L, adaptiveWait.computeSleepTime(failedAttempt()));
+
+        record(20, 0);
+        assertEquals(100L, adaptiveWait.getCurrentSleepTime());
+
+        record(0, 30);
+        assertEquals(200L, adaptiveWait.getCurrentSleepTime());
+        assertEquals(30.0 / 51.0, adaptiveWait.getFailureRate(), 0.0);
+
+        record(0, 20);
+        assertEquals(400L, adaptiveWait.getCurrentSleepTime());
+        record(0, 20);
+        assertEquals(800L, adaptiveWait.getCurrentSleepTime());
+        record(0, 20);
+        assertEquals(1600L, adaptiveWait.getCurrentSleepTime());
+        record(0, 20);
+        assertEquals(2100L, adaptiveWait.getCurrentSleepTime());
+        assertEquals(2100L, adaptiveWait.computeSleepTime(failedAttempt()));
+    }
+
+    @Test
+    public void testLowersSleepTimeAdditivelyWhenRecovering() {
+        for (int i = 0; i < 6; i++) {
+            record(0, 20);
+        }
+        ticker.advance(1L, TimeUnit.SECONDS);
+        adaptiveWait.onRetry(successfulAttempt());
+        assertEquals(2100L, adaptiveWait.getCurrentSleepTime());
+
+        // the failures are still in the window for a while
+        for (int i = 0; i < 10; i++) {
+            record(200, 0);
+        }
+        long recovering = adaptiveWait.getCurrentSleepTime();
+        record(200, 0);
+        assertEquals(recovering - 100L, adaptiveWait.getCurrentSleepTime());
+
+        for (int i = 0; i < 30; i++) {
+            record(200, 0);
+        }
+        assertEquals(100L, adaptiveWait.getCurrentSleepTime());
+    }
+
+    @Test
+    public void testIgnoresQuietWindows() {
+        record(0, 5);
+        record(0, 1);
+        assertEquals(100L, adaptiveWait.getCurrentSleepTime());
+    }
+
+    /**
+     * Records the given outcomes in the current slice of the window, then moves
+     * on to the next slice and records one more success, which makes the
+     * strategy look at the slice just completed.
+     */
+    private void record(int successes, int failures) {
+        for (int i = 0; i < successes; i++) {
+            adaptiveWait.onRetry(successfulAttempt());
+        }
+        for (int i = 0; i < failures; i++) {
+            adaptiveWait.onRetry(failedAttempt());
+        }
+        ticker.advance(1L, TimeUnit.SECONDS);
+        adaptiveWait.onRetry(successfulAttempt());
+    }
+
+    private Attempt<Boolean> successfulAttempt() {
+        return new Retryer.ResultAttempt<Boolean>(true, 1L, 0L);
+    }
+
+    private Attempt<Boolean> failedAttempt() {
+        return new Retryer.ExceptionAttempt<Boolean>(new IOException(), 1L, 0L);
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long time, TimeUnit timeUnit) {
+            nanos += timeUnit.toNanos(time);
+        }
+    }
+}
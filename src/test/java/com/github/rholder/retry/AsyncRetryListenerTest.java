@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Predicates;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncRetryListenerTest {
+
+    @Test
+    public void testListenerIsNotifiedInTheBackground() throws Exception {
+        final AtomicInteger notifications = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(6);
+        AsyncRetryListener listener = new AsyncRetryListener(new RetryListener() {
+            @Override
+            public <V> void onRetry(Attempt<V> attempt) {
+                assertTrue(Thread.currentThread().getName().startsWith("async-retry-listener"));
+                notifications.incrementAndGet();
+                done.countDown();
+            }
+        }, 16, AsyncRetryListener.OverflowPolicy.DROP);
+
+        Retryer<Boolean> retryer = RetryerBuilder.<Boolean>newBuilder()
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .withRetryListener(listener)
+                .build();
+        assertTrue(retryer.call(notNullAfter5Attempts()));
+
+        assertTrue(done.await(1L, TimeUnit.SECONDS));
+        assertEquals(6, notifications.get());
+        assertEquals(0L, listener.getDroppedCount());
+        listener.shutdown();
+        assertTrue(listener.awaitTermination(1L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testListenerFailuresAreCounted() throws Exception {
+        AsyncRetryListener listener = new AsyncRetryListener(new RetryListener() {
+            @Override
+            public <V> void onRetry(Attempt<V> attempt) {
+                throw new IllegalStateException();
+            }
+        }, 16, AsyncRetryListener.OverflowPolicy.BLOCK);
+
+        Retryer<Boolean> retryer = RetryerBuilder.<Boolean>newBuilder()
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .withRetryListener(listener)
+                .build();
+        assertTrue(retryer.call(notNullAfter5Attempts()));
+
+        listener.shutdown();
+        assertTrue(listener.awaitTermination(1L, TimeUnit.SECONDS));
+        assertEquals(6L, listener.getFailureCount());
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger notifications = new AtomicInteger();
+        AsyncRetryListener listener = new AsyncRetryListener(new RetryListener() {
+            @Override
+            public <V> void onRetry(Attempt<V> attempt) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                notifications.incrementAndGet();
+            }
+        }, 4, AsyncRetryListener.OverflowPolicy.DROP);
+
+        for (int i = 1; i <= 20; i++) {
+            listener.onRetry(new Retryer.ResultAttempt<Integer>(i, i, 0L));
+        }
+        // at most one attempt taken by the stalled thread and four in the buffer
+        assertTrue(listener.getDroppedCount() >= 15L);
+        release.countDown();
+        listener.shutdown();
+        assertTrue(listener.awaitTermination(1L, TimeUnit.SECONDS));
+        assertEquals(20L, notifications.get() + listener.getDroppedCount());
+    }
+
+    @Test
+    public void testSampleWhenHalfFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        AsyncRetryListener listener = new AsyncRetryListener(new RetryListener() {
+            @Override
+            public <V> void onRetry(Attempt<V> attempt) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, 64, AsyncRetryListener.OverflowPolicy.SAMPLE);
+
+        for (int i = 1; i <= 100; i++) {
+            listener.onRetry(new Retryer.ResultAttempt<Integer>(i, i, 0L));
+        }
+        // the first half of the buffer fills up, then only one in ten is kept
+        assertTrue(listener.getPendingCount() < 64);
+        assertTrue(listener.getDroppedCount() > 50L);
+        release.countDown();
+        listener.shutdown();
+        assertTrue(listener.awaitTermination(1L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testEveryAttemptIsDeliveredOrDroppedAcrossShutdown() throws Exception {
+        final AtomicInteger notifications = new AtomicInteger();
+        final AsyncRetryListener listener = new AsyncRetryListener(new RetryListener() {
+            @Override
+            public <V> void onRetry(Attempt<V> attempt) {
+                notifications.incrementAndGet();
+            }
+        }, 1024, AsyncRetryListener.OverflowPolicy.BLOCK);
+        final int perThread = 20000;
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; t++) {
+            producers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= perThread; i++) {
+                        listener.onRetry(new Retryer.ResultAttempt<Integer>(i, i, 0L));
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        Thread.sleep(5L);
+        listener.shutdown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(listener.awaitTermination(5L, TimeUnit.SECONDS));
+        assertEquals(producers.length * perThread, notifications.get() + listener.getDroppedCount());
+    }
+
+    private Callable<Boolean> notNullAfter5Attempts() {
+        return new Callable<Boolean>() {
+            int counter = 0;
+
+            @Override
+            public Boolean call() throws Exception {
+                if (counter < 5) {
+                    counter++;
+                    return null;
+                }
+                return true;
+            }
+        };
+    }
+}
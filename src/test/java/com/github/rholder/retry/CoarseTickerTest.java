@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Predicates;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CoarseTickerTest {
+
+    @Test
+    public void testTickerMovesAtItsResolution() throws InterruptedException {
+        CoarseTicker ticker = new CoarseTicker(1L, TimeUnit.MILLISECONDS);
+        try {
+            long start = ticker.read();
+            Thread.sleep(50L);
+            long elapsed = ticker.read() - start;
+            assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(40L));
+            assertTrue(elapsed <= System.nanoTime() - start + TimeUnit.MILLISECONDS.toNanos(1L));
+            assertEquals(1000L, ticker.getResolution(TimeUnit.MICROSECONDS));
+        } finally {
+            ticker.shutdown();
+        }
+    }
+
+    @Test
+    public void testTickerStopsAfterShutdown() throws InterruptedException {
+        CoarseTicker ticker = new CoarseTicker(1L, TimeUnit.MILLISECONDS);
+        ticker.shutdown();
+        Thread.sleep(10L);
+        long stopped = ticker.read();
+        Thread.sleep(10L);
+        assertEquals(stopped, ticker.read());
+    }
+
+    @Test
+    public void testDefaultTickerCantBeShutDown() {
+        assertSame(CoarseTicker.getDefault(), CoarseTicker.getDefault());
+        try {
+            CoarseTicker.getDefault().shutdown();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRetryerWithCoarseTicker() throws Exception {
+        Retryer<Boolean> retryer = RetryerBuilder.<Boolean>newBuilder()
+                .withTicker(CoarseTicker.getDefault())
+                .withWaitStrategy(WaitStrategies.fixedWait(20L, TimeUnit.MILLISECONDS))
+                .withStopStrategy(StopStrategies.stopAfterDelay(50L, TimeUnit.MILLISECONDS))
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .build();
+        try {
+            retryer.call(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return null;
+                }
+            });
+            fail("RetryException expected");
+        } catch (RetryException e) {
+            assertTrue(e.getLastFailedAttempt().getDelaySinceFirstAttempt() >= 50L);
+            assertTrue(e.getNumberOfFailedAttempts() >= 3);
+        }
+    }
+}
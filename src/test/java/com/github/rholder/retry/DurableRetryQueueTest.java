@@ -0,0 +1,309 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Charsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DurableRetryQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ScheduledExecutorService executor;
+    private RetryScheduler scheduler;
+    private File logFile;
+    private FlakyHandler handler;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newScheduledThreadPool(2);
+        scheduler = RetrySchedulers.scheduledExecutor(executor);
+        logFile = new File(folder.getRoot(), "retries.log");
+        handler = new FlakyHandler();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCallOrDeferRetriesInTheBackground() throws Exception {
+        DurableRetryQueue<String> queue = newQueue(scheduler, StopStrategies.neverStop());
+        Retryer<Void> retryer = RetryerBuilder.<Void>newBuilder()
+                .retryIfExceptionOfType(IOException.class)
+                .withStopStrategy(StopStrategies.stopAfterAttempt(2))
+                .build();
+
+        handler.failures.put("ok", 1);
+        handler.failures.put("deferred", 4);
+        assertTrue(queue.callOrDefer("ok", retryer));
+        assertFalse(queue.callOrDefer("deferred", retryer));
+        assertEquals(1, queue.getPendingCount());
+
+        awaitCompleted(queue, 1);
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(5, handler.attempts.get("deferred").get());
+        queue.close();
+    }
+
+    @Test
+    public void testGivesUpWithStopStrategy() throws Exception {
+        DurableRetryQueue<String> queue = newQueue(scheduler, StopStrategies.stopAfterAttempt(4));
+        handler.failures.put("task", 10);
+        queue.defer("task", failedAttempt(2));
+
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (queue.getGivenUpCount() == 0L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertEquals(1L, queue.getGivenUpCount());
+        assertEquals(Collections.singletonList("task"), handler.givenUp);
+        assertEquals(2, handler.attempts.get("task").get());
+        assertEquals(0, queue.getPendingCount());
+        queue.close();
+    }
+
+    @Test
+    public void testRecoversPendingTasksWhenReopened() throws Exception {
+        RetryScheduler stalled = new RetryScheduler() {
+            @Override
+            public void schedule(Runnable attempt, long sleepTime) {
+                throw new RejectedExecutionException();
+            }
+        };
+        DurableRetryQueue<String> queue = newQueue(stalled, StopStrategies.neverStop());
+        queue.defer("first", failedAttempt(1));
+        queue.defer("second", failedAttempt(3));
+        queue.defer("third", failedAttempt(1));
+        assertEquals(3, queue.getPendingCount());
+        queue.close();
+
+        final List<Runnable> held = Collections.synchronizedList(new ArrayList<Runnable>());
+        RetryScheduler holding = new RetryScheduler() {
+            @Override
+            public void schedule(Runnable attempt, long sleepTime) {
+                held.add(attempt);
+            }
+        };
+        queue = newQueue(holding, StopStrategies.neverStop());
+        assertEquals(3, queue.getPendingCount());
+        assertEquals(3, held.size());
+        for (Runnable attempt : new ArrayList<Runnable>(held)) {
+            attempt.run();
+        }
+        awaitCompleted(queue, 3);
+        assertEquals(0, queue.getPendingCount());
+        queue.close();
+
+        queue = newQueue(scheduler, StopStrategies.neverStop());
+        assertEquals(0, queue.getPendingCount());
+        queue.close();
+    }
+
+    @Test
+    public void testAttemptRacingCloseLeavesTaskInLog() throws Exception {
+        final List<Runnable> held = Collections.synchronizedList(new ArrayList<Runnable>());
+        RetryScheduler holding = new RetryScheduler() {
+            @Override
+            public void schedule(Runnable attempt, long sleepTime) {
+                held.add(attempt);
+            }
+        };
+        final CountDownLatch handling = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        DurableRetryQueue.Handler<String> blocking = new DurableRetryQueue.Handler<String>() {
+            @Override
+            public void handle(String task) throws Exception {
+                handling.countDown();
+                release.await();
+            }
+
+            @Override
+            public void onGiveUp(String task, RetryException retryException) {
+            }
+        };
+        final DurableRetryQueue<String> queue = new DurableRetryQueue<String>(logFile, 1024, new StringSerializer(),
+                blocking, StopStrategies.neverStop(), WaitStrategies.noWait(), holding);
+        queue.defer("task", failedAttempt(1));
+        final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+        Thread attempt = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    held.get(0).run();
+                } catch (Throwable t) {
+                    thrown.set(t);
+                }
+            }
+        });
+        attempt.start();
+        assertTrue(handling.await(5L, TimeUnit.SECONDS));
+        queue.close();
+        release.countDown();
+        attempt.join();
+        assertNull(thrown.get());
+        assertEquals(0L, queue.getCompletedCount());
+
+        DurableRetryQueue<String> reopened = newQueue(holding, StopStrategies.neverStop());
+        assertEquals(1, reopened.getPendingCount());
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactsLogWhenFull() throws Exception {
+        RetryLog log = new RetryLog(logFile, 1024);
+        byte[] payload = new byte[100];
+        List<Long> kept = new ArrayList<Long>();
+        for (int i = 0; i < 200; i++) {
+            payload[0] = (byte) i;
+            RetryLog.Entry entry = log.add(payload.clone(), 1L, 0L, i);
+            if (i % 50 == 0) {
+                kept.add(entry.id);
+                log.reschedule(entry.id, 2L, 1000L + i);
+            } else {
+                log.remove(entry.id);
+            }
+        }
+        log.close();
+        assertTrue(logFile.length() < 4096);
+
+        log = new RetryLog(logFile, 1024);
+        assertEquals(kept.size(), log.size());
+        for (long id : kept) {
+            RetryLog.Entry entry = log.get(id);
+            assertEquals(2L, entry.attemptNumber);
+            assertEquals(1000L + id, entry.nextAttemptTime);
+            assertEquals((byte) id, entry.payload[0]);
+        }
+        RetryLog.Entry added = log.add(new byte[]{42}, 1L, 0L, 0L);
+        assertEquals(200L, added.id);
+        log.close();
+    }
+
+    @Test
+    public void testKeepsLogWhenCompactedFileCannotReplaceIt() throws Exception {
+        RetryLog log = new RetryLog(logFile, 1024) {
+            @Override
+            boolean rename(File compacted, File target) {
+                return false;
+            }
+        };
+        byte[] payload = new byte[100];
+        List<Long> kept = new ArrayList<Long>();
+        for (int i = 0; i < 200; i++) {
+            payload[0] = (byte) i;
+            RetryLog.Entry entry = log.add(payload.clone(), 1L, 0L, i);
+            if (i % 50 == 0) {
+                kept.add(entry.id);
+            } else {
+                log.remove(entry.id);
+            }
+        }
+        assertEquals(kept.size(), log.size());
+        log.close();
+        assertTrue(logFile.length() > 1024);
+
+        log = new RetryLog(logFile, 1024);
+        assertFalse(new File(logFile.getPath() + ".compacting").exists());
+        assertEquals(kept.size(), log.size());
+        for (long id : kept) {
+            assertEquals((byte) id, log.get(id).payload[0]);
+        }
+        log.close();
+    }
+
+    private DurableRetryQueue<String> newQueue(RetryScheduler scheduler, StopStrategy stopStrategy) throws IOException {
+        return new DurableRetryQueue<String>(logFile, 1024, new StringSerializer(), handler, stopStrategy,
+                WaitStrategies.fixedWait(5L, TimeUnit.MILLISECONDS), scheduler);
+    }
+
+    private void awaitCompleted(DurableRetryQueue<String> queue, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (queue.getCompletedCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertEquals(count, queue.getCompletedCount());
+    }
+
+    private Attempt<Void> failedAttempt(long attemptNumber) {
+        return new Retryer.ExceptionAttempt<Void>(new IOException(), attemptNumber, 0L);
+    }
+
+    private static class StringSerializer implements DurableRetryQueue.Serializer<String> {
+        @Override
+        public byte[] serialize(String task) {
+            return task.getBytes(Charsets.UTF_8);
+        }
+
+        @Override
+        public String deserialize(byte[] bytes) {
+            return new String(bytes, Charsets.UTF_8);
+        }
+    }
+
+    /**
+     * Fails each task with an IOException the given number of times, then succeeds.
+     */
+    private static class FlakyHandler implements DurableRetryQueue.Handler<String> {
+        final Map<String, Integer> failures = new ConcurrentHashMap<String, Integer>();
+        final ConcurrentMap<String, AtomicInteger> attempts = new ConcurrentHashMap<String, AtomicInteger>();
+        final List<String> givenUp = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void handle(String task) throws Exception {
+            attempts.putIfAbsent(task, new AtomicInteger());
+            int attempt = attempts.get(task).incrementAndGet();
+            Integer failureCount = failures.get(task);
+            if (failureCount != null && attempt <= failureCount) {
+                throw new IOException("attempt " + attempt + " of " + task);
+            }
+        }
+
+        @Override
+        public void onGiveUp(String task, RetryException retryException) {
+            givenUp.add(task);
+        }
+    }
+}
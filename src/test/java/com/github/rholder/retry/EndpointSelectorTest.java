@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EndpointSelectorTest {
+
+    @Test
+    public void testPrefersLowerLatencyAndFewerAttemptsInProgress() {
+        VirtualTicker ticker = new VirtualTicker();
+        EndpointSelector<String> selector = new EndpointSelector<String>(Arrays.asList("a", "b"), 10L, TimeUnit.SECONDS, ticker);
+        record(selector, ticker, "a", 100L, true);
+        record(selector, ticker, "b", 1L, true);
+        assertTrue(selector.getLatency("a", TimeUnit.MICROSECONDS) > selector.getLatency("b", TimeUnit.MICROSECONDS));
+        for (int i = 0; i < 20; i++) {
+            assertEquals("b", selector.select(Collections.<String>emptySet()));
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            selector.onStart("b");
+        }
+        assertEquals(1000, selector.getInFlightCount("b"));
+        assertEquals("a", selector.select(Collections.<String>emptySet()));
+    }
+
+    @Test
+    public void testFailuresCountAgainstFastEndpoints() {
+        VirtualTicker ticker = new VirtualTicker();
+        EndpointSelector<String> selector = new EndpointSelector<String>(Arrays.asList("a", "b"), 10L, TimeUnit.SECONDS, ticker);
+        record(selector, ticker, "a", 10L, true);
+        record(selector, ticker, "b", 10L, true);
+        long before = selector.getLatency("b", TimeUnit.NANOSECONDS);
+        record(selector, ticker, "b", 0L, false);
+        assertTrue(selector.getLatency("b", TimeUnit.NANOSECONDS) > before);
+        assertEquals("a", selector.select(Collections.<String>emptySet()));
+    }
+
+    @Test
+    public void testEndpointRecoversFromLongRunOfFailures() {
+        VirtualTicker ticker = new VirtualTicker();
+        EndpointSelector<String> selector = new EndpointSelector<String>(Arrays.asList("a", "b"), 10L, TimeUnit.SECONDS, ticker);
+        record(selector, ticker, "a", 5L, true);
+        for (int i = 0; i < 2000; i++) {
+            record(selector, ticker, "b", 1L, false);
+        }
+        assertTrue(selector.getLatency("b", TimeUnit.SECONDS) <= 10L);
+        assertEquals("a", selector.select(Collections.<String>emptySet()));
+
+        // b recovers, and an hour later gets the attempts back from a, which is slower
+        ticker.advance(1L, TimeUnit.HOURS);
+        record(selector, ticker, "b", 1L, true);
+        record(selector, ticker, "a", 5L, true);
+        assertTrue(selector.getLatency("b", TimeUnit.MICROSECONDS) < 2000L);
+        for (int i = 0; i < 100; i++) {
+            assertEquals("b", selector.select(Collections.<String>emptySet()));
+        }
+    }
+
+    @Test
+    public void testRetriesGoToEndpointsNotTriedYet() throws Exception {
+        final List<String> endpoints = Arrays.asList("a", "b", "c");
+        EndpointSelector<String> selector = new EndpointSelector<String>(endpoints);
+        Retryer<String> retryer = RetryerBuilder.<String>newBuilder()
+                .retryIfExceptionOfType(IOException.class)
+                .withStopStrategy(StopStrategies.stopAfterAttempt(3))
+                .build();
+        Function<String, Callable<String>> onlyC = new Function<String, Callable<String>>() {
+            @Override
+            public Callable<String> apply(final String endpoint) {
+                return new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        if (!"c".equals(endpoint)) {
+                            throw new IOException(endpoint + " is down");
+                        }
+                        return endpoint;
+                    }
+                };
+            }
+        };
+        for (int i = 0; i < 50; i++) {
+            assertEquals("c", retryer.call(selector.rotating(onlyC)));
+        }
+        for (String endpoint : endpoints) {
+            assertEquals(0, selector.getInFlightCount(endpoint));
+        }
+    }
+
+    @Test
+    public void testCallerClassifiesRejectedResultsAsFailures() throws Exception {
+        List<String> endpoints = Collections.singletonList("a");
+        Function<String, Callable<String>> callables = new Function<String, Callable<String>>() {
+            @Override
+            public Callable<String> apply(String endpoint) {
+                return new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return null;
+                    }
+                };
+            }
+        };
+        final List<Long> attemptNumbers = new ArrayList<Long>();
+        Predicate<Attempt<String>> rejected = new Predicate<Attempt<String>>() {
+            @Override
+            public boolean apply(Attempt<String> attempt) {
+                attemptNumbers.add(attempt.getAttemptNumber());
+                return attempt.hasException() || attempt.getResult() == null;
+            }
+        };
+        Retryer<String> retryer = RetryerBuilder.<String>newBuilder()
+                .retryIfResult(Predicates.<String>isNull())
+                .withStopStrategy(StopStrategies.stopAfterAttempt(2))
+                .build();
+
+        OutlierDetector<String> ignoring = OutlierDetector.newBuilder(endpoints)
+                .withConsecutiveFailures(2)
+                .withMaximumEjectionPercent(100)
+                .build();
+        EndpointSelector<String> selector = new EndpointSelector<String>(endpoints, 10L, TimeUnit.SECONDS,
+                new VirtualTicker(), ignoring);
+        try {
+            retryer.call(selector.rotating(callables));
+            fail("Expected a RetryException");
+        } catch (RetryException ignored) {
+        }
+        assertFalse(ignoring.isEjected("a"));
+
+        OutlierDetector<String> classifying = OutlierDetector.newBuilder(endpoints)
+                .withConsecutiveFailures(2)
+                .withMaximumEjectionPercent(100)
+                .build();
+        selector = new EndpointSelector<String>(endpoints, 10L, TimeUnit.SECONDS, new VirtualTicker(), classifying);
+        try {
+            retryer.call(selector.rotating(callables, rejected));
+            fail("Expected a RetryException");
+        } catch (RetryException ignored) {
+        }
+        assertTrue(classifying.isEjected("a"));
+        assertEquals(Arrays.asList(1L, 2L), attemptNumbers);
+    }
+
+    @Test
+    public void testPicksAmongAllEndpointsOnceAllAreTried() {
+        EndpointSelector<String> selector = new EndpointSelector<String>(Arrays.asList("a", "b"));
+        String selected = selector.select(Collections.<Object>singleton("a"));
+        assertEquals("b", selected);
+        selected = selector.select(new HashSet<Object>(Arrays.asList("a", "b")));
+        assertTrue("a".equals(selected) || "b".equals(selected));
+    }
+
+    private static void record(EndpointSelector<String> selector, VirtualTicker ticker, String endpoint,
+                               long latencyMillis, boolean success) {
+        long startTime = selector.onStart(endpoint);
+        ticker.advance(latencyMillis, TimeUnit.MILLISECONDS);
+        selector.onEnd(endpoint, startTime, success);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class IdempotentResultCacheTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testTimedOutAttemptPublishesItsResult() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<String> slowOnce = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                if (calls.incrementAndGet() == 1) {
+                    // ignores the interruption of the time limiter, like a blocking socket write
+                    long end = System.currentTimeMillis() + 150L;
+                    while (System.currentTimeMillis() < end) {
+                        Thread.yield();
+                    }
+                }
+                return "done";
+            }
+        };
+        Retryer<String> retryer = RetryerBuilder.<String>newBuilder()
+                .withAttemptTimeLimiter(AttemptTimeLimiters.<String>fixedTimeLimit(50L, TimeUnit.MILLISECONDS, executor))
+                .retryIfExceptionOfType(UncheckedTimeoutException.class)
+                .withStopStrategy(StopStrategies.stopAfterAttempt(5))
+                .build();
+        IdempotentResultCache<String, String> cache = new IdempotentResultCache<String, String>(100L, 1L, TimeUnit.MINUTES);
+
+        assertEquals("done", retryer.call(cache.wrap("order-1", slowOnce)));
+        assertEquals(1, calls.get());
+        assertEquals("done", retryer.call(cache.wrap("order-1", slowOnce)));
+        assertEquals(1, calls.get());
+        assertEquals(1L, cache.size());
+    }
+
+    @Test
+    public void testConcurrentCallsShareTheCallInProgress() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final IdempotentResultCache<String, Integer> cache = new IdempotentResultCache<String, Integer>(100L, 1L, TimeUnit.MINUTES);
+        final Callable<Integer> blocking = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                release.await();
+                return calls.incrementAndGet();
+            }
+        };
+        Callable<Integer> caller = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return cache.call("key", blocking);
+            }
+        };
+        Future<Integer> first = executor.submit(caller);
+        Future<Integer> second = executor.submit(caller);
+        Thread.sleep(50L);
+        release.countDown();
+        assertEquals(Integer.valueOf(1), first.get(5L, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(1), second.get(5L, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testResultsExpireAndFailuresAreNotKept() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<Integer> failingOnce = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                if (calls.incrementAndGet() == 1) {
+                    throw new IOException();
+                }
+                return calls.get();
+            }
+        };
+        VirtualTicker ticker = new VirtualTicker();
+        IdempotentResultCache<String, Integer> cache = new IdempotentResultCache<String, Integer>(100L, 10L, TimeUnit.SECONDS, ticker);
+
+        try {
+            cache.call("key", failingOnce);
+            fail("Expected an IOException");
+        } catch (IOException ignored) {
+        }
+        assertEquals(Integer.valueOf(2), cache.call("key", failingOnce));
+        ticker.advance(9L, TimeUnit.SECONDS);
+        assertEquals(Integer.valueOf(2), cache.call("key", failingOnce));
+        ticker.advance(1L, TimeUnit.SECONDS);
+        assertEquals(Integer.valueOf(3), cache.call("key", failingOnce));
+        cache.invalidate("key");
+        assertEquals(Integer.valueOf(4), cache.call("key", failingOnce));
+    }
+}
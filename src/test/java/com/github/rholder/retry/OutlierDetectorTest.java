@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OutlierDetectorTest {
+
+    private static final List<String> ENDPOINTS = Arrays.asList("a", "b", "c", "d");
+
+    @Test
+    public void testConsecutiveFailuresEjectForGrowingPeriods() {
+        VirtualTicker ticker = new VirtualTicker();
+        OutlierDetector<String> detector = OutlierDetector.newBuilder(ENDPOINTS)
+                .withConsecutiveFailures(3)
+                .withEjectionTime(10L, 25L, TimeUnit.SECONDS)
+                .withSuccessRateDeviation(1.9, 100, 1L, TimeUnit.HOURS)
+                .withTicker(ticker)
+                .build();
+
+        detector.record("a", false);
+        detector.record("a", false);
+        detector.record("a", true);
+        detector.record("a", false);
+        detector.record("a", false);
+        assertFalse(detector.isEjected("a"));
+        detector.record("a", false);
+        assertTrue(detector.isEjected("a"));
+        assertEquals(1, detector.getEjectedCount());
+
+        ticker.advance(10L, TimeUnit.SECONDS);
+        assertFalse(detector.isEjected("a"));
+        failTimes(detector, "a", 3);
+        ticker.advance(19L, TimeUnit.SECONDS);
+        assertTrue(detector.isEjected("a"));
+        ticker.advance(1L, TimeUnit.SECONDS);
+        assertFalse(detector.isEjected("a"));
+
+        failTimes(detector, "a", 3);
+        ticker.advance(24L, TimeUnit.SECONDS);
+        assertTrue(detector.isEjected("a"));
+        ticker.advance(1L, TimeUnit.SECONDS);
+        assertFalse(detector.isEjected("a"));
+    }
+
+    @Test
+    public void testRepeatedEjectionsLastTheMaximumTime() {
+        VirtualTicker ticker = new VirtualTicker();
+        OutlierDetector<String> detector = OutlierDetector.newBuilder(ENDPOINTS)
+                .withConsecutiveFailures(1)
+                .withEjectionTime(30L, 300L, TimeUnit.SECONDS)
+                .withSuccessRateDeviation(1.9, 100, 1000L, TimeUnit.DAYS)
+                .withTicker(ticker)
+                .build();
+
+        for (int i = 0; i < 45; i++) {
+            failTimes(detector, "a", 1);
+            long expected = Math.min(300L, 30L << Math.min(i, 4));
+            ticker.advance(expected - 1L, TimeUnit.SECONDS);
+            assertTrue("ejection " + (i + 1), detector.isEjected("a"));
+            ticker.advance(1L, TimeUnit.SECONDS);
+            assertFalse("ejection " + (i + 1), detector.isEjected("a"));
+            assertEquals(0, detector.getEjectedCount());
+        }
+    }
+
+    @Test
+    public void testConcurrentEjectionsStayWithinTheMaximum() throws Exception {
+        final List<String> endpoints = new ArrayList<String>();
+        for (int i = 0; i < 10; i++) {
+            endpoints.add("endpoint" + i);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(endpoints.size());
+        try {
+            for (int round = 0; round < 50; round++) {
+                final OutlierDetector<String> detector = OutlierDetector.newBuilder(endpoints)
+                        .withConsecutiveFailures(1)
+                        .withMaximumEjectionPercent(50)
+                        .build();
+                final CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (final String endpoint : endpoints) {
+                    futures.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                start.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                return;
+                            }
+                            detector.record(endpoint, false);
+                        }
+                    }));
+                }
+                start.countDown();
+                for (Future<?> future : futures) {
+                    future.get(5L, TimeUnit.SECONDS);
+                }
+                assertEquals(5, detector.getEjectedCount());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSuccessRateOutlierIsEjectedAtEndOfInterval() {
+        VirtualTicker ticker = new VirtualTicker();
+        OutlierDetector<String> detector = OutlierDetector.newBuilder(ENDPOINTS)
+                .withConsecutiveFailures(1000)
+                .withSuccessRateDeviation(1.0, 10, 10L, TimeUnit.SECONDS)
+                .withTicker(ticker)
+                .build();
+
+        for (int i = 0; i < 20; i++) {
+            detector.record("a", true);
+            detector.record("b", true);
+            detector.record("c", i % 10 != 0);
+            detector.record("d", i % 2 == 0);
+        }
+        assertEquals(0, detector.getEjectedCount());
+        ticker.advance(10L, TimeUnit.SECONDS);
+        detector.record("a", true);
+        assertTrue(detector.isEjected("d"));
+        assertEquals(1, detector.getEjectedCount());
+    }
+
+    @Test
+    public void testEjectsAtMostTheMaximumPercentage() {
+        OutlierDetector<String> detector = OutlierDetector.newBuilder(ENDPOINTS)
+                .withConsecutiveFailures(1)
+                .withMaximumEjectionPercent(50)
+                .build();
+
+        for (String endpoint : ENDPOINTS) {
+            detector.record(endpoint, false);
+        }
+        assertEquals(2, detector.getEjectedCount());
+    }
+
+    @Test
+    public void testEndpointSelectorSkipsEjectedEndpoints() {
+        VirtualTicker ticker = new VirtualTicker();
+        OutlierDetector<String> detector = OutlierDetector.newBuilder(ENDPOINTS)
+                .withConsecutiveFailures(2)
+                .withTicker(ticker)
+                .build();
+        EndpointSelector<String> selector = new EndpointSelector<String>(ENDPOINTS, 10L, TimeUnit.SECONDS, ticker, detector);
+
+        for (int i = 0; i < 2; i++) {
+            selector.onEnd("a", selector.onStart("a"), false);
+            selector.onEnd("b", selector.onStart("b"), false);
+        }
+        assertTrue(detector.isEjected("a"));
+        assertTrue(detector.isEjected("b"));
+        for (int i = 0; i < 50; i++) {
+            String selected = selector.select(Collections.<String>emptySet());
+            assertTrue("c".equals(selected) || "d".equals(selected));
+        }
+        assertEquals("c", selector.select(Collections.singleton("d")));
+    }
+
+    private static void failTimes(OutlierDetector<String> detector, String endpoint, int times) {
+        for (int i = 0; i < times; i++) {
+            detector.record(endpoint, false);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Predicates;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PollerTest {
+
+    private ScheduledExecutorService executor;
+    private RetryScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newScheduledThreadPool(1);
+        scheduler = RetrySchedulers.scheduledExecutor(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCallAsync() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfResult(Predicates.<Integer>isNull())
+                .withWaitStrategy(WaitStrategies.fixedWait(10L, TimeUnit.MILLISECONDS))
+                .withRetryListener(new RetryListener() {
+                    @Override
+                    public <V> void onRetry(Attempt<V> attempt) {
+                        attempts.incrementAndGet();
+                    }
+                })
+                .build();
+
+        ListenableFuture<Integer> future = retryer.callAsync(notNullAfter(3), scheduler);
+        assertEquals(3, future.get(1L, TimeUnit.SECONDS).intValue());
+        assertEquals(4, attempts.get());
+    }
+
+    @Test
+    public void testCancelCancelsQueuedAttempt() throws Exception {
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfResult(Predicates.<Integer>isNull())
+                .withWaitStrategy(WaitStrategies.fixedWait(1L, TimeUnit.MINUTES))
+                .build();
+        ScheduledThreadPoolExecutor threadPool = (ScheduledThreadPoolExecutor) executor;
+
+        ListenableFuture<Integer> future = retryer.callAsync(notNullAfter(3), scheduler);
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (threadPool.getCompletedTaskCount() == 0L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertEquals(1, threadPool.getQueue().size());
+        Future<?> queued = (Future<?>) threadPool.getQueue().peek();
+        assertTrue(future.cancel(false));
+        assertTrue(queued.isCancelled());
+    }
+
+    @Test
+    public void testCallAsyncGivesUp() throws Exception {
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfResult(Predicates.<Integer>isNull())
+                .withStopStrategy(StopStrategies.stopAfterAttempt(2))
+                .build();
+
+        try {
+            retryer.callAsync(notNullAfter(3), scheduler).get(1L, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RetryException);
+            assertEquals(2, ((RetryException) e.getCause()).getNumberOfFailedAttempts());
+        }
+    }
+
+    @Test
+    public void testCallAsyncWithAcceptedException() throws Exception {
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfResult(Predicates.<Integer>isNull())
+                .build();
+
+        try {
+            retryer.callAsync(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    throw new IOException();
+                }
+            }, scheduler).get(1L, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testPollWithSameKeyIsShared() throws Exception {
+        final CountDownLatch ready = new CountDownLatch(1);
+        final AtomicInteger polls = new AtomicInteger();
+        Retryer<Boolean> retryer = RetryerBuilder.<Boolean>newBuilder()
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .withWaitStrategy(WaitStrategies.fixedWait(5L, TimeUnit.MILLISECONDS))
+                .build();
+        Poller<Boolean> poller = new Poller<Boolean>(retryer, scheduler);
+        Callable<Boolean> condition = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                polls.incrementAndGet();
+                return ready.getCount() == 0 ? true : null;
+            }
+        };
+
+        ListenableFuture<Boolean> first = poller.poll("job", condition);
+        ListenableFuture<Boolean> second = poller.poll("job", condition);
+        assertSame(first, second);
+        assertEquals(1, poller.getActivePollCount());
+
+        ready.countDown();
+        assertTrue(first.get(1L, TimeUnit.SECONDS));
+
+        // completed polls are forgotten, the next caller starts a fresh one
+        Thread.sleep(50L);
+        assertEquals(0, poller.getActivePollCount());
+        ListenableFuture<Boolean> third = poller.poll("job", condition);
+        assertTrue(third != first);
+        assertTrue(third.get(1L, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancelStopsPolling() throws Exception {
+        final AtomicInteger polls = new AtomicInteger();
+        Retryer<Boolean> retryer = RetryerBuilder.<Boolean>newBuilder()
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .withWaitStrategy(WaitStrategies.fixedWait(5L, TimeUnit.MILLISECONDS))
+                .build();
+        Poller<Boolean> poller = new Poller<Boolean>(retryer, scheduler);
+
+        ListenableFuture<Boolean> poll = poller.poll(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                polls.incrementAndGet();
+                return null;
+            }
+        });
+        Thread.sleep(50L);
+        poll.cancel(false);
+        Thread.sleep(20L);
+        int pollsAfterCancel = polls.get();
+        Thread.sleep(50L);
+        assertEquals(pollsAfterCancel, polls.get());
+    }
+
+    private Callable<Integer> notNullAfter(final int nullResults) {
+        return new Callable<Integer>() {
+            int counter = 0;
+
+            @Override
+            public Integer call() throws Exception {
+                if (counter < nullResults) {
+                    counter++;
+                    return null;
+                }
+                return counter;
+            }
+        };
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.github.rholder.retry.PriorityRetryScheduler.Priority;
+import com.google.common.base.Predicates;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PriorityRetrySchedulerTest {
+
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newScheduledThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRunsMostImportantAttemptsFirst() throws InterruptedException {
+        PriorityRetryScheduler scheduler = new PriorityRetryScheduler(executor, 1, 10);
+        CountDownLatch blocker = new CountDownLatch(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        scheduler.forPriority(Priority.NORMAL).schedule(await(blocker), 0L);
+
+        scheduler.forPriority(Priority.LOW).schedule(record(order, "low"), 0L);
+        scheduler.forPriority(Priority.NORMAL).schedule(record(order, "normal"), 0L);
+        scheduler.forPriority(Priority.CRITICAL).schedule(record(order, "critical 1"), 0L);
+        scheduler.forPriority(Priority.CRITICAL).schedule(record(order, "critical 2"), 0L);
+        assertEquals(2L, scheduler.getPendingCount(Priority.CRITICAL));
+
+        blocker.countDown();
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (order.size() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertEquals(Arrays.asList("critical 1", "critical 2", "normal", "low"), order);
+        assertEquals(2L, scheduler.getRunCount(Priority.CRITICAL));
+        assertEquals(0L, scheduler.getPendingCount(Priority.CRITICAL));
+    }
+
+    @Test
+    public void testDropsLeastImportantAttemptsWhenFull() throws Exception {
+        PriorityRetryScheduler scheduler = new PriorityRetryScheduler(executor, 1, 2);
+        Retryer<Boolean> retryer = RetryerBuilder.<Boolean>newBuilder()
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .withWaitStrategy(WaitStrategies.fixedWait(10L, TimeUnit.SECONDS))
+                .build();
+
+        ListenableFuture<Boolean> low = retryer.callAsync(alwaysNull(), scheduler.forPriority(Priority.LOW));
+        ListenableFuture<Boolean> normal = retryer.callAsync(alwaysNull(), scheduler.forPriority(Priority.NORMAL));
+        awaitSleeping(scheduler, Priority.LOW);
+        awaitSleeping(scheduler, Priority.NORMAL);
+
+        ListenableFuture<Boolean> critical = retryer.callAsync(alwaysNull(), scheduler.forPriority(Priority.CRITICAL));
+        try {
+            low.get(1L, TimeUnit.SECONDS);
+            fail("Expected the low priority call to be dropped");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RetryException);
+        }
+        assertEquals(1L, scheduler.getDroppedCount(Priority.LOW));
+        assertTrue(!normal.isDone() && !critical.isDone());
+        awaitSleeping(scheduler, Priority.CRITICAL);
+
+        try {
+            scheduler.forPriority(Priority.LOW).schedule(noop(), 0L);
+            fail("Expected a RejectedExecutionException");
+        } catch (RejectedExecutionException e) {
+            assertEquals(2L, scheduler.getDroppedCount(Priority.LOW));
+        }
+        normal.cancel(false);
+        critical.cancel(false);
+    }
+
+    /**
+     * Waits for the first attempt of a call with the given priority to have
+     * run, and for the call to sleep before its next attempt.
+     */
+    private void awaitSleeping(PriorityRetryScheduler scheduler, Priority priority) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (scheduler.getRunCount(priority) == 0L || scheduler.getPendingCount(priority) == 0L) {
+            if (System.currentTimeMillis() >= deadline) {
+                fail("no " + priority + " call is sleeping after 5 seconds");
+            }
+            Thread.sleep(5L);
+        }
+    }
+
+    private Runnable await(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private Runnable record(final List<String> order, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+            }
+        };
+    }
+
+    private Runnable noop() {
+        return new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+    }
+
+    private Callable<Boolean> alwaysNull() {
+        return new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return null;
+            }
+        };
+    }
+}
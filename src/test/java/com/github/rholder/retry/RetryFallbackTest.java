@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryFallbackTest {
+
+    private ScheduledExecutorService executor;
+    private VirtualTicker ticker;
+    private Retryer<Integer> retryer;
+    private Backend backend;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        ticker = new VirtualTicker();
+        retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfExceptionOfType(IOException.class)
+                .withStopStrategy(StopStrategies.stopAfterAttempt(3))
+                .withTicker(ticker)
+                .build();
+        backend = new Backend();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testServesLastKnownGoodWhenRetryerGivesUp() throws Exception {
+        RetryFallback<String, Integer> fallback = new RetryFallback<String, Integer>(retryer, 10L, 1L, TimeUnit.MINUTES);
+        try {
+            fallback.call("key", backend);
+            fail("Expected a RetryException");
+        } catch (RetryException ignored) {
+        }
+
+        backend.down.set(false);
+        assertEquals(Integer.valueOf(4), fallback.call("key", backend));
+        backend.down.set(true);
+        assertEquals(Integer.valueOf(4), fallback.call("key", backend));
+        assertEquals(1L, fallback.getFallbackCount());
+        assertEquals(7, backend.calls.get());
+
+        ticker.advance(1L, TimeUnit.MINUTES);
+        try {
+            fallback.call("key", backend);
+            fail("Expected a RetryException");
+        } catch (RetryException ignored) {
+        }
+        assertNull(fallback.getLastKnownGood("key"));
+    }
+
+    @Test
+    public void testDoesNotFallBackOnExceptionsWhichAreNotRetried() throws Exception {
+        RetryFallback<String, Integer> fallback = new RetryFallback<String, Integer>(retryer, 10L, 1L, TimeUnit.MINUTES);
+        backend.down.set(false);
+        fallback.call("key", backend);
+        try {
+            fallback.call("key", new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    throw new IllegalArgumentException();
+                }
+            });
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testServesStaleResultWhileRefreshing() throws Exception {
+        RetryFallback<String, Integer> fallback = new RetryFallback<String, Integer>(retryer, 10L, 60L, 10L,
+                TimeUnit.SECONDS, RetrySchedulers.scheduledExecutor(executor));
+        backend.down.set(false);
+        assertEquals(Integer.valueOf(1), fallback.call("key", backend));
+        ticker.advance(10L, TimeUnit.SECONDS);
+        assertEquals(Integer.valueOf(1), fallback.call("key", backend));
+        assertEquals(1L, fallback.getStaleCount());
+
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (fallback.getLastKnownGood("key") != 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertEquals(Integer.valueOf(2), fallback.call("key", backend));
+        assertEquals(1L, fallback.getStaleCount());
+    }
+
+    @Test
+    public void testFreshResultIsServedWithoutRefreshing() throws Exception {
+        RetryFallback<String, Integer> fallback = new RetryFallback<String, Integer>(retryer, 10L, 60L, 10L,
+                TimeUnit.SECONDS, RetrySchedulers.scheduledExecutor(executor));
+        backend.down.set(false);
+        assertEquals(Integer.valueOf(1), fallback.call("key", backend));
+        ticker.advance(9L, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(1), fallback.call("key", backend));
+        }
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+        assertEquals(1, backend.calls.get());
+        assertEquals(0L, fallback.getStaleCount());
+    }
+
+    @Test
+    public void testConcurrentStaleReadsStartOneRefresh() throws Exception {
+        ScheduledExecutorService refreshExecutor = Executors.newScheduledThreadPool(8);
+        ExecutorService readers = Executors.newFixedThreadPool(8);
+        try {
+            final RetryFallback<String, Integer> fallback = new RetryFallback<String, Integer>(retryer, 10L, 60L, 0L,
+                    TimeUnit.SECONDS, RetrySchedulers.scheduledExecutor(refreshExecutor));
+            backend.down.set(false);
+            assertEquals(Integer.valueOf(1), fallback.call("key", backend));
+
+            final CountDownLatch release = new CountDownLatch(1);
+            final Callable<Integer> blocking = new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    release.await();
+                    return backend.call();
+                }
+            };
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> reads = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 8; i++) {
+                reads.add(readers.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        return fallback.call("key", blocking);
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> read : reads) {
+                assertEquals(Integer.valueOf(1), read.get(5L, TimeUnit.SECONDS));
+            }
+            release.countDown();
+
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (fallback.getLastKnownGood("key") != 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5L);
+            }
+            assertEquals(Integer.valueOf(2), fallback.getLastKnownGood("key"));
+            Thread.sleep(50L);
+            assertEquals(2, backend.calls.get());
+            assertEquals(8L, fallback.getStaleCount());
+        } finally {
+            readers.shutdownNow();
+            refreshExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Fails with an IOException while down, and otherwise returns the number of calls so far.
+     */
+    private static class Backend implements Callable<Integer> {
+        final AtomicBoolean down = new AtomicBoolean(true);
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public Integer call() throws Exception {
+            int call = calls.incrementAndGet();
+            if (down.get()) {
+                throw new IOException();
+            }
+            return call;
+        }
+    }
+}
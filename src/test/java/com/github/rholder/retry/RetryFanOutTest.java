@@ -0,0 +1,227 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryFanOutTest {
+
+    private ScheduledExecutorService executor;
+    private RetryScheduler scheduler;
+    private Retryer<Integer> retryer;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newScheduledThreadPool(4);
+        scheduler = RetrySchedulers.scheduledExecutor(executor);
+        retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfExceptionOfType(IOException.class)
+                .withWaitStrategy(WaitStrategies.fixedWait(5L, TimeUnit.MILLISECONDS))
+                .withStopStrategy(StopStrategies.stopAfterAttempt(5))
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testResultsInInputOrderWithBoundedParallelism() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        List<Callable<Integer>> callables = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            final AtomicInteger attempts = new AtomicInteger();
+            callables.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    try {
+                        Thread.sleep(2L);
+                        if (attempts.incrementAndGet() < 1 + value % 3) {
+                            throw new IOException();
+                        }
+                        return value;
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            });
+        }
+
+        RetryFanOut.Batch<Integer> batch = new RetryFanOut<Integer>(retryer, scheduler, 3).start(callables);
+        List<Integer> results = batch.allAsList().get(5L, TimeUnit.SECONDS);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Integer.valueOf(i), results.get(i));
+        }
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    @Test
+    public void testTakeCompletedInCompletionOrder() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<Integer> slow = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                release.await();
+                return 1;
+            }
+        };
+        List<Callable<Integer>> callables = new ArrayList<Callable<Integer>>();
+        callables.add(slow);
+        callables.add(constant(2));
+        RetryFanOut.Batch<Integer> batch = new RetryFanOut<Integer>(retryer, scheduler, 2).start(callables);
+
+        assertEquals(Integer.valueOf(2), batch.takeCompleted().get());
+        release.countDown();
+        assertEquals(Integer.valueOf(1), batch.takeCompleted().get());
+        try {
+            batch.takeCompleted();
+            fail("Expected a NoSuchElementException");
+        } catch (NoSuchElementException ignored) {
+        }
+    }
+
+    @Test
+    public void testDeadlineFailsUnfinishedCalls() throws Exception {
+        Callable<Integer> failing = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                throw new IOException();
+            }
+        };
+        Retryer<Integer> patient = RetryerBuilder.<Integer>newBuilder()
+                .retryIfExceptionOfType(IOException.class)
+                .withWaitStrategy(WaitStrategies.fixedWait(10L, TimeUnit.MILLISECONDS))
+                .build();
+        List<Callable<Integer>> callables = new ArrayList<Callable<Integer>>();
+        callables.add(constant(1));
+        callables.add(failing);
+        callables.add(constant(3));
+        RetryFanOut.Batch<Integer> batch = new RetryFanOut<Integer>(patient, scheduler, 1)
+                .withDeadline(100L, TimeUnit.MILLISECONDS)
+                .start(callables);
+
+        List<ListenableFuture<Integer>> futures = batch.getFutures();
+        assertEquals(Integer.valueOf(1), futures.get(0).get(5L, TimeUnit.SECONDS));
+        assertTimedOut(futures.get(1));
+        assertTimedOut(futures.get(2));
+    }
+
+    @Test
+    public void testCompletedBatchCancelsItsDeadline() throws Exception {
+        List<Callable<Integer>> callables = new ArrayList<Callable<Integer>>();
+        for (int i = 1; i <= 3; i++) {
+            callables.add(constant(i));
+        }
+        RetryFanOut.Batch<Integer> batch = new RetryFanOut<Integer>(retryer, scheduler, 2)
+                .withDeadline(1L, TimeUnit.HOURS)
+                .start(callables);
+
+        assertEquals(Arrays.asList(1, 2, 3), batch.allAsList().get(5L, TimeUnit.SECONDS));
+        for (int i = 0; i < 3; i++) {
+            batch.takeCompleted();
+        }
+        List<Runnable> queued = new ArrayList<Runnable>(((ScheduledThreadPoolExecutor) executor).getQueue());
+        assertEquals(1, queued.size());
+        assertTrue(((Future<?>) queued.get(0)).isCancelled());
+    }
+
+    @Test
+    public void testFailFastCancelsRemainingCalls() throws Exception {
+        final AtomicInteger started = new AtomicInteger();
+        List<Callable<Integer>> callables = new ArrayList<Callable<Integer>>();
+        callables.add(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                throw new IllegalStateException();
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            callables.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    started.incrementAndGet();
+                    return 0;
+                }
+            });
+        }
+        RetryFanOut.Batch<Integer> batch = new RetryFanOut<Integer>(retryer, scheduler, 1)
+                .withFailFast()
+                .start(callables);
+
+        try {
+            batch.allAsList().get(5L, TimeUnit.SECONDS);
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        for (int i = 0; i < 11; i++) {
+            batch.takeCompleted();
+        }
+        for (ListenableFuture<Integer> future : batch.getFutures().subList(1, 11)) {
+            assertTrue(future.isCancelled());
+        }
+        assertEquals(0, started.get());
+    }
+
+    private static Callable<Integer> constant(final int value) {
+        return new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return value;
+            }
+        };
+    }
+
+    private static void assertTimedOut(ListenableFuture<Integer> future) throws Exception {
+        try {
+            future.get(5L, TimeUnit.SECONDS);
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+}
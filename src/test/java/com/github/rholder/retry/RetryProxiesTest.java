@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryProxiesTest {
+
+    public interface Client {
+        @Retrying(maxAttempts = 5, waitTime = 1L, retryOn = IOException.class)
+        String fetch(int failures) throws IOException;
+
+        @Retrying(maxAttempts = 2, retryOn = IllegalStateException.class)
+        String fetchUnchecked(int failures);
+
+        @Retrying(maxAttempts = 2, retryOn = InterruptedException.class)
+        String fetchUndeclared(int failures);
+
+        String fetchOnce(int failures) throws IOException;
+    }
+
+    @Retrying(maxAttempts = 4, waitType = Retrying.WaitType.EXPONENTIAL, waitTime = 1L, maxWaitTime = 5L)
+    public interface AnnotatedClient {
+        String fetch(int failures) throws IOException;
+
+        @Retrying(maxAttempts = 1)
+        String fetchOnce(int failures) throws IOException;
+    }
+
+    private static class FlakyClient implements Client, AnnotatedClient {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public String fetch(int failures) throws IOException {
+            if (calls.incrementAndGet() <= failures) {
+                throw new FileNotFoundException("call " + calls.get());
+            }
+            return "call " + calls.get();
+        }
+
+        @Override
+        public String fetchUnchecked(int failures) {
+            if (calls.incrementAndGet() <= failures) {
+                throw new IllegalStateException("call " + calls.get());
+            }
+            return "call " + calls.get();
+        }
+
+        @Override
+        public String fetchUndeclared(int failures) {
+            calls.incrementAndGet();
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String fetchOnce(int failures) throws IOException {
+            return fetch(failures);
+        }
+
+        @Override
+        public String toString() {
+            return "flaky";
+        }
+    }
+
+    @Test
+    public void testRetriesAnnotatedMethod() throws IOException {
+        FlakyClient target = new FlakyClient();
+        Client client = RetryProxies.newProxy(Client.class, target);
+        assertEquals("call 4", client.fetch(3));
+        assertEquals(4, target.calls.get());
+    }
+
+    @Test
+    public void testThrowsDeclaredExceptionOfLastAttempt() {
+        FlakyClient target = new FlakyClient();
+        Client client = RetryProxies.newProxy(Client.class, target);
+        try {
+            client.fetch(10);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals("call 5", e.getMessage());
+        }
+        assertEquals(5, target.calls.get());
+    }
+
+    @Test
+    public void testThrowsUncheckedExceptionOfLastAttempt() {
+        FlakyClient target = new FlakyClient();
+        Client client = RetryProxies.newProxy(Client.class, target);
+        try {
+            client.fetchUnchecked(10);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            assertEquals("call 2", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testDoesNotRetryOtherExceptions() {
+        FlakyClient target = new FlakyClient();
+        Client client = RetryProxies.newProxy(Client.class, target);
+        try {
+            client.fetchUndeclared(10);
+            fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException e) {
+            assertEquals(1, target.calls.get());
+        }
+    }
+
+    @Test
+    public void testDoesNotRetryMethodWithoutAnnotation() {
+        FlakyClient target = new FlakyClient();
+        Client client = RetryProxies.newProxy(Client.class, target);
+        try {
+            client.fetchOnce(1);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals(1, target.calls.get());
+        }
+        assertEquals("flaky", client.toString());
+    }
+
+    @Test
+    public void testMethodAnnotationOverridesInterfaceAnnotation() throws IOException {
+        FlakyClient target = new FlakyClient();
+        AnnotatedClient client = RetryProxies.newProxy(AnnotatedClient.class, target);
+        assertEquals("call 4", client.fetch(3));
+        try {
+            client.fetchOnce(10);
+            fail("IOException expected");
+        } catch (IOException e) {
+            assertEquals(5, target.calls.get());
+        }
+    }
+
+    @Test
+    public void testWrapsRetryExceptionWhenLastExceptionIsUndeclared() {
+        final AtomicInteger calls = new AtomicInteger();
+        SneakyClient client = RetryProxies.newProxy(SneakyClient.class, new SneakyClient() {
+            @Override
+            public void run() {
+                calls.incrementAndGet();
+                RetryProxiesTest.<RuntimeException>sneakyThrow(new IOException());
+            }
+        });
+        try {
+            client.run();
+            fail("UndeclaredThrowableException expected");
+        } catch (UndeclaredThrowableException e) {
+            assertTrue(e.getCause() instanceof RetryException);
+            assertTrue(((RetryException) e.getCause()).getLastFailedAttempt().getExceptionCause() instanceof IOException);
+            assertEquals(2, calls.get());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsClass() {
+        RetryProxies.newProxy(FlakyClient.class, new FlakyClient());
+    }
+
+    @Retrying(maxAttempts = 2)
+    public interface SneakyClient {
+        void run();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> void sneakyThrow(Throwable t) throws T {
+        throw (T) t;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPublishersTest {
+
+    private ScheduledExecutorService executor;
+    private RetryScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newScheduledThreadPool(2);
+        scheduler = RetrySchedulers.scheduledExecutor(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRetrySubscribesAgainOnError() throws InterruptedException {
+        FlakyPublisher source = new FlakyPublisher(2, 1, 2);
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfExceptionOfType(IOException.class)
+                .withWaitStrategy(WaitStrategies.fixedWait(10L, TimeUnit.MILLISECONDS))
+                .build();
+
+        CollectingSubscriber<Integer> subscriber = new CollectingSubscriber<Integer>(Long.MAX_VALUE);
+        RetryPublishers.retry(source, retryer, scheduler).subscribe(subscriber);
+
+        assertTrue(subscriber.await());
+        assertNull(subscriber.error);
+        assertEquals(Lists.newArrayList(1, 2, 1, 2, 1, 2), subscriber.elements);
+        assertEquals(3, source.subscriptions.get());
+    }
+
+    @Test
+    public void testRetryGivesUp() throws InterruptedException {
+        FlakyPublisher source = new FlakyPublisher(5, 1);
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfExceptionOfType(IOException.class)
+                .withStopStrategy(StopStrategies.stopAfterAttempt(3))
+                .build();
+
+        CollectingSubscriber<Integer> subscriber = new CollectingSubscriber<Integer>(Long.MAX_VALUE);
+        RetryPublishers.retry(source, retryer, scheduler).subscribe(subscriber);
+
+        assertTrue(subscriber.await());
+        assertTrue(subscriber.error instanceof RetryException);
+        assertEquals(3, ((RetryException) subscriber.error).getNumberOfFailedAttempts());
+        assertTrue(subscriber.error.getCause() instanceof IOException);
+    }
+
+    @Test
+    public void testRetryPassesThroughAcceptedError() throws InterruptedException {
+        FlakyPublisher source = new FlakyPublisher(5, 1);
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfRuntimeException()
+                .build();
+
+        CollectingSubscriber<Integer> subscriber = new CollectingSubscriber<Integer>(Long.MAX_VALUE);
+        RetryPublishers.retry(source, retryer, scheduler).subscribe(subscriber);
+
+        assertTrue(subscriber.await());
+        assertTrue(subscriber.error instanceof IOException);
+        assertEquals(1, source.subscriptions.get());
+    }
+
+    @Test
+    public void testRetryRequestsOutstandingDemandFromNewSubscription() throws InterruptedException {
+        FlakyPublisher source = new FlakyPublisher(1, 1, 2, 3);
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfExceptionOfType(IOException.class)
+                .build();
+
+        CollectingSubscriber<Integer> subscriber = new CollectingSubscriber<Integer>(5L);
+        RetryPublishers.retry(source, retryer, scheduler).subscribe(subscriber);
+
+        subscriber.awaitElements(5);
+        assertEquals(Lists.newArrayList(1, 2, 3, 1, 2), subscriber.elements);
+        assertEquals(Lists.newArrayList(5L, 2L), source.requests);
+
+        subscriber.subscription.request(1L);
+        assertTrue(subscriber.await());
+        assertEquals(Lists.newArrayList(1, 2, 3, 1, 2, 3), subscriber.elements);
+    }
+
+    @Test
+    public void testMapWithRetry() throws InterruptedException {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfExceptionOfType(IOException.class)
+                .withWaitStrategy(WaitStrategies.fixedWait(5L, TimeUnit.MILLISECONDS))
+                .build();
+        Function<Integer, Callable<Integer>> mapper = new Function<Integer, Callable<Integer>>() {
+            @Override
+            public Callable<Integer> apply(final Integer element) {
+                running.incrementAndGet();
+                return new Callable<Integer>() {
+                    boolean failed;
+
+                    @Override
+                    public Integer call() throws Exception {
+                        int current = running.get();
+                        if (current > maxRunning.get()) {
+                            maxRunning.set(current);
+                        }
+                        if (!failed) {
+                            failed = true;
+                            throw new IOException();
+                        }
+                        running.decrementAndGet();
+                        return element * 2;
+                    }
+                };
+            }
+        };
+
+        Integer[] elements = new Integer[20];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = i + 1;
+        }
+        CollectingSubscriber<Integer> subscriber = new CollectingSubscriber<Integer>(Long.MAX_VALUE);
+        RetryPublishers.mapWithRetry(new FlakyPublisher(0, elements), mapper, retryer, scheduler, 4)
+                .subscribe(subscriber);
+
+        assertTrue(subscriber.await());
+        assertNull(subscriber.error);
+        assertEquals(20, subscriber.elements.size());
+        assertTrue(subscriber.elements.containsAll(Sets.newHashSet(2, 4, 6, 8, 10, 20, 30, 40)));
+        assertTrue(maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void testMapWithRetryFailsWhenRetriesGiveUp() throws InterruptedException {
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfExceptionOfType(IOException.class)
+                .withStopStrategy(StopStrategies.stopAfterAttempt(2))
+                .build();
+        Function<Integer, Callable<Integer>> mapper = new Function<Integer, Callable<Integer>>() {
+            @Override
+            public Callable<Integer> apply(final Integer element) {
+                return new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        if (element == 3) {
+                            throw new IOException();
+                        }
+                        return element;
+                    }
+                };
+            }
+        };
+
+        CollectingSubscriber<Integer> subscriber = new CollectingSubscriber<Integer>(Long.MAX_VALUE);
+        RetryPublishers.mapWithRetry(new FlakyPublisher(0, 1, 2, 3, 4, 5), mapper, retryer, scheduler, 2)
+                .subscribe(subscriber);
+
+        assertTrue(subscriber.await());
+        assertTrue(subscriber.error instanceof RetryException);
+    }
+
+    /**
+     * Emits the given elements on request, then fails with an IOException for
+     * the first {@code failures} subscriptions and completes after that.
+     */
+    private static class FlakyPublisher implements Publisher<Integer> {
+        final Integer[] elements;
+        final int failures;
+        final AtomicInteger subscriptions = new AtomicInteger();
+        final List<Long> requests = Collections.synchronizedList(new ArrayList<Long>());
+
+        FlakyPublisher(int failures, Integer... elements) {
+            this.failures = failures;
+            this.elements = elements;
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super Integer> subscriber) {
+            final boolean fail = subscriptions.incrementAndGet() <= failures;
+            subscriber.onSubscribe(new Subscription() {
+                int index;
+                boolean done;
+
+                @Override
+                public synchronized void request(long n) {
+                    requests.add(n);
+                    while (n-- > 0 && index < elements.length && !done) {
+                        subscriber.onNext(elements[index++]);
+                    }
+                    if (!done && index == elements.length) {
+                        done = true;
+                        if (fail) {
+                            subscriber.onError(new IOException());
+                        } else {
+                            subscriber.onComplete();
+                        }
+                    }
+                }
+
+                @Override
+                public synchronized void cancel() {
+                    done = true;
+                }
+            });
+        }
+    }
+
+    private static class CollectingSubscriber<T> implements Subscriber<T> {
+        final long initialRequest;
+        final List<T> elements = Collections.synchronizedList(new ArrayList<T>());
+        final CountDownLatch terminated = new CountDownLatch(1);
+        volatile Subscription subscription;
+        volatile Throwable error;
+
+        CollectingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(initialRequest);
+        }
+
+        @Override
+        public void onNext(T element) {
+            elements.add(element);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            terminated.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return terminated.await(5L, TimeUnit.SECONDS);
+        }
+
+        void awaitElements(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (elements.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5L);
+            }
+        }
+    }
+}
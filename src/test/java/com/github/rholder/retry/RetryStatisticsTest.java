@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Predicates;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryStatisticsTest {
+
+    @Test
+    public void testCountsCallsAndAttempts() throws Exception {
+        VirtualTicker ticker = new VirtualTicker();
+        RetryStatistics statistics = new RetryStatistics();
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .withTicker(ticker)
+                .withBlockStrategy(BlockStrategies.virtualTimeStrategy(ticker))
+                .withWaitStrategy(WaitStrategies.fixedWait(50L, TimeUnit.MILLISECONDS))
+                .withStopStrategy(StopStrategies.stopAfterAttempt(4))
+                .retryIfResult(Predicates.<Integer>isNull())
+                .withRetryTracer(statistics)
+                .build();
+
+        retryer.call(nullUntil(1));
+        retryer.call(nullUntil(3));
+        try {
+            retryer.call(nullUntil(10));
+            fail("RetryException expected");
+        } catch (RetryException e) {
+            // expected
+        }
+
+        assertEquals(3L, statistics.getCallCount());
+        assertEquals(0L, statistics.getInFlightCount());
+        assertEquals(8L, statistics.getAttemptCount());
+        assertEquals(5L, statistics.getRetryCount());
+        assertEquals(5.0 / 8.0, statistics.getRetryRatio(), 0.0);
+        assertEquals(1L, statistics.getGiveUpCount());
+        assertEquals(8.0 / 3.0, statistics.getMeanAttemptsPerCall(), 0.0);
+        assertEquals(4L, statistics.getMaxAttemptsPerCall());
+        assertEquals(250L, statistics.getBlockedTimeMillis());
+
+        statistics.reset();
+        assertEquals(0L, statistics.getCallCount());
+        assertEquals(0L, statistics.getAttemptCount());
+        assertEquals(0.0, statistics.getRetryRatio(), 0.0);
+        assertEquals(0.0, statistics.getMeanAttemptsPerCall(), 0.0);
+        assertEquals(0L, statistics.getMaxAttemptsPerCall());
+        retryer.call(nullUntil(1));
+        assertEquals(1L, statistics.getMaxAttemptsPerCall());
+    }
+
+    @Test
+    public void testCountsCallsInFlight() throws Exception {
+        final RetryStatistics statistics = new RetryStatistics();
+        final Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .withRetryTracer(statistics)
+                .build();
+        final CountDownLatch started = new CountDownLatch(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] futures = new Future<?>[4];
+            for (int i = 0; i < futures.length; i++) {
+                futures[i] = executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return retryer.call(new Callable<Integer>() {
+                            @Override
+                            public Integer call() throws InterruptedException {
+                                started.countDown();
+                                release.await();
+                                return 1;
+                            }
+                        });
+                    }
+                });
+            }
+            assertTrue(started.await(5L, TimeUnit.SECONDS));
+            assertEquals(4L, statistics.getInFlightCount());
+            statistics.reset();
+            assertEquals(4L, statistics.getInFlightCount());
+            release.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertEquals(0L, statistics.getInFlightCount());
+            assertEquals(4L, statistics.getAttemptCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRegistersAsPlatformMBean() throws Exception {
+        RetryStatistics statistics = new RetryStatistics();
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfResult(Predicates.<Integer>isNull())
+                .withRetryTracer(statistics)
+                .build();
+        retryer.call(nullUntil(2));
+
+        ObjectName name = statistics.register("orders");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(new ObjectName("com.github.rholder.retry:type=Retryer,name=\"orders\""), name);
+            assertEquals(2L, server.getAttribute(name, "AttemptCount"));
+            assertEquals(0.5, server.getAttribute(name, "RetryRatio"));
+            try {
+                statistics.register("orders");
+                fail("IllegalStateException expected");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(0L, server.getAttribute(name, "AttemptCount"));
+        } finally {
+            statistics.unregister();
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    private static Callable<Integer> nullUntil(final int attempts) {
+        return new Callable<Integer>() {
+            final AtomicInteger calls = new AtomicInteger();
+
+            @Override
+            public Integer call() {
+                return calls.incrementAndGet() >= attempts ? attempts : null;
+            }
+        };
+    }
+}
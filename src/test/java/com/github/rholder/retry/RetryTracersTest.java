@@ -0,0 +1,268 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.github.rholder.retry.InMemoryRetryTracer.Kind;
+import com.github.rholder.retry.InMemoryRetryTracer.Span;
+import com.github.rholder.retry.RetryTracer.CallOutcome;
+import com.google.common.base.Predicates;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryTracersTest {
+
+    @Test
+    public void testTracesAttemptsAndWaits() throws Exception {
+        final VirtualTicker ticker = new VirtualTicker();
+        InMemoryRetryTracer tracer = new InMemoryRetryTracer();
+        Retryer<String> retryer = RetryerBuilder.<String>newBuilder()
+                .withTicker(ticker)
+                .withBlockStrategy(BlockStrategies.virtualTimeStrategy(ticker))
+                .withWaitStrategy(WaitStrategies.fixedWait(100L, TimeUnit.MILLISECONDS))
+                .retryIfExceptionOfType(IOException.class)
+                .withRetryTracer(tracer)
+                .build();
+
+        assertEquals("done", retryer.call(new Callable<String>() {
+            int calls;
+
+            @Override
+            public String call() throws IOException {
+                ticker.advance(5L, TimeUnit.MILLISECONDS);
+                if (++calls < 3) {
+                    throw new IOException();
+                }
+                return "done";
+            }
+        }));
+
+        List<Span> spans = tracer.getSpans();
+        assertEquals(6, spans.size());
+        assertSpan(spans.get(0), Kind.ATTEMPT, 1L, 5L, CallOutcome.EXCEPTION);
+        assertEquals(IOException.class, spans.get(0).getExceptionClass());
+        assertSpan(spans.get(1), Kind.WAIT, 1L, 100L, null);
+        assertEquals(100L, spans.get(1).getSleepTime());
+        assertSpan(spans.get(2), Kind.ATTEMPT, 2L, 5L, CallOutcome.EXCEPTION);
+        assertSpan(spans.get(3), Kind.WAIT, 2L, 100L, null);
+        assertSpan(spans.get(4), Kind.ATTEMPT, 3L, 5L, CallOutcome.RESULT);
+        assertNull(spans.get(4).getExceptionClass());
+        assertSpan(spans.get(5), Kind.CALL, 3L, 215L, CallOutcome.RESULT);
+        for (Span span : spans) {
+            assertEquals(spans.get(5).getTraceId(), span.getTraceId());
+        }
+    }
+
+    @Test
+    public void testErrorFromListenerEndsTheTrace() throws Exception {
+        InMemoryRetryTracer tracer = new InMemoryRetryTracer();
+        Retryer<String> retryer = RetryerBuilder.<String>newBuilder()
+                .withRetryListener(new RetryListener() {
+                    @Override
+                    public <V> void onRetry(Attempt<V> attempt) {
+                        throw new ListenerError();
+                    }
+                })
+                .withRetryTracer(tracer)
+                .build();
+
+        try {
+            retryer.call(new Callable<String>() {
+                @Override
+                public String call() {
+                    return "done";
+                }
+            });
+            fail("Expected a ListenerError");
+        } catch (ListenerError expected) {
+        }
+
+        List<Span> spans = tracer.getSpans();
+        assertEquals(2, spans.size());
+        assertEquals(Kind.CALL, spans.get(1).getKind());
+        assertEquals(CallOutcome.EXCEPTION, spans.get(1).getOutcome());
+    }
+
+    @Test
+    public void testTracesCallOutcomes() throws Exception {
+        InMemoryRetryTracer tracer = new InMemoryRetryTracer();
+        Retryer<String> retryer = RetryerBuilder.<String>newBuilder()
+                .withStopStrategy(StopStrategies.stopAfterAttempt(2))
+                .retryIfResult(Predicates.<String>isNull())
+                .withRetryTracer(tracer)
+                .build();
+
+        try {
+            retryer.call(returning(null));
+            fail("RetryException expected");
+        } catch (RetryException e) {
+            assertEquals(CallOutcome.GAVE_UP, last(tracer).getOutcome());
+            assertEquals(2L, last(tracer).getAttemptNumber());
+        }
+        try {
+            retryer.call(new Callable<String>() {
+                @Override
+                public String call() {
+                    throw new IllegalStateException();
+                }
+            });
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertEquals(CallOutcome.EXCEPTION, last(tracer).getOutcome());
+        }
+        assertEquals(6, tracer.getSpans().size());
+    }
+
+    @Test
+    public void testTracesAsyncCalls() throws Exception {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            InMemoryRetryTracer tracer = new InMemoryRetryTracer();
+            Retryer<String> retryer = RetryerBuilder.<String>newBuilder()
+                    .withStopStrategy(StopStrategies.stopAfterAttempt(3))
+                    .withWaitStrategy(WaitStrategies.fixedWait(10L, TimeUnit.MILLISECONDS))
+                    .retryIfResult(Predicates.<String>isNull())
+                    .withRetryTracer(tracer)
+                    .build();
+            try {
+                retryer.callAsync(returning(null), RetrySchedulers.scheduledExecutor(executor)).get();
+                fail("ExecutionException expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RetryException);
+            }
+
+            List<Span> spans = tracer.getSpans();
+            assertEquals(6, spans.size());
+            Kind[] kinds = {Kind.ATTEMPT, Kind.WAIT, Kind.ATTEMPT, Kind.WAIT, Kind.ATTEMPT, Kind.CALL};
+            for (int i = 0; i < kinds.length; i++) {
+                assertEquals(kinds[i], spans.get(i).getKind());
+            }
+            assertTrue(spans.get(1).getEndTime() - spans.get(1).getStartTime() >= TimeUnit.MILLISECONDS.toNanos(10L));
+            assertEquals(CallOutcome.GAVE_UP, spans.get(5).getOutcome());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelledAsyncCallEndsItsTrace() throws Exception {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+        try {
+            InMemoryRetryTracer tracer = new InMemoryRetryTracer();
+            RetryStatistics statistics = new RetryStatistics();
+            Retryer<String> retryer = RetryerBuilder.<String>newBuilder()
+                    .retryIfResult(Predicates.<String>isNull())
+                    .withWaitStrategy(WaitStrategies.fixedWait(10L, TimeUnit.SECONDS))
+                    .withRetryTracer(RetryTracers.join(tracer, statistics))
+                    .build();
+
+            Future<String> future = retryer.callAsync(new Callable<String>() {
+                @Override
+                public String call() {
+                    return null;
+                }
+            }, RetrySchedulers.scheduledExecutor(executor));
+            long deadline = System.currentTimeMillis() + 5000L;
+            // the first attempt is over once its task completes, having queued the next one
+            while (executor.getCompletedTaskCount() == 0L && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5L);
+            }
+            assertEquals(1L, statistics.getInFlightCount());
+            assertTrue(future.cancel(false));
+
+            assertEquals(0L, statistics.getInFlightCount());
+            List<Span> spans = tracer.getSpans();
+            assertEquals(2, spans.size());
+            assertEquals(Kind.ATTEMPT, spans.get(0).getKind());
+            assertEquals(Kind.CALL, spans.get(1).getKind());
+            assertEquals(CallOutcome.CANCELLED, spans.get(1).getOutcome());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSampling() throws Exception {
+        InMemoryRetryTracer all = new InMemoryRetryTracer();
+        InMemoryRetryTracer none = new InMemoryRetryTracer();
+        InMemoryRetryTracer some = new InMemoryRetryTracer();
+        Retryer<String> retryer = RetryerBuilder.<String>newBuilder()
+                .withRetryTracer(RetryTracers.sampling(all, 1.0))
+                .withRetryTracer(RetryTracers.sampling(none, 0.0))
+                .withRetryTracer(RetryTracers.sampling(some, 0.5))
+                .build();
+        for (int i = 0; i < 1000; i++) {
+            retryer.call(returning("done"));
+        }
+        assertEquals(2000, all.getSpans().size());
+        assertEquals(0, none.getSpans().size());
+        int sampled = some.getSpans().size() / 2;
+        assertTrue(sampled > 350 && sampled < 650);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSamplingRejectsInvalidProbability() {
+        RetryTracers.sampling(new InMemoryRetryTracer(), 1.5);
+    }
+
+    @Test
+    public void testFlightRecorderTracesNothingWhenNotRecording() throws Exception {
+        RetryTracer tracer = RetryTracers.flightRecorder("test");
+        assertNull(tracer.startCall(0L));
+        Retryer<String> retryer = RetryerBuilder.<String>newBuilder()
+                .withRetryTracer(tracer)
+                .build();
+        assertEquals("done", retryer.call(returning("done")));
+    }
+
+    private static void assertSpan(Span span, Kind kind, long attemptNumber, long durationMillis, CallOutcome outcome) {
+        assertEquals(kind, span.getKind());
+        assertEquals(attemptNumber, span.getAttemptNumber());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(durationMillis), span.getEndTime() - span.getStartTime());
+        assertEquals(outcome, span.getOutcome());
+    }
+
+    private static Span last(InMemoryRetryTracer tracer) {
+        List<Span> spans = tracer.getSpans();
+        return spans.get(spans.size() - 1);
+    }
+
+    private static Callable<String> returning(final String result) {
+        return new Callable<String>() {
+            @Override
+            public String call() {
+                return result;
+            }
+        };
+    }
+
+    private static class ListenerError extends Error {
+    }
+}
@@ -22,7 +22,9 @@ import com.google.common.base.Predicates;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
@@ -33,7 +35,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -112,6 +116,112 @@ public class RetryerBuilderTest {
         }
     }
 
+    @Test
+    public void testWithContextualStopStrategy() throws ExecutionException {
+        final AtomicInteger counter = new AtomicInteger();
+        Callable<Boolean> callable = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                if (counter.incrementAndGet() % 3 == 0) {
+                    throw new IOException();
+                }
+                return null;
+            }
+        };
+        Retryer<Boolean> retryer = RetryerBuilder.<Boolean>newBuilder()
+                .withStopStrategy(StopStrategies.stopAfterExceptions(2))
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .retryIfExceptionOfType(IOException.class)
+                .build();
+        try {
+            retryer.call(callable);
+            fail("RetryException expected");
+        } catch (RetryException e) {
+            assertEquals(6, e.getNumberOfFailedAttempts());
+            assertTrue(e.getLastFailedAttempt().hasException());
+        }
+    }
+
+    @Test
+    public void testWithStacklessRetryException() throws ExecutionException {
+        Callable<Boolean> callable = notNullAfter5Attempts();
+        Retryer<Boolean> retryer = RetryerBuilder.<Boolean>newBuilder()
+                .withStopStrategy(StopStrategies.stopAfterAttempt(3))
+                .withStacklessRetryException()
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .build();
+        try {
+            retryer.call(callable);
+            fail("RetryException expected");
+        } catch (RetryException e) {
+            assertFalse(e.isWritableStackTrace());
+            assertEquals(0, e.getStackTrace().length);
+            assertEquals(3, e.getNumberOfFailedAttempts());
+            assertEquals(3L, e.getLastFailedAttempt().getAttemptNumber());
+            assertNull(e.getLastFailedAttempt().getResult());
+        }
+
+        callable = notNullAfter5Attempts();
+        retryer = RetryerBuilder.<Boolean>newBuilder()
+                .withStopStrategy(StopStrategies.stopAfterAttempt(3))
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .build();
+        try {
+            retryer.call(callable);
+            fail("RetryException expected");
+        } catch (RetryException e) {
+            assertTrue(e.isWritableStackTrace());
+            assertTrue(e.getStackTrace().length > 0);
+            assertEquals(Retryer.class.getName(), e.getStackTrace()[0].getClassName());
+        }
+    }
+
+    @Test
+    public void testWithReusedAttempt() throws ExecutionException {
+        final List<Attempt<Boolean>> seen = new ArrayList<Attempt<Boolean>>();
+        final List<Attempt<Boolean>> copies = new ArrayList<Attempt<Boolean>>();
+        Retryer<Boolean> retryer = RetryerBuilder.<Boolean>newBuilder()
+                .withReusedAttempt()
+                .withStopStrategy(StopStrategies.stopAfterAttempt(4))
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .retryIfExceptionOfType(IOException.class)
+                .withRetryListener(new RetryListener() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public <V> void onRetry(Attempt<V> attempt) {
+                        seen.add((Attempt<Boolean>) attempt);
+                        copies.add((Attempt<Boolean>) Attempts.copyOf(attempt));
+                    }
+                })
+                .build();
+        final AtomicInteger counter = new AtomicInteger();
+        try {
+            retryer.call(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    if (counter.incrementAndGet() % 2 == 0) {
+                        throw new IOException("attempt " + counter.get());
+                    }
+                    return null;
+                }
+            });
+            fail("RetryException expected");
+        } catch (RetryException e) {
+            assertEquals(4, seen.size());
+            for (Attempt<Boolean> attempt : seen) {
+                assertSame(seen.get(0), attempt);
+            }
+            assertNotSame(seen.get(0), e.getLastFailedAttempt());
+            assertEquals(4L, e.getLastFailedAttempt().getAttemptNumber());
+            assertEquals("attempt 4", e.getLastFailedAttempt().getExceptionCause().getMessage());
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 1L, copies.get(i).getAttemptNumber());
+            assertEquals(i % 2 == 1, copies.get(i).hasException());
+        }
+        assertTrue(seen.get(0).hasException());
+    }
+
     @Test
     public void testWithBlockStrategy() throws ExecutionException, RetryException {
         Callable<Boolean> callable = notNullAfter5Attempts();
@@ -133,6 +243,36 @@ public class RetryerBuilderTest {
         assertEquals(counter.get(), retryCount);
     }
 
+    @Test
+    public void testWithTickerAndVirtualTimeStrategy() throws ExecutionException {
+        VirtualTicker ticker = new VirtualTicker();
+        final List<Long> delays = new ArrayList<Long>();
+        Retryer<Boolean> retryer = RetryerBuilder.<Boolean>newBuilder()
+                .withTicker(ticker)
+                .withBlockStrategy(BlockStrategies.virtualTimeStrategy(ticker))
+                .withWaitStrategy(WaitStrategies.fixedWait(10L, TimeUnit.MINUTES))
+                .withStopStrategy(StopStrategies.stopAfterDelay(1L, TimeUnit.HOURS))
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .withRetryListener(new RetryListener() {
+                    @Override
+                    public <V> void onRetry(Attempt<V> attempt) {
+                        delays.add(attempt.getDelaySinceFirstAttempt());
+                    }
+                })
+                .build();
+        long start = System.nanoTime();
+        try {
+            retryer.call(alwaysNull(new CountDownLatch(1)));
+            fail("RetryException expected");
+        } catch (RetryException e) {
+            assertEquals(7, e.getNumberOfFailedAttempts());
+            assertEquals(TimeUnit.HOURS.toMillis(1L), e.getLastFailedAttempt().getDelaySinceFirstAttempt());
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1L));
+        assertEquals(TimeUnit.MINUTES.toMillis(10L), delays.get(1) - delays.get(0));
+        assertEquals(TimeUnit.HOURS.toNanos(1L), ticker.read());
+    }
+
     @Test
     public void testRetryIfException() throws ExecutionException, RetryException {
         Callable<Boolean> callable = noIOExceptionAfter5Attempts();
@@ -550,6 +690,58 @@ public class RetryerBuilderTest {
         assertTrue(listenerTwo.get());
     }
 
+    @Test
+    public void testRetryListenersAreCopiedOnBuild() throws Exception {
+        final AtomicInteger notifications = new AtomicInteger();
+        RetryListener listener = new RetryListener() {
+            @Override
+            public <V> void onRetry(Attempt<V> attempt) {
+                notifications.incrementAndGet();
+            }
+        };
+
+        RetryerBuilder<Boolean> builder = RetryerBuilder.<Boolean>newBuilder()
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .withRetryListener(listener);
+        Retryer<Boolean> retryer = builder.build();
+        builder.withRetryListener(listener);
+
+        assertTrue(retryer.call(notNullAfter5Attempts()));
+        assertEquals(6, notifications.get());
+    }
+
+    @Test
+    public void testRetryListenerRegistry() throws Exception {
+        final AtomicInteger notifications = new AtomicInteger();
+        RetryListener listener = new RetryListener() {
+            @Override
+            public <V> void onRetry(Attempt<V> attempt) {
+                notifications.incrementAndGet();
+            }
+        };
+
+        RetryListenerRegistry registry = new RetryListenerRegistry();
+        Retryer<Boolean> retryer = RetryerBuilder.<Boolean>newBuilder()
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .withRetryListener(registry)
+                .build();
+
+        assertTrue(retryer.call(notNullAfter5Attempts()));
+        assertEquals(0, notifications.get());
+
+        registry.addListener(listener);
+        registry.addListener(listener);
+        assertEquals(2, registry.size());
+        assertTrue(retryer.call(notNullAfter5Attempts()));
+        assertEquals(12, notifications.get());
+
+        assertTrue(registry.removeListener(listener));
+        assertTrue(registry.removeListener(listener));
+        assertFalse(registry.removeListener(listener));
+        assertTrue(retryer.call(notNullAfter5Attempts()));
+        assertEquals(12, notifications.get());
+    }
+
     private void assertResultAttempt(Attempt actualAttempt, boolean expectedHasResult, Object expectedResult) {
         assertFalse(actualAttempt.hasException());
         assertEquals(expectedHasResult, actualAttempt.hasResult());
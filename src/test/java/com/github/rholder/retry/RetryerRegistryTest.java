@@ -0,0 +1,247 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryerRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("retry.properties");
+        write("fast.maxAttempts=2\n"
+                + "fast.retryOn=java.io.IOException\n"
+                + "slow.maxAttempts=4\n"
+                + "slow.waitType=EXPONENTIAL\n"
+                + "slow.waitTime=1\n"
+                + "slow.maxWaitTime=5\n");
+    }
+
+    @Test
+    public void testBuildsRetryersFromFile() throws Exception {
+        RetryerRegistry registry = new RetryerRegistry(file);
+        assertEquals(Sets.newHashSet("fast", "slow"), registry.getNames());
+        assertSame(registry.get("fast"), registry.get("fast"));
+
+        AtomicInteger calls = new AtomicInteger();
+        Retryer<String> fast = registry.get("fast");
+        try {
+            fast.call(failing(calls, new IOException()));
+            fail("RetryException expected");
+        } catch (RetryException e) {
+            assertEquals(2, calls.get());
+        }
+
+        calls.set(0);
+        try {
+            fast.call(failing(calls, new IllegalStateException()));
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertEquals(1, calls.get());
+        }
+
+        calls.set(0);
+        Retryer<String> slow = registry.get("slow");
+        try {
+            slow.call(failing(calls, new IllegalStateException()));
+            fail("RetryException expected");
+        } catch (RetryException e) {
+            assertEquals(4, calls.get());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownPolicy() throws IOException {
+        new RetryerRegistry(file).get("unknown");
+    }
+
+    @Test
+    public void testReloadKeepsUnchangedRetryers() throws IOException {
+        RetryerRegistry registry = new RetryerRegistry(file);
+        Retryer<Object> fast = registry.get("fast");
+        Retryer<Object> slow = registry.get("slow");
+        assertFalse(registry.reloadIfModified());
+
+        write("fast.maxAttempts=2\n"
+                + "fast.retryOn=java.io.IOException\n"
+                + "slow.maxAttempts=5\n"
+                + "other.waitTime=10\n");
+        assertTrue(registry.reloadIfModified());
+        assertSame(fast, registry.get("fast"));
+        assertNotSame(slow, registry.get("slow"));
+        assertEquals(Sets.newHashSet("fast", "other", "slow"), registry.getNames());
+    }
+
+    @Test
+    public void testReloadsEditKeepingLengthAndModificationTime() throws IOException {
+        write("fast.maxAttempts=2\n");
+        RetryerRegistry registry = new RetryerRegistry(file);
+        long length = file.length();
+        write("fast.maxAttempts=7\n");
+        assertEquals(length, file.length());
+        assertTrue(registry.reloadIfModified());
+        assertFalse(registry.reloadIfModified());
+    }
+
+    @Test
+    public void testInvalidFileLeavesPoliciesUnchanged() throws IOException {
+        RetryerRegistry registry = new RetryerRegistry(file);
+        Retryer<Object> fast = registry.get("fast");
+        String[] invalidFiles = {
+                "fast.maxAttempts=0\n",
+                "fast.retries=2\n",
+                "fast.waitType=LINEAR\n",
+                "fast.retryOn=java.lang.String\n",
+                "fast.retryOn=com.example.MissingException\n",
+                "fast.timeLimit=100\n",
+                "maxAttempts=2\n"
+        };
+        for (String invalidFile : invalidFiles) {
+            write(invalidFile);
+            try {
+                registry.reload();
+                fail("IllegalArgumentException expected for " + invalidFile);
+            } catch (IllegalArgumentException e) {
+                assertSame(fast, registry.get("fast"));
+            }
+        }
+    }
+
+    @Test
+    public void testTimeLimit() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            write("limited.timeLimit=10\n"
+                    + "limited.maxAttempts=2\n"
+                    + "limited.retryOn=" + UncheckedTimeoutException.class.getName() + "\n");
+            RetryerRegistry registry = new RetryerRegistry(file, executor);
+            final AtomicInteger calls = new AtomicInteger();
+            try {
+                registry.<String>get("limited").call(new Callable<String>() {
+                    @Override
+                    public String call() throws InterruptedException {
+                        calls.incrementAndGet();
+                        Thread.sleep(1000L);
+                        return "late";
+                    }
+                });
+                fail("RetryException expected");
+            } catch (RetryException e) {
+                assertEquals(2, calls.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWatchReloadsChangedFile() throws Exception {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            RetryerRegistry registry = new RetryerRegistry(file);
+            ScheduledFuture<?> watch = registry.watch(executor, 5L, TimeUnit.MILLISECONDS);
+
+            write("fast.maxAttempts=oops\n");
+            awaitFailures(registry, 1L);
+            assertEquals(Sets.newHashSet("fast", "slow"), registry.getNames());
+
+            // fixed at the same length, which must still be picked up
+            long length = file.length();
+            write("other.maxAttempts=923\n");
+            assertEquals(length, file.length());
+            long fixDeadline = System.currentTimeMillis() + 5000L;
+            while (!registry.getNames().contains("other") && System.currentTimeMillis() < fixDeadline) {
+                Thread.sleep(5L);
+            }
+            assertEquals(Sets.newHashSet("other"), registry.getNames());
+
+            write("renamed.maxAttempts=2\n");
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (!registry.getNames().contains("renamed") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5L);
+            }
+            assertEquals(Sets.newHashSet("renamed"), registry.getNames());
+            assertEquals(1L, registry.getReloadFailureCount());
+            watch.cancel(false);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void awaitFailures(RetryerRegistry registry, long failures) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (registry.getReloadFailureCount() < failures && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        assertEquals(failures, registry.getReloadFailureCount());
+    }
+
+    /**
+     * Replaces the file at once, so that a watching registry never reads it half
+     * written, and keeps its modification time, as a file system only keeping it
+     * to the second would for an edit within the same second.
+     */
+    private void write(String content) throws IOException {
+        long previous = file.lastModified();
+        File temp = new File(file.getPath() + ".tmp");
+        Files.write(content, temp, Charsets.UTF_8);
+        if (previous != 0L) {
+            assertTrue(temp.setLastModified(previous));
+        }
+        assertTrue(temp.renameTo(file));
+    }
+
+    private static Callable<String> failing(final AtomicInteger calls, final Exception exception) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                calls.incrementAndGet();
+                throw exception;
+            }
+        };
+    }
+}
@@ -16,11 +16,15 @@
 
 package com.github.rholder.retry;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.base.Predicate;
 import org.junit.Test;
 
 public class StopStrategiesTest {
@@ -51,6 +55,95 @@ public class StopStrategiesTest {
         assertTrue(StopStrategies.stopAfterDelay(1, TimeUnit.SECONDS).shouldStop(failedAttempt(2, 1001L)));
     }
 
+    @Test
+    public void testStopAfterExceptions() {
+        ContextualStopStrategy stopStrategy = (ContextualStopStrategy) StopStrategies.stopAfterExceptions(2);
+        RetryContext context = new RetryContext();
+        Attempt<Boolean> rejectedResult = new Retryer.ResultAttempt<Boolean>(false, 1L, 0L);
+        context.onAttempt(rejectedResult);
+        assertFalse(stopStrategy.shouldStop(rejectedResult, context));
+        context.onAttempt(failedAttempt(2, 0L));
+        assertFalse(stopStrategy.shouldStop(failedAttempt(2, 0L), context));
+        context.onAttempt(failedAttempt(3, 0L));
+        assertTrue(stopStrategy.shouldStop(failedAttempt(3, 0L), context));
+
+        assertFalse(stopStrategy.shouldStop(failedAttempt(1, 0L)));
+        assertTrue(stopStrategy.shouldStop(failedAttempt(2, 0L)));
+    }
+
+    @Test
+    public void testStopIfException() {
+        StopStrategy stopOnState = StopStrategies.stopIfExceptionOfType(IllegalStateException.class);
+        assertTrue(stopOnState.shouldStop(new Retryer.ExceptionAttempt<Boolean>(new IllegalStateException(), 1L, 0L)));
+        assertFalse(stopOnState.shouldStop(failedAttempt(1, 0L)));
+        assertFalse(stopOnState.shouldStop(new Retryer.ResultAttempt<Boolean>(false, 1L, 0L)));
+
+        StopStrategy stopOnMessage = StopStrategies.stopIfException(new Predicate<Throwable>() {
+            @Override
+            public boolean apply(Throwable exception) {
+                return "fatal".equals(exception.getMessage());
+            }
+        });
+        assertTrue(stopOnMessage.shouldStop(new Retryer.ExceptionAttempt<Boolean>(new RuntimeException("fatal"), 1L, 0L)));
+        assertFalse(stopOnMessage.shouldStop(failedAttempt(1, 0L)));
+    }
+
+    @Test
+    public void testAny() {
+        StopStrategy any = StopStrategies.any(
+                StopStrategies.stopAfterDelay(1L, TimeUnit.SECONDS),
+                StopStrategies.any(StopStrategies.stopAfterAttempt(5), StopStrategies.neverStop()),
+                StopStrategies.stopIfExceptionOfType(IllegalStateException.class),
+                StopStrategies.stopAfterAttempt(3));
+        assertFalse(any.shouldStop(failedAttempt(2, 999L)));
+        assertTrue(any.shouldStop(failedAttempt(3, 999L)));
+        assertTrue(any.shouldStop(failedAttempt(2, 1000L)));
+        assertTrue(any.shouldStop(new Retryer.ExceptionAttempt<Boolean>(new IllegalStateException(), 1L, 0L)));
+
+        assertSame(StopStrategies.neverStop(), StopStrategies.any(StopStrategies.neverStop()));
+    }
+
+    @Test
+    public void testAll() {
+        StopStrategy all = StopStrategies.all(
+                StopStrategies.stopAfterDelay(1L, TimeUnit.SECONDS),
+                StopStrategies.all(StopStrategies.stopAfterAttempt(5), StopStrategies.stopAfterAttempt(3)));
+        assertFalse(all.shouldStop(failedAttempt(5, 999L)));
+        assertFalse(all.shouldStop(failedAttempt(4, 1000L)));
+        assertTrue(all.shouldStop(failedAttempt(5, 1000L)));
+
+        assertSame(StopStrategies.neverStop(),
+                StopStrategies.all(StopStrategies.stopAfterAttempt(3), StopStrategies.neverStop()));
+    }
+
+    @Test
+    public void testAnyChecksCheapestFirstAndShortCircuits() {
+        final AtomicInteger checks = new AtomicInteger();
+        StopStrategy custom = new StopStrategy() {
+            @Override
+            public boolean shouldStop(Attempt failedAttempt) {
+                checks.incrementAndGet();
+                return false;
+            }
+        };
+        StopStrategy any = StopStrategies.any(custom, StopStrategies.stopAfterAttempt(3));
+        assertTrue(any.shouldStop(failedAttempt(3, 0L)));
+        assertEquals(0, checks.get());
+        assertFalse(any.shouldStop(failedAttempt(2, 0L)));
+        assertEquals(1, checks.get());
+    }
+
+    @Test
+    public void testAnyWithContextualStrategy() {
+        StopStrategy any = StopStrategies.any(StopStrategies.stopAfterAttempt(10), StopStrategies.stopAfterExceptions(2));
+        assertTrue(any instanceof ContextualStopStrategy);
+        RetryContext context = new RetryContext();
+        context.onAttempt(failedAttempt(1, 0L));
+        assertFalse(((ContextualStopStrategy) any).shouldStop(failedAttempt(1, 0L), context));
+        context.onAttempt(failedAttempt(2, 0L));
+        assertTrue(((ContextualStopStrategy) any).shouldStop(failedAttempt(2, 0L), context));
+    }
+
     public Attempt<Boolean> failedAttempt(long attemptNumber, long delaySinceFirstAttempt) {
         return new Retryer.ExceptionAttempt<Boolean>(new RuntimeException(), attemptNumber, delaySinceFirstAttempt);
     }
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2012-2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.retry;
+
+import com.google.common.base.Predicates;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimingWheelRetrySchedulerTest {
+
+    private ExecutorService executor;
+    private TimingWheelRetryScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+        // tiny wheels, so that most delays go through several wheels or beyond the last one
+        scheduler = new TimingWheelRetryScheduler(executor, 1L, TimeUnit.MILLISECONDS, 4, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRunsTasksAfterTheirDelay() throws InterruptedException {
+        final long[] delays = {0L, 1L, 2L, 3L, 5L, 17L, 64L, 65L, 150L, 300L, 400L};
+        final AtomicLongArray ranAfter = new AtomicLongArray(delays.length);
+        final CountDownLatch latch = new CountDownLatch(delays.length);
+        final long start = System.nanoTime();
+        for (int i = 0; i < delays.length; i++) {
+            final int index = i;
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ranAfter.set(index, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    latch.countDown();
+                }
+            }, delays[i]);
+        }
+        assertTrue(latch.await(5L, TimeUnit.SECONDS));
+        for (int i = 0; i < delays.length; i++) {
+            assertTrue("task " + i + " ran after " + ranAfter.get(i) + "ms", ranAfter.get(i) >= delays[i]);
+        }
+        Thread.sleep(10L);
+        assertEquals(0L, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        TimingWheelRetryScheduler.Timeout cancelledNow = scheduler.newTimeout(task, 30L, TimeUnit.MILLISECONDS);
+        TimingWheelRetryScheduler.Timeout cancelledLater = scheduler.newTimeout(task, 40L, TimeUnit.MILLISECONDS);
+        TimingWheelRetryScheduler.Timeout kept = scheduler.newTimeout(task, 30L, TimeUnit.MILLISECONDS);
+        assertTrue(cancelledNow.cancel());
+        Thread.sleep(10L);
+        assertTrue(cancelledLater.cancel());
+        assertFalse(cancelledLater.cancel());
+        Thread.sleep(5L);
+        assertEquals(1L, scheduler.getPendingCount());
+
+        Thread.sleep(100L);
+        assertEquals(1, runs.get());
+        assertTrue(kept.isExpired());
+        assertFalse(kept.cancel());
+        assertTrue(cancelledNow.isCancelled());
+    }
+
+    @Test
+    public void testCallAsync() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfResult(Predicates.<Integer>isNull())
+                .withWaitStrategy(WaitStrategies.fixedWait(20L, TimeUnit.MILLISECONDS))
+                .build();
+        ListenableFuture<Integer> future = retryer.callAsync(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return attempts.incrementAndGet() < 4 ? null : attempts.get();
+            }
+        }, scheduler);
+        assertEquals(4, future.get(1L, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void testCallsScheduledWhileShuttingDownAllComplete() throws Exception {
+        final Retryer<Boolean> retryer = RetryerBuilder.<Boolean>newBuilder()
+                .retryIfResult(Predicates.<Boolean>isNull())
+                .withWaitStrategy(WaitStrategies.fixedWait(1L, TimeUnit.MINUTES))
+                .build();
+        final Callable<Boolean> neverDone = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return null;
+            }
+        };
+        final List<ListenableFuture<Boolean>> futures = Collections.synchronizedList(new ArrayList<ListenableFuture<Boolean>>());
+        final CountDownLatch started = new CountDownLatch(4);
+        Thread[] callers = new Thread[4];
+        for (int t = 0; t < callers.length; t++) {
+            callers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    for (int i = 0; i < 2000; i++) {
+                        futures.add(retryer.callAsync(neverDone, scheduler));
+                    }
+                }
+            });
+            callers[t].start();
+        }
+        started.await();
+        scheduler.shutdown();
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        for (ListenableFuture<Boolean> future : new ArrayList<ListenableFuture<Boolean>>(futures)) {
+            try {
+                future.get(5L, TimeUnit.SECONDS);
+                fail("Expected an ExecutionException");
+            } catch (ExecutionException e) {
+                // rejected, either right away or by the final drain of the worker thread
+            }
+        }
+    }
+
+    @Test
+    public void testExecutorFailureDoesNotStopTheWheel() throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+        Executor failingOnce = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (executions.incrementAndGet() == 1) {
+                    throw new IllegalStateException("executor is broken");
+                }
+                command.run();
+            }
+        };
+        TimingWheelRetryScheduler wheel = new TimingWheelRetryScheduler(failingOnce, 1L, TimeUnit.MILLISECONDS, 4,
+                Executors.defaultThreadFactory());
+        try {
+            final CountDownLatch ran = new CountDownLatch(1);
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    fail("should have been dropped by the broken executor");
+                }
+            }, 1L);
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    ran.countDown();
+                }
+            }, 20L);
+            assertTrue(ran.await(5L, TimeUnit.SECONDS));
+        } finally {
+            wheel.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdownFailsPendingCalls() throws Exception {
+        Retryer<Integer> retryer = RetryerBuilder.<Integer>newBuilder()
+                .retryIfResult(Predicates.<Integer>isNull())
+                .withWaitStrategy(WaitStrategies.fixedWait(1L, TimeUnit.HOURS))
+                .build();
+        ListenableFuture<Integer> future = retryer.callAsync(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return null;
+            }
+        }, scheduler);
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (scheduler.getPendingCount() == 0L && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5L);
+        }
+        scheduler.shutdown();
+        try {
+            future.get(1L, TimeUnit.SECONDS);
+            fail("Expected the call to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RetryException);
+        }
+    }
+}
@@ -153,6 +153,67 @@ public class WaitStrategiesTest {
         assertTrue(fibonacciWait.computeSleepTime(failedAttempt(Integer.MAX_VALUE, 0L)) == 50000L);
     }
 
+    @Test
+    public void testIncrementingWaitBeyondSchedule() {
+        WaitStrategy incrementingWait = WaitStrategies.incrementingWait(500L, TimeUnit.MILLISECONDS, 100L, TimeUnit.MILLISECONDS);
+        assertEquals(13200L, incrementingWait.computeSleepTime(failedAttempt(128, 6546L)));
+        assertEquals(13300L, incrementingWait.computeSleepTime(failedAttempt(129, 6546L)));
+        assertEquals(100400L, incrementingWait.computeSleepTime(failedAttempt(1000, 6546L)));
+    }
+
+    @Test
+    public void testJoinWithAttemptNumberStrategies() {
+        WaitStrategy joined = WaitStrategies.join(
+                WaitStrategies.fixedWait(100L, TimeUnit.MILLISECONDS),
+                WaitStrategies.exponentialWait(1000L, TimeUnit.MILLISECONDS),
+                WaitStrategies.fibonacciWait(50L, TimeUnit.MILLISECONDS));
+        assertEquals(100L + 2L + 1L, joined.computeSleepTime(failedAttempt(1, 0L)));
+        assertEquals(100L + 64L + 8L, joined.computeSleepTime(failedAttempt(6, 0L)));
+        assertEquals(100L + 1000L + 50L, joined.computeSleepTime(failedAttempt(10, 0L)));
+        assertEquals(100L + 1000L + 50L, joined.computeSleepTime(failedAttempt(Integer.MAX_VALUE, 0L)));
+
+        WaitStrategy unbounded = WaitStrategies.join(
+                WaitStrategies.exponentialWait(1000L, TimeUnit.MILLISECONDS),
+                WaitStrategies.incrementingWait(0L, TimeUnit.MILLISECONDS, 10L, TimeUnit.MILLISECONDS));
+        assertEquals(1000L + 1990L, unbounded.computeSleepTime(failedAttempt(200, 0L)));
+    }
+
+    @Test
+    public void testJoinWithOtherStrategies() {
+        WaitStrategy joined = WaitStrategies.join(
+                WaitStrategies.fixedWait(100L, TimeUnit.MILLISECONDS),
+                WaitStrategies.exceptionWait(RetryAfterException.class, customSleepFunction()));
+        assertEquals(100L, joined.computeSleepTime(failedAttempt(1, 0L)));
+        assertEquals(129L, joined.computeSleepTime(failedRetryAfterAttempt(1, 0L)));
+    }
+
+    @Test
+    public void testDecorrelatedJitterWait() {
+        ContextualWaitStrategy jitterWait = (ContextualWaitStrategy) WaitStrategies.decorrelatedJitterWait(
+                100L, TimeUnit.MILLISECONDS, 1000L, TimeUnit.MILLISECONDS);
+        RetryContext context = new RetryContext();
+        for (int i = 1; i <= 50; i++) {
+            long previous = Math.max(100L, context.getPreviousSleepTime());
+            long sleepTime = jitterWait.computeSleepTime(failedAttempt(i, 0L), context);
+            assertTrue(sleepTime >= 100L);
+            assertTrue(sleepTime <= Math.min(1000L, previous * 3));
+            context.onSleep(sleepTime);
+        }
+
+        long sleepTime = jitterWait.computeSleepTime(failedAttempt(1, 0L));
+        assertTrue(sleepTime >= 100L && sleepTime <= 300L);
+    }
+
+    @Test
+    public void testJoinWithContextualStrategies() {
+        WaitStrategy joined = WaitStrategies.join(
+                WaitStrategies.fixedWait(1000L, TimeUnit.MILLISECONDS),
+                WaitStrategies.decorrelatedJitterWait(10L, TimeUnit.MILLISECONDS, 10L, TimeUnit.MILLISECONDS));
+        assertTrue(joined instanceof ContextualWaitStrategy);
+        assertEquals(1010L, ((ContextualWaitStrategy) joined).computeSleepTime(failedAttempt(3, 0L), new RetryContext()));
+        assertEquals(1010L, joined.computeSleepTime(failedAttempt(3, 0L)));
+    }
+
     @Test
     public void testExceptionWait() {
         WaitStrategy exceptionWait = WaitStrategies.exceptionWait(RuntimeException.class, zeroSleepFunction());